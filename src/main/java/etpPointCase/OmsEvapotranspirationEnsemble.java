@@ -0,0 +1,398 @@
+/*
+ * GNU GPL v3 License
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package etpPointCase;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.HashMap;
+
+import oms3.annotations.Author;
+import oms3.annotations.Description;
+import oms3.annotations.Execute;
+import oms3.annotations.Finalize;
+import oms3.annotations.In;
+import oms3.annotations.Keywords;
+import oms3.annotations.Label;
+import oms3.annotations.License;
+import oms3.annotations.Name;
+import oms3.annotations.Out;
+import oms3.annotations.Status;
+import oms3.annotations.Unit;
+
+import org.jgrasstools.gears.libs.modules.JGTModel;
+
+import prospero.OmsProspero;
+import prosperoClasses.DerivedMeteorology;
+import prosperoClasses.Parameters;
+import prosperoClasses.PriestleyTaylorKernel;
+import prosperoClasses.SimulationClock;
+import prosperoClasses.StationBlock;
+import prosperoClasses.StationBlock.Variable;
+import prosperoClasses.StationForcings;
+import prosperoClasses.StationOutputBuffer.Output;
+
+@Description("Calculates the evapotranspiration of the Priestley-Taylor, the FAO Penman-Monteith and the Prospero "
+		+ "models in a single pass on the same forcings, with the derived meteorology computed once per station.")
+@Author(name = "Michele Bottazzi")
+@Keywords("Evapotranspiration, Hydrology")
+@Label("")
+@Name("")
+@Status()
+@License("General Public License Version 3 (GPLv3)")
+public class OmsEvapotranspirationEnsemble extends JGTModel {
+
+	// positions of the methods in the values of the stations
+	public static final int PRIESTLEY_TAYLOR = 0;
+	public static final int PENMAN_MONTEITH_FAO = 1;
+	public static final int PROSPERO = 2;
+
+	@Description("The mean hourly air temperature.")
+	@In
+	@Unit("C")
+	public HashMap<Integer, double[]> inAirTemperature;
+
+	@Description("The net Radiation at the grass surface in W/m2 for the current hour.")
+	@In
+	@Unit("W m-2")
+	public HashMap<Integer, double[]> inNetRadiation;
+
+	@Description("The average hourly wind speed.")
+	@In
+	@Unit("m s-1")
+	public HashMap<Integer, double[]> inWindVelocity;
+
+	@Description("The average air hourly relative humidity.")
+	@In
+	@Unit("%")
+	public HashMap<Integer, double[]> inRelativeHumidity;
+
+	@Description("The atmospheric pressure.")
+	@In
+	@Unit("Pa")
+	public HashMap<Integer, double[]> inAtmosphericPressure;
+
+	@Description("The soilflux.")
+	@In
+	@Unit("W m-2")
+	public HashMap<Integer, double[]> inSoilFlux;
+
+	@Description("The soil mosture.")
+	@In
+	@Unit("m3 m-3")
+	public HashMap<Integer, double[]> inSoilMoisture;
+
+	@Description("The short wave radiation at the surface, used only by Prospero.")
+	@In
+	@Unit("W m-2")
+	public HashMap<Integer, double[]> inShortWaveRadiationDirect;
+
+	@Description("The short wave radiation at the surface, used only by Prospero.")
+	@In
+	@Unit("W m-2")
+	public HashMap<Integer, double[]> inShortWaveRadiationDiffuse;
+
+	@Description("The long wave radiation at the surface, used only by Prospero.")
+	@In
+	@Unit("W m-2")
+	public HashMap<Integer, double[]> inLongWaveRadiation;
+
+	@Description("The Net long wave radiation at the surface, used only by Prospero.")
+	@In
+	@Unit("W m-2")
+	public HashMap<Integer, double[]> inNetLongWaveRadiation;
+
+	@Description("Leaf area index, used only by Prospero.")
+	@In
+	@Unit("m2 m-2")
+	public HashMap<Integer, double[]> inLeafAreaIndex;
+
+	@Description("The forcings of all the stations as dense columns indexed by the station ordinal, "
+			+ "alternative to the HashMap inputs. The ordinals follow the order of the centroids of Prospero.")
+	@In
+	public StationBlock inStationBlock;
+
+	@Description("The path of the forcing archive of the stations, written by OmsForcingArchiveConverter, "
+			+ "alternative to the HashMap inputs. It is read at the date of each step.")
+	@In
+	public String inForcingArchive;
+
+	@Description("The forcings of the step, from the station block, the archive or the HashMap inputs")
+	StationForcings stationForcings = new StationForcings();
+
+	@Description("The temperature default value in case of missing data.")
+	@In
+	@Unit("C")
+	public double defaultAirTemperature = 15.0;
+
+	@Description("The net Radiation default value in case of missing data.")
+	@In
+	@Unit("W m-2")
+	public double defaultNetRadiation = 2.0;
+
+	@Description("The wind default value in case of missing data.")
+	@In
+	@Unit("m s-1")
+	public double defaultWindVelocity = 0.5;
+
+	@Description("The humidity default value in case of missing data.")
+	@In
+	@Unit("%")
+	public double defaultRelativeHumidity = 70.0;
+
+	@Description("The pressure default value in case of missing data.")
+	@In
+	@Unit("KPa")
+	public double defaultAtmosphericPressure;
+
+	@Description("The soilflux default value in case of missing data.")
+	@In
+	@Unit("W m-2")
+	public double defaultSoilFlux = 0.0;
+
+	@Description("The default value of soil mosture.")
+	@In
+	@Unit("m3 m-3")
+	public double defaultSoilMoisture = 0.3;
+
+	@Description("The alpha parameter of Priestley-Taylor.")
+	@In
+	@Unit("-")
+	public double alpha;
+
+	@Description("The coefficient for the soil heat flux during daylight of Priestley-Taylor")
+	@In
+	public double soilFluxParameterDay;
+
+	@Description("The coefficient for the soil heat flux during nighttime of Priestley-Taylor")
+	@In
+	public double soilFluxParameterNight;
+
+	@Description("The crop coefficient of FAO Penman-Monteith.")
+	@In
+	@Unit("[-]")
+	public double cropCoefficient;
+
+	@Description("the water content at wilting point.")
+	@In
+	@Unit("[m3 m-3]")
+	public double waterWiltingPoint;
+
+	@Description("the water content at field capacity.")
+	@In
+	@Unit("[m3 m-3]")
+	public double waterFieldCapacity;
+
+	@Description("the rooting depth.")
+	@In
+	@Unit("[m]")
+	public double rootsDepth;
+
+	@Description("average fraction of Total Available Soil Water (TAW) that can be depleted from the root zone before moisture stress (reduction in ET) occurs [0-1].")
+	@In
+	public double depletionFraction;
+
+	@Description("Height of the canopy of FAO Penman-Monteith.")
+	@In
+	@Unit("[m]")
+	public double canopyHeight = 0.12;
+
+	@Description("The Prospero component, with its parameters and the geometry of the stations. "
+			+ "It is run on the forcings of the ensemble with the same dates; if null only "
+			+ "Priestley-Taylor and FAO Penman-Monteith are computed.")
+	@In
+	public OmsProspero prospero;
+
+	@Description("Switch that defines if it is hourly.")
+	@In
+	public boolean doHourly;
+
+	@Description("The first day of the simulation.")
+	@In
+	public String tStartDate;
+
+	@Description("The time step in minutes.")
+	@In
+	public int temporalStep;
+
+	@Description("The evapotranspiration of each method side by side in mm of the time step: Priestley-Taylor, "
+			+ "FAO Penman-Monteith and the transpiration of Prospero, the null value where the method is not run.")
+	@Out
+	public HashMap<Integer, double[]> outEvapotranspiration;
+
+	double nullValue = -9999.0;
+	int step;
+	public int time;
+
+	SimulationClock clock;
+
+	DerivedMeteorology meteorology = new DerivedMeteorology();
+	PriestleyTaylorKernel kernel = new PriestleyTaylorKernel();
+	// the arrays of the output map, indexed by the station ordinal
+	double[][] values;
+
+	@Execute
+	public void process() throws Exception {
+		if (doHourly == true) {
+			time = temporalStep*60;
+		} else {
+			time = 86400;
+		}
+		clock = SimulationClock.stations(clock, tStartDate, doHourly, temporalStep);
+		clock.setStep(step);
+
+		// the HashMaps are read once for all the methods
+		StationBlock block = stationForcings.select(inStationBlock, inForcingArchive, clock.getMillis(), getInputs(),
+				nullValue);
+
+		// Delta, the vapour pressures and the psychrometric constant, shared by the reference methods
+		configureMeteorology();
+		meteorology.compute(block);
+		configureKernel(clock.isLight());
+
+		double[] transpirationColumn = null;
+		if (prospero != null) {
+			prospero.inStationBlock = block;
+			prospero.doHourly = doHourly;
+			prospero.tStartDate = tStartDate;
+			prospero.temporalStep = temporalStep;
+			prospero.doHashMapOutput = false;
+			prospero.process();
+			transpirationColumn = prospero.outStationBuffer.getColumn(Output.TRANSPIRATION);
+		}
+
+		double[] windVelocityColumn = block.getColumn(Variable.WIND_VELOCITY);
+		double[] soilMoistureColumn = block.getColumn(Variable.SOIL_MOISTURE);
+		double totalAvailableWater = 1000*(waterFieldCapacity - waterWiltingPoint)*rootsDepth;
+		double readilyAvailableWater = totalAvailableWater * depletionFraction;
+
+		prepareOutput(block.id);
+		for (int station = 0; station < block.size(); station++) {
+			double airTemperature = meteorology.airTemperature[station];
+			double netRadiation = meteorology.netRadiation[station];
+			double delta = meteorology.delta[station];
+			double psychrometricConstant = meteorology.psychrometricConstant[station];
+			double soilFlux = meteorology.soilHeatFlux[station];
+			boolean hasSoilFlux = soilFlux != nullValue;
+
+			// Priestley-Taylor, with lambda = 2.45 MJ/kg
+			double soilHeatFluxPt = hasSoilFlux ? soilFlux : kernel.soilHeatFluxCoefficient * netRadiation;
+			double etpPt = 0;
+			if (netRadiation >= 0) {
+				etpPt = kernel.evapotranspiration(delta, psychrometricConstant, kernel.latentHeat, netRadiation, soilHeatFluxPt);
+			}
+			etpPt = (etpPt < 0) ? 0 : etpPt;
+
+			// FAO Penman-Monteith, with the wind at the height of the canopy and the water stress
+			double windVelocity = (windVelocityColumn != null) ? windVelocityColumn[station] : nullValue;
+			if (windVelocity == nullValue) {windVelocity = defaultWindVelocity;}
+			double windSpeedH = (windVelocity * (Math.log(67.8*canopyHeight - 5.42)))/4.87;
+			double soilMoisture = defaultSoilMoisture;
+			if (soilMoistureColumn != null) {soilMoisture = soilMoistureColumn[station];}
+			if (soilMoisture == nullValue) {soilMoisture = defaultSoilMoisture;}
+			double rootZoneDepletation = 1000 * (waterFieldCapacity - soilMoisture) * rootsDepth;
+			double waterStressCoefficient = (rootZoneDepletation < readilyAvailableWater) ? 1
+					: (totalAvailableWater - rootZoneDepletation) / (totalAvailableWater - readilyAvailableWater);
+			double soilHeatFluxFao = hasSoilFlux ? soilFlux : ((netRadiation > 0) ? 0.35 : 0.75) * netRadiation;
+			double etpFao = OmsPenmanMonteithFAO.computeReference(netRadiation, windSpeedH, airTemperature, delta,
+					psychrometricConstant, meteorology.saturationVaporPressure[station], meteorology.vaporPressure[station],
+					soilHeatFluxFao) * waterStressCoefficient * cropCoefficient;
+			etpFao = (etpFao < 0) ? 0 : etpFao;
+
+			values[station][PRIESTLEY_TAYLOR] = etpPt * time / 86400;
+			values[station][PENMAN_MONTEITH_FAO] = etpFao * time / 86400;
+			values[station][PROSPERO] = (transpirationColumn != null) ? toStepDepth(transpirationColumn[station]) : nullValue;
+		}
+		step++;
+	}
+
+	/**
+	 * Closes the files of the forcings and the Prospero model run by the ensemble.
+	 */
+	@Finalize
+	public void close() throws IOException {
+		stationForcings.close();
+		if (prospero != null) {
+			prospero.close();
+		}
+	}
+
+	/**
+	 * @return the HashMap input of each variable of the component
+	 */
+	private EnumMap<Variable, HashMap<Integer, double[]>> getInputs() {
+		EnumMap<Variable, HashMap<Integer, double[]>> inputs = new EnumMap<Variable, HashMap<Integer, double[]>>(Variable.class);
+		inputs.put(Variable.AIR_TEMPERATURE, inAirTemperature);
+		inputs.put(Variable.NET_RADIATION, inNetRadiation);
+		inputs.put(Variable.WIND_VELOCITY, inWindVelocity);
+		inputs.put(Variable.RELATIVE_HUMIDITY, inRelativeHumidity);
+		inputs.put(Variable.ATMOSPHERIC_PRESSURE, inAtmosphericPressure);
+		inputs.put(Variable.SOIL_FLUX, inSoilFlux);
+		inputs.put(Variable.SOIL_MOISTURE, inSoilMoisture);
+		inputs.put(Variable.SHORTWAVE_DIRECT, inShortWaveRadiationDirect);
+		inputs.put(Variable.SHORTWAVE_DIFFUSE, inShortWaveRadiationDiffuse);
+		inputs.put(Variable.LONGWAVE, inLongWaveRadiation);
+		inputs.put(Variable.NET_LONGWAVE, inNetLongWaveRadiation);
+		inputs.put(Variable.LEAF_AREA_INDEX, inLeafAreaIndex);
+		return inputs;
+	}
+
+	/**
+	 * Converts the transpiration of Prospero, the latent heat flux of the canopy and of the soil
+	 * in W m-2, to the mm of water of the time step, as the other methods.
+	 */
+	private double toStepDepth(double transpiration) {
+		if (transpiration == nullValue) {
+			return nullValue;
+		}
+		return transpiration * time / Parameters.latentHeatEvaporation;
+	}
+
+	/**
+	 * Copies the defaults of the component in the derived meteorology, before the stations are computed.
+	 */
+	private void configureMeteorology() {
+		meteorology.nullValue = nullValue;
+		meteorology.defaultAirTemperature = defaultAirTemperature;
+		meteorology.defaultNetRadiation = defaultNetRadiation;
+		meteorology.defaultRelativeHumidity = defaultRelativeHumidity;
+		meteorology.defaultAtmosphericPressure = defaultAtmosphericPressure;
+		meteorology.defaultSoilFlux = defaultSoilFlux;
+	}
+
+	/**
+	 * Copies the parameters of Priestley-Taylor in the kernel, as in OmsPriestleyTaylor.
+	 */
+	private void configureKernel(boolean isLigth) {
+		kernel.nullValue = nullValue;
+		kernel.alpha = alpha;
+		kernel.soilHeatFluxCoefficient = (isLigth == true) ? soilFluxParameterDay : soilFluxParameterNight;
+		kernel.latentHeat = 2.45;
+		kernel.latentHeatSlope = 0;
+	}
+
+	/**
+	 * Builds a new output map for the stations of the step, so the maps of the previous steps
+	 * are not changed.
+	 */
+	private void prepareOutput(int[] id) {
+		outEvapotranspiration = new HashMap<Integer, double[]>(2 * id.length);
+		values = new double[id.length][3];
+		for (int i = 0; i < id.length; i++) {
+			outEvapotranspiration.put(id[i], values[i]);
+		}
+	}
+}
@@ -19,13 +19,14 @@ package etpPointCase;
 
 import static java.lang.Math.pow;
 
+import java.io.IOException;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.Map.Entry;
-import java.util.Set;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
 import oms3.annotations.Execute;
+import oms3.annotations.Finalize;
 import oms3.annotations.In;
 import oms3.annotations.Keywords;
 import oms3.annotations.Label;
@@ -35,10 +36,13 @@ import oms3.annotations.Out;
 import oms3.annotations.Status;
 import oms3.annotations.Unit;
 
-import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormatter;
+
+import prosperoClasses.SimulationClock;
+import prosperoClasses.StationBlock;
+import prosperoClasses.StationBlock.Variable;
+import prosperoClasses.StationForcings;
+import prosperoClasses.TemporalAggregator;
 
 @Description("Calculates evapotranspiration at hourly timestep using FAO Penman-Monteith equation")
 @Author(name = "Giuseppe Formetta, Silvia Franceschi and Andrea Antonello", contact = "maryban@hotmail.it")
@@ -135,6 +139,19 @@ public class OmsPenmanMonteithFAO extends JGTModel {
 	@In
 	public HashMap<Integer, double[]> inStress;
 
+	@Description("The forcings of all the stations as dense columns indexed by the station ordinal, "
+			+ "alternative to the HashMap inputs.")
+	@In
+	public StationBlock inStationBlock;
+
+	@Description("The path of the forcing archive of the stations, written by OmsForcingArchiveConverter, "
+			+ "alternative to the HashMap inputs. It is read at the date of each step.")
+	@In
+	public String inForcingArchive;
+
+	@Description("The forcings of the step, from the station block, the archive or the HashMap inputs")
+	StationForcings stationForcings = new StationForcings();
+
 	@Description("The crop coefficient.")
 	@Unit("[-]")
 	@In
@@ -172,6 +189,30 @@ public class OmsPenmanMonteithFAO extends JGTModel {
 	int step;
 	public int time;
 	
+	@Description("The window of the aggregated evapotranspiration: daily, monthly or the length of a custom window "
+			+ "in minutes; if null the evapotranspiration is not aggregated.")
+	@In
+	public String aggregationWindow;
+
+	@Description("The last date of the simulation, whose step closes the open window of the aggregation even if "
+			+ "it does not reach its end. Required with aggregationWindow, since the outputs are passed to the "
+			+ "other components only at the steps.")
+	@In
+	public String tEndDate;
+
+	@Description("The total, the minimum, the maximum and the number of valid values of the evapotranspiration "
+			+ "of each station on the last window, given at the step closing the window and null at the others.")
+	@Out
+	public HashMap<Integer, double[]> outEvapotranspirationFaoAggregated;
+
+	@Description("Switch that defines if the aggregated HashMap output is updated in place instead of rebuilt at each window, "
+			+ "only for consumers that do not keep the map of a window.")
+	@In
+	public boolean doReuseHashMapOutput = false;
+
+	TemporalAggregator aggregator;
+	double[] evapotranspirationColumn = new double[0];
+
 	@Description("Height of the canopy.")
 	@Unit("[m]")
 	@In
@@ -180,7 +221,7 @@ public class OmsPenmanMonteithFAO extends JGTModel {
     double nullValue = -9999;
 	double latentHeatEvaporation = 2.45*pow(10,6);
 
-	private DateTimeFormatter formatter = JGTConstants.utcDateFormatterYYYYMMDDHHMM;
+	SimulationClock clock;
 
     @Execute
     public void process() throws Exception {
@@ -195,36 +236,48 @@ public class OmsPenmanMonteithFAO extends JGTModel {
 			}
         double totalAvailableWater = 1000*(waterFieldCapacity - waterWiltingPoint)*rootsDepth;
         double readilyAvailableWater = totalAvailableWater * depletionFraction;
-		DateTime startDateTime = formatter.parseDateTime(tStartDate);
-		DateTime date=(doHourly==false)?startDateTime.plusDays(step).plusHours(12):startDateTime.plusMinutes(temporalStep*step);
-        Set<Entry<Integer, double[]>> entrySet = inAirTemperature.entrySet();
-		for( Entry<Integer, double[]> entry : entrySet ) {
-            Integer basinId = entry.getKey();
-
-            double airTemperature = inAirTemperature.get(basinId)[0];
+		clock = SimulationClock.stations(clock, tStartDate, doHourly, temporalStep);
+		clock.setStep(step);
+		StationBlock block = stationForcings.select(inStationBlock, inForcingArchive, clock.getMillis(), getInputs(),
+				nullValue);
+		double[] airTemperatureColumn = block.getColumn(Variable.AIR_TEMPERATURE);
+		double[] netRadiationColumn = block.getColumn(Variable.NET_RADIATION);
+		double[] windVelocityColumn = block.getColumn(Variable.WIND_VELOCITY);
+		double[] atmosphericPressureColumn = block.getColumn(Variable.ATMOSPHERIC_PRESSURE);
+		double[] relativeHumidityColumn = block.getColumn(Variable.RELATIVE_HUMIDITY);
+		double[] soilMostureColumn = block.getColumn(Variable.SOIL_MOISTURE);
+		double[] soilFluxColumn = block.getColumn(Variable.SOIL_FLUX);
+		if (evapotranspirationColumn.length != block.size()) {
+			evapotranspirationColumn = new double[block.size()];
+		}
+
+		for (int station = 0; station < block.size(); station++) {
+            Integer basinId = block.id[station];
+
+            double airTemperature = airTemperatureColumn[station];
 			if (airTemperature == (nullValue)) {airTemperature = defaultAirTemperature;}		
 			  	
-			double netRadiation = inNetRadiation.get(basinId)[0];
+			double netRadiation = netRadiationColumn[station];
 			if (netRadiation == (nullValue)) {netRadiation = defaultNetRadiation;}
 			netRadiation = netRadiation * 86400/1E6;
 
-			double windVelocity = inWindVelocity.get(basinId)[0];
+			double windVelocity = windVelocityColumn[station];
 			if (windVelocity == (nullValue)) {windVelocity = defaultWindVelocity;}		
 			double windSpeedH = (windVelocity * (Math.log(67.8*canopyHeight - 5.42)))/4.87;
 			
-			double atmosphericPressure = inAtmosphericPressure.get(basinId)[0]/1000;
+			double atmosphericPressure = atmosphericPressureColumn[station]/1000;
 			if (atmosphericPressure == (nullValue/1000)) {atmosphericPressure = defaultAtmosphericPressure;}		
 
-			double relativeHumidity = inRelativeHumidity.get(basinId)[0];
+			double relativeHumidity = relativeHumidityColumn[station];
 			if (relativeHumidity == (nullValue)) {relativeHumidity = defaultRelativeHumidity;}	
 
 
 			double soilMosture = defaultSoilMosture;
-			if (inSoilMosture != null){soilMosture = inSoilMosture.get(basinId)[0];}
+			if (soilMostureColumn != null){soilMosture = soilMostureColumn[station];}
 			if (soilMosture == (nullValue)) {soilMosture = defaultSoilMosture;}
 			
 			double soilFlux = defaultSoilFlux;
-			if (inSoilFlux != null){soilFlux = inSoilFlux.get(basinId)[0];}
+			if (soilFluxColumn != null){soilFlux = soilFluxColumn[station];}
 			if (soilFlux == nullValue) {soilFlux = defaultSoilFlux;}
 			soilFlux = soilFlux * 86400/1E6;
 
@@ -237,7 +290,7 @@ public class OmsPenmanMonteithFAO extends JGTModel {
 			System.out.println("rootZone               "+rootZoneDepletation);
 			System.out.println("readilyAvailableWater  "+readilyAvailableWater);
 			System.out.println("waterStressCoefficient "+waterStressCoefficient);	*/
-			int hourOfDay = date.getHourOfDay();
+			int hourOfDay = clock.getHourOfDay();
 
 			boolean islight = false;
 			if (hourOfDay > 6 && hourOfDay < 18) {
@@ -255,12 +308,54 @@ public class OmsPenmanMonteithFAO extends JGTModel {
             double etp = compute(netRadiation, windSpeedH, airTemperature, relativeHumidity, atmosphericPressure, soilHeatFlux)*waterStressCoefficient*cropCoefficient;
             etp=(etp<0)?0:etp;
             outLatentHeatFao.put(basinId, new double[]{etp * latentHeatEvaporation / 86400});
-            outEvapotranspirationFao.put(basinId, new double[]{etp*time/86400});
+            evapotranspirationColumn[station] = etp*time/86400;
+            outEvapotranspirationFao.put(basinId, new double[]{evapotranspirationColumn[station]});
         }
+		outEvapotranspirationFaoAggregated = null;
+		if (aggregator == null) {
+			aggregator = TemporalAggregator.create(aggregationWindow, clock.getStartMillis(), (doHourly == true) ? temporalStep : 1440);
+		}
+		if (aggregator != null) {
+			if (tEndDate == null) {
+				throw new IllegalArgumentException("The aggregation needs tEndDate, whose step gives the last window.");
+			}
+			aggregator.reuseHashMaps = doReuseHashMapOutput;
+			boolean closed = aggregator.add(clock.getMillis(), block.id, evapotranspirationColumn);
+			// the last step closes the window even if it does not reach its end
+			if (closed == false && clock.isLastStep(tEndDate)) {
+				closed = aggregator.flush();
+			}
+			if (closed) {
+				outEvapotranspirationFaoAggregated = aggregator.toHashMap();
+			}
+		}
         step++;
 
     }
 
+	/**
+	 * Closes the files of the forcings at the end of the run.
+	 */
+	@Finalize
+	public void close() throws IOException {
+		stationForcings.close();
+	}
+
+	/**
+	 * @return the HashMap input of each variable of the component
+	 */
+	private EnumMap<Variable, HashMap<Integer, double[]>> getInputs() {
+		EnumMap<Variable, HashMap<Integer, double[]>> inputs = new EnumMap<Variable, HashMap<Integer, double[]>>(Variable.class);
+		inputs.put(Variable.AIR_TEMPERATURE, inAirTemperature);
+		inputs.put(Variable.NET_RADIATION, inNetRadiation);
+		inputs.put(Variable.WIND_VELOCITY, inWindVelocity);
+		inputs.put(Variable.ATMOSPHERIC_PRESSURE, inAtmosphericPressure);
+		inputs.put(Variable.RELATIVE_HUMIDITY, inRelativeHumidity);
+		inputs.put(Variable.SOIL_MOISTURE, inSoilMosture);
+		inputs.put(Variable.SOIL_FLUX, inSoilFlux);
+		return inputs;
+	}
+
     private double compute( double netRadiation, double windVelocity, double airTemperature, double relativeHumidity, 
     		double atmosphericPressure, double soilHeatFlux) {
 
@@ -275,6 +370,18 @@ public class OmsPenmanMonteithFAO extends JGTModel {
         double saturationVaporPressure = 0.6108 * Math.exp(expDelta);
         // Computation of average hourly actual vapour pressure [kPa]
         double vaporPressure = saturationVaporPressure * relativeHumidity / 100;
+        return computeReference(netRadiation, windVelocity, airTemperature, delta, psychrometricConstant,
+        		saturationVaporPressure, vaporPressure, soilHeatFlux);
+    }
+
+    /**
+     * The FAO 56 Penman-Monteith equation on the derived quantities of the air, shared with
+     * the ensemble of the methods.
+     *
+     * @return the reference evapotranspiration [mm day-1], not negative
+     */
+    static double computeReference(double netRadiation, double windVelocity, double airTemperature, double delta,
+    		double psychrometricConstant, double saturationVaporPressure, double vaporPressure, double soilHeatFlux) {
         // Computation of ET [mm day-1]
         double num = 0.408 * delta * (netRadiation - soilHeatFlux) + (900 * psychrometricConstant * windVelocity * (saturationVaporPressure - vaporPressure)) / (airTemperature + 273);
         double den = delta + psychrometricConstant * (1 + 0.34 * windVelocity);
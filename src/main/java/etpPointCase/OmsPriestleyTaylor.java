@@ -18,14 +18,15 @@
 package etpPointCase;
 
 import static java.lang.Math.pow;
+import java.io.IOException;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.Map.Entry;
-import java.util.Set;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
 import oms3.annotations.Execute;
+import oms3.annotations.Finalize;
 import oms3.annotations.In;
 import oms3.annotations.Keywords;
 import oms3.annotations.Label;
@@ -35,13 +36,17 @@ import oms3.annotations.Out;
 import oms3.annotations.Status;
 import oms3.annotations.Unit;
 
-import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormatter;
 
 import com.vividsolutions.jts.geom.Coordinate;
 
+import prosperoClasses.PriestleyTaylorKernel;
+import prosperoClasses.SimulationClock;
+import prosperoClasses.StationBlock;
+import prosperoClasses.StationBlock.Variable;
+import prosperoClasses.StationForcings;
+import prosperoClasses.TemporalAggregator;
+
 @Description("Calculate evapotraspiration based on the Priestley Taylor model")
 @Author(name = "Giuseppe Formetta, Silvia Franceschi and Andrea Antonello", contact = "maryban@hotmail.it")
 @Keywords("evapotraspiration, hydrology")
@@ -84,6 +89,19 @@ public class OmsPriestleyTaylor extends JGTModel {
     @Unit("MJ m-2 hour-1")
     public HashMap<Integer, double[]> inNetRadiation;
 
+	@Description("The forcings of all the stations as dense columns indexed by the station ordinal, "
+			+ "alternative to the HashMap inputs.")
+	@In
+	public StationBlock inStationBlock;
+
+	@Description("The path of the forcing archive of the stations, written by OmsForcingArchiveConverter, "
+			+ "alternative to the HashMap inputs. It is read at the date of each step.")
+	@In
+	public String inForcingArchive;
+
+	@Description("The forcings of the step, from the station block, the archive or the HashMap inputs")
+	StationForcings stationForcings = new StationForcings();
+
     @Description("The net Radiation default value in case of missing data.")
     @In
     @Unit("MJ m-2 hour-1")
@@ -140,11 +158,39 @@ public class OmsPriestleyTaylor extends JGTModel {
 	@In
 	public int temporalStep;
 
-	private DateTimeFormatter formatter = JGTConstants.utcDateFormatterYYYYMMDDHHMM;
+	@Description("The window of the aggregated evapotranspiration: daily, monthly or the length of a custom window "
+			+ "in minutes; if null the evapotranspiration is not aggregated.")
+	@In
+	public String aggregationWindow;
+
+	@Description("The last date of the simulation, whose step closes the open window of the aggregation even if "
+			+ "it does not reach its end. Required with aggregationWindow, since the outputs are passed to the "
+			+ "other components only at the steps.")
+	@In
+	public String tEndDate;
+
+	@Description("The total, the minimum, the maximum and the number of valid values of the evapotranspiration "
+			+ "of each station on the last window, given at the step closing the window and null at the others.")
+	@Out
+	public HashMap<Integer, double[]> outEvapotranspirationPtAggregated;
+
+	@Description("Switch that defines if the aggregated HashMap output is updated in place instead of rebuilt at each window, "
+			+ "only for consumers that do not keep the map of a window.")
+	@In
+	public boolean doReuseHashMapOutput = false;
+
+	TemporalAggregator aggregator;
+
+	SimulationClock clock;
 
 	int step;
 	public int time;
 
+	PriestleyTaylorKernel kernel = new PriestleyTaylorKernel();
+	double[] soilHeatFlux = new double[0];
+	double[] etpColumn = new double[0];
+	double[] evapotranspirationColumn = new double[0];
+
 
 	@Execute
 	public void process() throws Exception {
@@ -156,82 +202,102 @@ public class OmsPriestleyTaylor extends JGTModel {
 			} else {
 			time = 86400;
 			}
-		DateTime startDateTime = formatter.parseDateTime(tStartDate);
-		DateTime date=(doHourly==false)?startDateTime.plusDays(step).plusHours(12):startDateTime.plusMinutes(temporalStep*step);
+		clock = SimulationClock.stations(clock, tStartDate, doHourly, temporalStep);
+		clock.setStep(step);
 
 		outLatentHeatPt = new HashMap<Integer, double[]>();
 		outEvapotranspirationPt = new HashMap<Integer, double[]>();
 
-		Set<Entry<Integer, double[]>> entrySet = inAirTemperature.entrySet();
-		for( Entry<Integer, double[]> entry : entrySet ) {
-            Integer basinId = entry.getKey();
+		StationBlock block = stationForcings.select(inStationBlock, inForcingArchive, clock.getMillis(), getInputs(),
+				nullValue);
+		double[] airTemperatureColumn = block.getColumn(Variable.AIR_TEMPERATURE);
+		double[] netRadiationColumn = block.getColumn(Variable.NET_RADIATION);
+		double[] atmosphericPressureColumn = block.getColumn(Variable.ATMOSPHERIC_PRESSURE);
+		double[] soilFluxColumn = block.getColumn(Variable.SOIL_FLUX);
 
+		configureKernel(clock.isLight());
 
-            double airTemperature = inAirTemperature.get(basinId)[0];
-			if (airTemperature == (nullValue)) {airTemperature = defaultAirTemperature;}		
-			
-			double netRadiation = inNetRadiation.get(basinId)[0];
-			if (netRadiation == (nullValue)) {netRadiation = defaultNetRadiation;}
-			netRadiation = netRadiation * 86400/1E6;
-				
+		// the soil heat flux given for the stations, missing where it is computed from the net radiation
+		if (soilHeatFlux.length != block.size()) {
+			soilHeatFlux = new double[block.size()];
+			etpColumn = new double[block.size()];
+			evapotranspirationColumn = new double[block.size()];
+		}
+		for (int station = 0; station < block.size(); station++) {
 			double soilFlux = defaultSoilFlux;
-			if (inSoilFlux != null){soilFlux = inSoilFlux.get(basinId)[0];}
+			if (soilFluxColumn != null){soilFlux = soilFluxColumn[station];}
 			if (soilFlux == nullValue) {soilFlux = defaultSoilFlux;}
-			soilFlux = soilFlux * 86400/1E6;			
-						
-			double atmosphericPressure = defaultAtmosphericPressure;
-			if (inAtmosphericPressure != null){atmosphericPressure = inAtmosphericPressure.get(basinId)[0]/1000;}
-			if (atmosphericPressure == (nullValue/1000)) {atmosphericPressure = defaultAtmosphericPressure;}
-//			soilFlux = soilFlux * 86400/1E6;			
-//			
-//			double atmosphericPressure = inAtmosphericPressure.get(basinId)[0]/1000;
-//			if (atmosphericPressure == (nullValue/1000)) {atmosphericPressure = defaultAtmosphericPressure;}		
-	        //System.out.println("soilFlux    "+soilFlux);	
-			//double atmosphericPressure = inAtmosphericPressure.get(basinId)[0];
-	        //System.out.println("atmosphericPressure    "+inAtmosphericPressure.get(basinId)[0]);
-		//	if (atmosphericPressure == (nullValue)) {atmosphericPressure = defaultAtmosphericPressure;}
-
-			int hourOfDay = date.getHourOfDay();
-		
-			boolean isLigth = false;
-			if (hourOfDay > 6 && hourOfDay < 18) {
-				isLigth = true;
-			}
-			double soilFluxparameter;
-			if (isLigth == true) {
-				soilFluxparameter = soilFluxParameterDay;
-			} else {
-				soilFluxparameter = soilFluxParameterNight;
-			}
-	        double soilHeatFlux = (soilFlux==defaultSoilFlux)?(soilFluxparameter * netRadiation):soilFlux;			
-	       // System.out.println("netRadiation    "+netRadiation);
-	      //  System.out.println("airTemperature    "+airTemperature);
-
-	       // System.out.println("soilHeatFlux    "+soilHeatFlux);
-
-	        //ystem.out.println("netRadiation    "+netRadiation);	      
-
-	        double etp = (netRadiation<0)?0:computeEvapotranspirationPt(alpha, netRadiation, airTemperature, atmosphericPressure, soilHeatFlux);
-		    //System.out.println("etp    "+etp); ///2450000
+			soilFlux = soilFlux * 86400/1E6;
+			soilHeatFlux[station] = (soilFlux==defaultSoilFlux)?nullValue:soilFlux;
+		}
+		kernel.compute(airTemperatureColumn, netRadiationColumn, atmosphericPressureColumn, soilHeatFlux, 0, block.size(), etpColumn);
 
-	        etp=(etp<0)?0:etp;
-	        //etp = etp*time;
-	        outEvapotranspirationPt.put((Integer)  basinId, new double[]{etp * time / 86400});
+		for (int station = 0; station < block.size(); station++) {
+            Integer basinId = block.id[station];
+	        double etp = etpColumn[station];
+	        evapotranspirationColumn[station] = etp * time / 86400;
+	        outEvapotranspirationPt.put((Integer)  basinId, new double[]{evapotranspirationColumn[station]});
 	        outLatentHeatPt.put((Integer)  basinId, new double[]{etp * latentHeatEvaporation / 86400});
-		   // System.out.println("time    "+time + "     " + etp*time/86400); //mm/timestep ///2450000
-
-	       // *(2.45*1E6)/86400;
 			}
-			step++;
+		outEvapotranspirationPtAggregated = null;
+		if (aggregator == null) {
+			aggregator = TemporalAggregator.create(aggregationWindow, clock.getStartMillis(), (doHourly == true) ? temporalStep : 1440);
+		}
+		if (aggregator != null) {
+			if (tEndDate == null) {
+				throw new IllegalArgumentException("The aggregation needs tEndDate, whose step gives the last window.");
+			}
+			aggregator.reuseHashMaps = doReuseHashMapOutput;
+			boolean closed = aggregator.add(clock.getMillis(), block.id, evapotranspirationColumn);
+			// the last step closes the window even if it does not reach its end
+			if (closed == false && clock.isLastStep(tEndDate)) {
+				closed = aggregator.flush();
+			}
+			if (closed) {
+				outEvapotranspirationPtAggregated = aggregator.toHashMap();
+			}
 		}
-		private double computeEvapotranspirationPt( double alpha, double netRadiation, double airTemperature, double atmosphericPressure, double soilHeatFlux) {
-				double denDelta = Math.pow((airTemperature + 237.3), 2);
-		        double expDelta = (17.27 * airTemperature) / (airTemperature + 237.3);
-		        double numDelta = 4098 * (0.6108 * Math.exp(expDelta));
-		        double delta = numDelta / denDelta;
-		        double psychrometricConstant = 0.665 * 0.001 * atmosphericPressure;
-				double result = ((alpha/2.45) * delta * (netRadiation - soilHeatFlux)) / (psychrometricConstant + delta); //* (1E6)/86400;
-				return result;  // -----> [mm/day]
+			step++;
 		}
 
+	/**
+	 * Closes the files of the forcings at the end of the run.
+	 */
+	@Finalize
+	public void close() throws IOException {
+		stationForcings.close();
+	}
+
+	/**
+	 * @return the HashMap input of each variable of the component
+	 */
+	private EnumMap<Variable, HashMap<Integer, double[]>> getInputs() {
+		EnumMap<Variable, HashMap<Integer, double[]>> inputs = new EnumMap<Variable, HashMap<Integer, double[]>>(Variable.class);
+		inputs.put(Variable.AIR_TEMPERATURE, inAirTemperature);
+		inputs.put(Variable.NET_RADIATION, inNetRadiation);
+		inputs.put(Variable.ATMOSPHERIC_PRESSURE, inAtmosphericPressure);
+		inputs.put(Variable.SOIL_FLUX, inSoilFlux);
+		return inputs;
+	}
+
+	/**
+	 * Copies the inputs of the component in the kernel, before the stations are computed.
+	 * The fluxes are converted from W/m2 to MJ/m2/day and the pressure from Pa to kPa.
+	 */
+	private void configureKernel(boolean isLigth) {
+		kernel.nullValue = nullValue;
+		kernel.defaultTemperature = defaultAirTemperature;
+		kernel.defaultNetRadiation = defaultNetRadiation;
+		kernel.defaultPressure = defaultAtmosphericPressure;
+		kernel.alpha = alpha;
+		kernel.soilHeatFluxCoefficient = (isLigth == true) ? soilFluxParameterDay : soilFluxParameterNight;
+		// lambda = 2.45 MJ/kg and the psychrometric constant of FAO 56, 0.665E-3 * P [kPa/C]
+		kernel.latentHeat = 2.45;
+		kernel.latentHeatSlope = 0;
+		kernel.psychrometricCoefficient = 0.665E-3;
+		kernel.netRadiationFactor = 86400/1E6;
+		kernel.pressureFactor = 1/1000.0;
+		kernel.scale = 1;
+	}
+
 }
\ No newline at end of file
@@ -1,17 +1,16 @@
 package etpRasterCase;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
-import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
-import java.util.LinkedHashMap;
-import static java.lang.Math.exp;
+import java.io.File;
+import java.util.Arrays;
 import static java.lang.Math.pow;
-import javax.media.jai.RasterFactory;
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
+
 import oms3.annotations.Author;
 import oms3.annotations.Description;
 import oms3.annotations.Execute;
+import oms3.annotations.Finalize;
 import oms3.annotations.In;
 import oms3.annotations.Keywords;
 import oms3.annotations.Label;
@@ -21,16 +20,21 @@ import oms3.annotations.Out;
 import oms3.annotations.Status;
 import oms3.annotations.Unit;
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
-import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.utils.RegionMap;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
 import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormatter;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import com.vividsolutions.jts.geom.Coordinate;
+
+import prosperoClasses.FloatGridReader;
+import prosperoClasses.FloatGridWriter;
+import prosperoClasses.FloatRasters;
+import prosperoClasses.ParallelLoop;
+import prosperoClasses.PriestleyTaylorKernel;
+import prosperoClasses.RasterAccess;
+import prosperoClasses.RasterPool;
+import prosperoClasses.SimulationClock;
 
 /*
  * GNU GPL v3 License
@@ -113,15 +117,11 @@ public class OmsPriestleyTaylorEtRaster extends JGTModel {
 	//@Description("Final target CRS")
 	CoordinateReferenceSystem targetCRS = DefaultGeographicCRS.WGS84;
 
-	//@Description("the linked HashMap with the coordinate of the stations")
-	LinkedHashMap<Integer, Coordinate> stationCoordinates;
-	
 	@Description("The output diffuse radiation map")
 	@Out
 	public GridCoverage2D outEtPtGrid;
-	WritableRaster rasterGrid;
 	
-	private DateTimeFormatter formatter = JGTConstants.utcDateFormatterYYYYMMDDHHMM;
+	SimulationClock clock;
 
 	//WritableRaster normalWR;
 	WritableRaster temperatureMap;
@@ -135,17 +135,89 @@ public class OmsPriestleyTaylorEtRaster extends JGTModel {
 	double nullValue = -9999.0;
 	public int time;
 	
+	@Description("Number of output rasters reused in rotation, 0 allocates a new raster at each step. "
+			+ "With N rasters the output map has to be consumed within N steps.")
+	@In
+	public int outputRasterPoolSize = 0;
+	RasterPool outputPool;
+	
+	@Description("Store the input and output maps in 32-bit floats, halving the memory of the maps. "
+			+ "The values are computed in double and rounded only when stored.")
+	@In
+	public boolean doFloat = false;
+	
+	@Description("Number of threads computing the rows of the map, 1 runs them serially.")
+	@In
+	public int parallelism = 1;
+	ParallelLoop loop;
+	
+	PriestleyTaylorKernel kernel = new PriestleyTaylorKernel();
+	
+	@Description("Recompute only the tiles where the input maps changed since the previous step, "
+			+ "reusing Delta and gamma of the pixels where the temperature did not change. "
+			+ "In this mode the input maps are read again at each step in which a new coverage is given.")
+	@In
+	public boolean doIncremental = false;
+	
+	@Description("Side of the square tiles checked for changes in the incremental mode.")
+	@In
+	public int tileSize = 64;
+	
+	// State of the incremental mode, indexed by row * columns + column
+	GridCoverage2D lastTemperatureGrid;
+	GridCoverage2D lastNetRadiationGrid;
+	double[] temperatureValues;
+	double[] netRadiationValues;
+	// Delta and (gamma + Delta) * lambda, which depend only on temperature and pressure
+	double[] deltaValues;
+	double[] denominatorValues;
+	double[] etpValues;
+	int cachedTileSide;
+	double cachedAlpha;
+	double cachedCoeffG;
+	double cachedPressure;
+	boolean cachedHourly;
+	
+	@Description("Number of rows of the strips the maps are streamed in, 0 keeps the whole maps in memory. "
+			+ "In the streaming mode the input maps are read strip by strip at each step and the output map "
+			+ "is written in outEtPtFolder as an ESRI float grid, without building outEtPtGrid. "
+			+ "The maps are read from inAirTemperatureFile and inNetRadiationFile, so that only one strip of each map "
+			+ "is in memory; without the files the strips are copied from the input coverages, held whole by their readers.")
+	@In
+	public int stripRows = 0;
+	
+	@Description("The .flt file of the air temperature map of the step, read strip by strip in the streaming mode "
+			+ "instead of inAirTemperatureGrid.")
+	@In
+	public String inAirTemperatureFile;
+	
+	@Description("The .flt file of the net radiation map of the step, read strip by strip in the streaming mode "
+			+ "instead of inNetRadiationGrid.")
+	@In
+	public String inNetRadiationFile;
+	
+	@Description("The folder of the output maps of the streaming mode.")
+	@In
+	public String outEtPtFolder;
+	
+	@Description("The .flt file of the output map written in the streaming mode.")
+	@Out
+	public String outEtPtFile;
+	
 	@Execute
 	
 	public void process() throws Exception {
 		
 		//rasterGrid=mapsTransform(inGridCoverage2D);
-		if(step==0){
-		// transform the GrifCoverage2D maps into writable rasters
+		// in the streaming mode the files give the maps of each step
+		boolean readFiles = stripRows > 0 && inAirTemperatureFile != null;
+		if(step==0 && readFiles == false){
+		// transform the GrifCoverage2D maps into writable rasters, not in the streaming mode
+		if (stripRows <= 0) {
 		temperatureMap	= mapsTransform(inAirTemperatureGrid);	
 		netRadiationMap	= mapsTransform(inNetRadiationGrid);
+		}
 		// get the dimension of the maps
-		rasterGrid		= mapsTransform(inAirTemperatureGrid);
 		regionMap 		= CoverageUtilities.getRegionParamsFromGridCoverage(inAirTemperatureGrid);
 		columns 		= regionMap.getCols();
 		rows 			= regionMap.getRows();
@@ -153,49 +225,321 @@ public class OmsPriestleyTaylorEtRaster extends JGTModel {
 		}
 		
 		
-		DateTime startDateTime = formatter.parseDateTime(tStartDate);
-		DateTime date=(doHourly==false)?startDateTime.plusDays(step):startDateTime.plusHours(step).plusMinutes(30); 
-	
-		WritableRaster outEtPtWritableRaster = CoverageUtilities.createDoubleWritableRaster(columns, rows, null, null, null);
-		WritableRandomIter outEtPtIter = RandomIterFactory.createWritable(outEtPtWritableRaster, null);       
+		clock = SimulationClock.maps(clock, tStartDate, doHourly);
+		clock.setStep(step);
 
-	// get the geometry of the maps and the coordinates of the stations
-	GridGeometry2D inAirTemperatureGridGeo = inAirTemperatureGrid.getGridGeometry();
-    stationCoordinates = getCoordinate(inAirTemperatureGridGeo);
-	// iterate over the entire domain and compute for each pixel the SWE
-	for( int row = 1; row < rows - 1; row++ ) {
-		for( int column = 1; column < columns - 1; column++ ) {
-		//	int k=0;
-			// get the exact value of the variable in the pixel i, j 
-			airTemperature 		= 	temperatureMap.getSampleDouble(column, row, 0);
-			if (airTemperature == (nullValue)) {airTemperature = defaultAirTemperature;}		
-			
-			netRadiation 	= 	netRadiationMap.getSampleDouble(column, row, 0);
-			if (netRadiation == nullValue) {netRadiation = defaultNetRadiation;}   
-			
-			if (doHourly == true) {
-				time =3600;
-				} else {
-				time = 86400;
-				}
-			
-			int ora = date.getHourOfDay();
-			boolean isLigth = false;
-			if (ora > 6 && ora < 18) {
-				isLigth = true;
-			}
 
-			double etp = (netRadiation<0)?0:compute(pGmorn, pGnight, pAlpha, netRadiation, airTemperature, defaultPressure, isLigth, lambda, doHourly);
-			etp=(etp<0)?0:etp;
-			etp = etp*time;
-			outEtPtIter.setSample(column, row, 0,etp);
-		}		
-	}	
+	if (doHourly == true) {
+		time =3600;
+		} else {
+		time = 86400;
+		}
+	configureKernel(clock.isLight());
+	
+	if (loop == null || loop.getParallelism() != parallelism) {
+		if (loop != null) {loop.shutdown();}
+		loop = new ParallelLoop(parallelism);
+	}
+	if (readFiles == true) {
+		computeFileStrips(clock.toDateTime());
+		step++;
+		return;
+	}
+	if (stripRows > 0) {
+		computeStrips(clock.toDateTime());
+		step++;
+		return;
+	}
+	final WritableRaster outEtPtWritableRaster = nextOutputRaster();
+	if (doIncremental == true) {
+		computeIncremental(outEtPtWritableRaster);
+	} else {
+	// iterate over the entire domain and compute for each pixel the SWE,
+	// each thread on its own band of rows and with its own row buffers
+	loop.run(rows - 2, (from, to) -> {
+		RasterAccess temperatureAccess = new RasterAccess(temperatureMap);
+		RasterAccess netRadiationAccess = new RasterAccess(netRadiationMap);
+		RasterAccess outEtPtAccess = new RasterAccess(outEtPtWritableRaster);
+		double[] temperatureRow = new double[columns];
+		double[] netRadiationRow = new double[columns];
+		double[] etpRow = new double[columns];
+		int length = columns - 2;
+		if (length <= 0) {
+			return;
+		}
+		for( int row = from + 1; row < to + 1; row++ ) {
+			// the pixels from 1 to columns - 2 of the row
+			temperatureAccess.readRow(row, 1, columns - 1, temperatureRow);
+			netRadiationAccess.readRow(row, 1, columns - 1, netRadiationRow);
+			kernel.compute(temperatureRow, netRadiationRow, null, null, 0, length, etpRow);
+			outEtPtAccess.writeRow(row, 1, columns - 1, etpRow);
+		}
+	});
+	}
 	CoverageUtilities.setNovalueBorder(outEtPtWritableRaster);
 	outEtPtGrid = CoverageUtilities.buildCoverage("ET", outEtPtWritableRaster,regionMap, inAirTemperatureGrid.getCoordinateReferenceSystem());
 	step++;
 	}
+
+/**
+ * Stops the threads of the pool at the end of the run.
+ */
+@Finalize
+public void close() {
+	if (loop != null) {
+		loop.shutdown();
+		loop = null;
+	}
+}
 //////////////////////////////////////////////////////////////
+/**
+ * Computes the map strip by strip: the rows of the strip are copied from the input images,
+ * computed and written in the output file before the next strip is read. The copies of the
+ * inputs and the output depend on the size of the strips and not on the size of the maps;
+ * the input coverages themselves are given in memory by the readers, so their size is not bounded.
+ */
+private void computeStrips(DateTime date) throws Exception {
+	final RenderedImage temperatureImage = inAirTemperatureGrid.getRenderedImage();
+	final RenderedImage netRadiationImage = inNetRadiationGrid.getRenderedImage();
+	final double[] rowBuffer = new double[columns];
+	writeStrips(date, (first, count, temperatureStrip, netRadiationStrip) -> {
+		// only the rows of the strip are requested to the images
+		copyStrip(temperatureImage, first, count, rowBuffer, temperatureStrip);
+		copyStrip(netRadiationImage, first, count, rowBuffer, netRadiationStrip);
+	});
+}
+
+/**
+ * Computes the map strip by strip reading the inputs from the .flt files, so that only
+ * one strip of each input map is in memory at a time.
+ */
+private void computeFileStrips(DateTime date) throws Exception {
+	FloatGridReader temperatureReader = new FloatGridReader(new File(inAirTemperatureFile));
+	FloatGridReader netRadiationReader = null;
+	try {
+		checkNull(inNetRadiationFile);
+		netRadiationReader = new FloatGridReader(new File(inNetRadiationFile));
+		if (netRadiationReader.columns != temperatureReader.columns || netRadiationReader.rows != temperatureReader.rows) {
+			throw new IllegalArgumentException("The map " + inNetRadiationFile + " has not the grid of " + inAirTemperatureFile + ".");
+		}
+		regionMap = temperatureReader.getRegionMap();
+		columns = temperatureReader.columns;
+		rows = temperatureReader.rows;
+		dx = regionMap.getXres();
+		final FloatGridReader netRadiation = netRadiationReader;
+		writeStrips(date, (first, count, temperatureStrip, netRadiationStrip) -> {
+			temperatureReader.readRows(first, count, temperatureStrip);
+			netRadiation.readRows(first, count, netRadiationStrip);
+		});
+	} finally {
+		temperatureReader.close();
+		if (netRadiationReader != null) {
+			netRadiationReader.close();
+		}
+	}
+}
+
+/**
+ * Reads the input rows of a strip, ordered by row and then by column.
+ */
+private interface StripSource {
+	void read(int firstRow, int rowCount, double[] temperatureStrip, double[] netRadiationStrip) throws Exception;
+}
+
+/**
+ * Computes each strip read from the source in parallel by rows and writes it in the
+ * output file before the next strip is read.
+ */
+private void writeStrips(DateTime date, StripSource source) throws Exception {
+	checkNull(outEtPtFolder);
+	File folder = new File(outEtPtFolder);
+	folder.mkdirs();
+	File fltFile = new File(folder, "ETp_" + date.toString("yyyyMMddHHmm") + ".flt");
+	final int strip = Math.min(stripRows, rows);
+	final double[] temperatureStrip = new double[strip * columns];
+	final double[] netRadiationStrip = new double[strip * columns];
+	final double[] etpStrip = new double[strip * columns];
+	FloatGridWriter writer = new FloatGridWriter(fltFile, regionMap, nullValue);
+	try {
+		for (int firstRow = 0; firstRow < rows; firstRow += strip) {
+			final int first = firstRow;
+			final int count = Math.min(strip, rows - firstRow);
+			source.read(first, count, temperatureStrip, netRadiationStrip);
+			loop.run(count, (from, to) -> {
+				for (int i = from; i < to; i++) {
+					int row = first + i;
+					int offset = i * columns;
+					if (row == 0 || row == rows - 1) {
+						// the border is set to novalue
+						Arrays.fill(etpStrip, offset, offset + columns, nullValue);
+						continue;
+					}
+					etpStrip[offset] = nullValue;
+					etpStrip[offset + columns - 1] = nullValue;
+					kernel.compute(temperatureStrip, netRadiationStrip, null, null, offset + 1, offset + columns - 1, etpStrip);
+				}
+			});
+			writer.writeRows(first, count, etpStrip);
+		}
+	} finally {
+		writer.close();
+	}
+	outEtPtGrid = null;
+	outEtPtFile = fltFile.getAbsolutePath();
+}
+
+/**
+ * Copies the rows [first, first + count) of the image in the strip.
+ */
+private void copyStrip(RenderedImage image, int first, int count, double[] rowBuffer, double[] strip) {
+	Raster raster = image.getData(new Rectangle(image.getMinX(), image.getMinY() + first, columns, count));
+	RasterAccess access = new RasterAccess(raster);
+	for (int i = 0; i < count; i++) {
+		access.readRow(raster.getMinY() + i, raster.getMinX(), raster.getMinX() + columns, rowBuffer);
+		System.arraycopy(rowBuffer, 0, strip, i * columns, columns);
+	}
+}
+
+/**
+ * Computes the map recomputing only the tiles where the temperature or the net radiation
+ * changed since the previous step. A map is read again only if a different coverage is given,
+ * and its values are compared with the ones of the previous step tile by tile.
+ * Delta and gamma are recomputed only where the temperature changed; all the tiles are
+ * recomputed if the parameters, the pressure or the soil heat flux coefficient change.
+ */
+private void computeIncremental(WritableRaster outEtPtWritableRaster) {
+	final int tileSide = Math.max(1, tileSize);
+	int size = columns * rows;
+	boolean allocated = false;
+	if (etpValues == null || etpValues.length != size || cachedTileSide != tileSide) {
+		temperatureValues = new double[size];
+		netRadiationValues = new double[size];
+		deltaValues = new double[size];
+		denominatorValues = new double[size];
+		etpValues = new double[size];
+		cachedTileSide = tileSide;
+		lastTemperatureGrid = null;
+		lastNetRadiationGrid = null;
+		allocated = true;
+	}
+	// the maps of the first step are already transformed
+	final boolean readTemperature = inAirTemperatureGrid != lastTemperatureGrid;
+	final boolean readNetRadiation = inNetRadiationGrid != lastNetRadiationGrid;
+	if (readTemperature && step > 0) {
+		temperatureMap = mapsTransform(inAirTemperatureGrid);
+	}
+	if (readNetRadiation && step > 0) {
+		netRadiationMap = mapsTransform(inNetRadiationGrid);
+	}
+	lastTemperatureGrid = inAirTemperatureGrid;
+	lastNetRadiationGrid = inNetRadiationGrid;
+
+	// the coefficient of the soil heat flux of the step, 0 in the daily case
+	final double coeffG = kernel.soilHeatFluxCoefficient;
+	final boolean allDelta = allocated || defaultPressure != cachedPressure;
+	final boolean allEtp = allDelta || pAlpha != cachedAlpha || coeffG != cachedCoeffG || doHourly != cachedHourly;
+	final double gamma = kernel.psychrometricConstant(defaultPressure, lambda);
+
+	final int tileColumns = (columns + tileSide - 1) / tileSide;
+	final int tileRows = (rows + tileSide - 1) / tileSide;
+	// the tiles are independent: each thread updates only the pixels of its own tiles
+	loop.run(tileColumns * tileRows, (from, to) -> {
+		RasterAccess temperatureAccess = readTemperature ? new RasterAccess(temperatureMap) : null;
+		RasterAccess netRadiationAccess = readNetRadiation ? new RasterAccess(netRadiationMap) : null;
+		double[] buffer = new double[tileSide];
+		for (int tile = from; tile < to; tile++) {
+			// only the inner pixels are computed, the border is set to novalue
+			int firstColumn = Math.max(1, (tile % tileColumns) * tileSide);
+			int firstRow = Math.max(1, (tile / tileColumns) * tileSide);
+			int lastColumn = Math.min((tile % tileColumns) * tileSide + tileSide, columns - 1);
+			int lastRow = Math.min((tile / tileColumns) * tileSide + tileSide, rows - 1);
+			if (firstColumn >= lastColumn || firstRow >= lastRow) {
+				continue;
+			}
+			boolean temperatureChanged = allDelta;
+			if (temperatureAccess != null) {
+				temperatureChanged |= updateTile(temperatureAccess, temperatureValues, firstColumn, lastColumn, firstRow, lastRow, buffer);
+			}
+			boolean changed = allEtp || temperatureChanged;
+			if (netRadiationAccess != null) {
+				changed |= updateTile(netRadiationAccess, netRadiationValues, firstColumn, lastColumn, firstRow, lastRow, buffer);
+			}
+			if (!changed) {
+				continue;
+			}
+			for (int row = firstRow; row < lastRow; row++) {
+				for (int column = firstColumn; column < lastColumn; column++) {
+					int pixel = row * columns + column;
+					if (temperatureChanged) {
+						double airTemperature = temperatureValues[pixel];
+						if (kernel.isMissing(airTemperature)) {airTemperature = defaultAirTemperature;}
+						double Delta = PriestleyTaylorKernel.saturationSlope(airTemperature);
+						deltaValues[pixel] = Delta;
+						denominatorValues[pixel] = (gamma + Delta) * lambda;
+					}
+					double netRadiation = netRadiationValues[pixel];
+					if (kernel.isMissing(netRadiation)) {netRadiation = defaultNetRadiation;}
+					double etp = 0;
+					if (netRadiation >= 0) {
+						etp = (pAlpha) * deltaValues[pixel] * (netRadiation - coeffG * netRadiation) / denominatorValues[pixel];
+					}
+					etp=(etp<0)?0:etp;
+					etpValues[pixel] = etp*time;
+				}
+			}
+		}
+	});
+	cachedPressure = defaultPressure;
+	cachedAlpha = pAlpha;
+	cachedCoeffG = coeffG;
+	cachedHourly = doHourly;
+
+	// the output map is written from the cached values of all the inner pixels
+	loop.run(rows - 2, (from, to) -> {
+		RasterAccess outEtPtAccess = new RasterAccess(outEtPtWritableRaster);
+		double[] etpRow = new double[columns];
+		for (int row = from + 1; row < to + 1; row++) {
+			System.arraycopy(etpValues, row * columns + 1, etpRow, 0, columns - 2);
+			outEtPtAccess.writeRow(row, 1, columns - 1, etpRow);
+		}
+	});
+}
+
+/**
+ * Reads the pixels of the tile from the map, stores them in the values of the previous step
+ * and tells if any of them changed.
+ */
+private boolean updateTile(RasterAccess access, double[] values, int firstColumn, int lastColumn,
+		int firstRow, int lastRow, double[] buffer) {
+	boolean changed = false;
+	int length = lastColumn - firstColumn;
+	for (int row = firstRow; row < lastRow; row++) {
+		access.readRow(row, firstColumn, lastColumn, buffer);
+		int pixel = row * columns + firstColumn;
+		for (int i = 0; i < length; i++, pixel++) {
+			if (Double.compare(buffer[i], values[pixel]) != 0) {
+				values[pixel] = buffer[i];
+				changed = true;
+			}
+		}
+	}
+	return changed;
+}
+
+/**
+ * Gives the raster of the output map, from the pool if the rasters are reused.
+ */
+private WritableRaster nextOutputRaster() {
+	if (outputRasterPoolSize <= 0) {
+		return (doFloat == true) ? FloatRasters.createFloatWritableRaster(columns, rows, null)
+				: CoverageUtilities.createDoubleWritableRaster(columns, rows, null, null, null);
+	}
+	if (outputPool == null || outputPool.size() != outputRasterPoolSize || outputPool.isFloat() != doFloat) {
+		outputPool = new RasterPool(outputRasterPoolSize, doFloat);
+	}
+	return outputPool.next(columns, rows);
+}
+
 /**
  * Maps reader transform the GrifCoverage2D in to the writable raster and
  * replace the -9999.0 value with no value.
@@ -205,44 +549,12 @@ public class OmsPriestleyTaylorEtRaster extends JGTModel {
  */
 private WritableRaster mapsTransform  ( GridCoverage2D inValues){	
 	RenderedImage inValuesRenderedImage = inValues.getRenderedImage();
-	WritableRaster inValuesWR = CoverageUtilities.replaceNovalue(inValuesRenderedImage, -9999.0);
+	WritableRaster inValuesWR = (doFloat == true) ? FloatRasters.replaceNovalue(inValuesRenderedImage, -9999.0)
+			: CoverageUtilities.replaceNovalue(inValuesRenderedImage, -9999.0);
 	inValuesRenderedImage = null;
 	return inValuesWR;
 }
 
-/**
- * Gets the coordinate of each pixel of the given map.
- *
- * @param GridGeometry2D grid is the map 
- * @return the coordinate of each point
- */
-private LinkedHashMap<Integer, Coordinate> getCoordinate(GridGeometry2D grid) {
-	LinkedHashMap<Integer, Coordinate> out = new LinkedHashMap<Integer, Coordinate>();
-	int count = 0;
-	RegionMap regionMap = CoverageUtilities.gridGeometry2RegionParamsMap(grid);
-	double cols = regionMap.getCols();
-	double rows = regionMap.getRows();
-	double south = regionMap.getSouth();
-	double west = regionMap.getWest();
-	double xres = regionMap.getXres();
-	double yres = regionMap.getYres();
-	double northing = south;
-	double easting = west;
-	for (int i = 0; i < cols; i++) {
-		easting = easting + xres;
-		for (int j = 0; j < rows; j++) {
-			northing = northing + yres;
-			Coordinate coordinate = new Coordinate();
-			coordinate.x = west + i * xres;
-			coordinate.y = south + j * yres;
-			out.put(count, coordinate);
-			count++;
-		}
-	}
-
-	return out;
-}
-
 /**
  * Gets the point.
  *
@@ -260,82 +572,19 @@ private LinkedHashMap<Integer, Coordinate> getCoordinate(GridGeometry2D grid) {
 //}
 
 /**
- * Compute the correction factor related to Earth’s orbit eccentricity.
- *
- * @param date is the current date
- * @return the double value of E0
+ * Copies the inputs of the component in the kernel, before the pixels are computed.
  */
-
-
-protected WritableRaster normalVector(WritableRaster rasterGrid, double res) {
-
-	int minX = rasterGrid.getMinX();
-	int minY = rasterGrid.getMinY();
-	int rows = rasterGrid.getHeight();
-	int cols = rasterGrid.getWidth();
-
-	RandomIter pitIter = RandomIterFactory.create(rasterGrid, null);
-	/*
-	 * Initialize the image of the normal vector in the central point of the
-	 * cells, which have 3 components (X;Y;Z), so the Image have 3 bands..
-	 */
-	SampleModel sm = RasterFactory.createBandedSampleModel(5, cols, rows, 3);
-	WritableRaster tmpNormalVectorWR = CoverageUtilities .createDoubleWritableRaster(cols, rows, null, sm, 0.0);
-	WritableRandomIter tmpNormalIter = RandomIterFactory.createWritable( tmpNormalVectorWR, null);
-	/*
-	 * apply the corripio's formula 
-	 */
-	for (int j = minY; j < minX + rows - 1; j++) {
-		for (int i = minX; i < minX + cols - 1; i++) {
-			double zij = pitIter.getSampleDouble(i, j, 0);
-			double zidxj = pitIter.getSampleDouble(i + 1, j, 0);
-			double zijdy = pitIter.getSampleDouble(i, j + 1, 0);
-			double zidxjdy = pitIter.getSampleDouble(i + 1, j + 1, 0);
-			double firstComponent = res * (zij - zidxj + zijdy - zidxjdy);
-			double secondComponent = res * (zij + zidxj - zijdy - zidxjdy);
-			double thirthComponent = 2 * (res * res);
-			double den = Math.sqrt(firstComponent * firstComponent
-					+ secondComponent * secondComponent + thirthComponent
-					* thirthComponent);
-			tmpNormalIter.setPixel(i, j, new double[] {
-					firstComponent / den, secondComponent / den,
-					thirthComponent / den });
-
-		}
-	}
-	pitIter.done();
-
-	return tmpNormalVectorWR;
-}
-private double compute( double ggm, double ggn, double alpha, double NetRad, double AirTem, double AtmPres, boolean islight,double lambda,
-		boolean ishourlyo ) {
-	double result = 0;
-	if (ishourlyo == true) {
-		double den_Delta = (AirTem + 237.3) * (AirTem + 237.3);
-		double exp_Delta = (17.27 * AirTem) / (AirTem + 237.3);
-		double num_Delta = 4098 * (0.6108 * exp(exp_Delta));
-		double Delta = num_Delta / den_Delta;
-		//double lambda = 2.501 - 0.002361 * AirTem;
-		double gamma = 1013 * AtmPres / (0.622 * lambda);
-		double coeff_G;
-		if (islight == true) {
-			coeff_G = ggm;
-		} else {
-			coeff_G = ggn;
-		}
-		double G = coeff_G * NetRad;
-		result = (alpha) * Delta * (NetRad - G) / ((gamma + Delta) * lambda);
-	} else {
-		double den_Delta = (AirTem + 237.3) * (AirTem + 237.3);
-		double exp_Delta = (17.27 * AirTem) / (AirTem + 237.3);
-		double num_Delta = 4098 * (0.6108 * Math.exp(exp_Delta));
-		double Delta = num_Delta / den_Delta;
-		//double lambda = 2.45*pow(10,6);//.501 - 0.002361 * AirTem;
-		double gamma = 1013 * AtmPres / (0.622 * lambda);
-		result = (alpha) * Delta * (NetRad) / ((gamma + Delta) * lambda);
-	}
-	return result;
-	//System.out.println(result);
+private void configureKernel(boolean isLigth) {
+	kernel.nullValue = nullValue;
+	kernel.defaultTemperature = defaultAirTemperature;
+	kernel.defaultNetRadiation = defaultNetRadiation;
+	kernel.defaultPressure = defaultPressure;
+	kernel.alpha = pAlpha;
+	// the soil heat flux is considered only in the hourly case
+	kernel.soilHeatFluxCoefficient = (doHourly == true) ? ((isLigth == true) ? pGmorn : pGnight) : 0;
+	kernel.latentHeat = lambda;
+	kernel.latentHeatSlope = 0;
+	kernel.specificHeat = 1013;
+	kernel.scale = time;
 }
 }
-
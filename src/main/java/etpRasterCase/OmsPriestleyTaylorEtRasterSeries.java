@@ -0,0 +1,351 @@
+package etpRasterCase;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static java.lang.Math.pow;
+import oms3.annotations.Author;
+import oms3.annotations.Description;
+import oms3.annotations.Execute;
+import oms3.annotations.Finalize;
+import oms3.annotations.In;
+import oms3.annotations.Keywords;
+import oms3.annotations.Label;
+import oms3.annotations.License;
+import oms3.annotations.Name;
+import oms3.annotations.Out;
+import oms3.annotations.Status;
+import oms3.annotations.Unit;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.io.rasterreader.OmsRasterReader;
+import org.jgrasstools.gears.libs.modules.JGTModel;
+import org.jgrasstools.gears.utils.RegionMap;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import prosperoClasses.FloatGridWriter;
+import prosperoClasses.ParallelLoop;
+import prosperoClasses.PriestleyTaylorKernel;
+import prosperoClasses.RasterAccess;
+import prosperoClasses.SimulationClock;
+
+/*
+ * GNU GPL v3 License
+ *
+ * Copyright 2017 Michele Bottazzi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+@Description("ET raster on a series of time steps, computed in a single call.")
+@Author(name = "Michele Bottazzi")
+@Keywords("Evapotranspiration")
+@Label("")
+@Name("")
+@Status()
+@License("General Public License Version 3 (GPLv3)")
+@SuppressWarnings("nls")
+public class OmsPriestleyTaylorEtRasterSeries extends JGTModel {
+
+	@Description("The maps of the interpolated temperature, ordered in time.")
+	@In
+	public List<GridCoverage2D> inAirTemperatureGrids;
+
+	@Description("The maps of the net radiation, ordered in time.")
+	@In
+	public List<GridCoverage2D> inNetRadiationGrids;
+
+	@Description("The folder of the maps of the temperature, ordered by file name, "
+			+ "used if the list of the maps is not given.")
+	@In
+	public String inAirTemperatureFolder;
+
+	@Description("The folder of the maps of the net radiation, ordered by file name, "
+			+ "used if the list of the maps is not given.")
+	@In
+	public String inNetRadiationFolder;
+	private static final double defaultAirTemperature = 15.0;
+	private static final double defaultNetRadiation = 0.0;
+
+	@Description("The alpha.")
+	@In
+	@Unit("m")
+	public double pAlpha = 0;
+
+	@Description("The coefficient for the soil heat flux during daylight")
+	@In
+	public double pGmorn = 0;
+
+	@Description("The coefficient for the soil heat flux during nighttime")
+	@In
+	public double pGnight = 0;
+
+	@Description("The date of the first map of the series.")
+	@In
+	public String tStartDate;
+
+	double lambda = 2.45*pow(10,6);
+
+	@Description("The pressure default value in case of missing data.")
+	@In
+	@Unit("KPa")
+	public double defaultPressure = 101.325;
+
+	@Description("doHourly allows to chose between the hourly time step"
+			+ " or the daily time step. It could be: "
+			+ " Hourly--> true or Daily-->false")
+	@In
+	public boolean doHourly;
+
+	@Description("Number of threads computing the rows of the maps, 1 runs them serially.")
+	@In
+	public int parallelism = 1;
+
+	@Description("Number of time steps computed together, 0 computes the whole series at once. "
+			+ "The maps of the folders are read chunk by chunk and, if outEtPtFolder is given, "
+			+ "the output maps of a chunk are written before the next chunk is read.")
+	@In
+	public int chunkSteps = 24;
+
+	@Description("The folder where the output maps are written as ESRI float grids, one for each time step; "
+			+ "if given the maps are not kept in outEtPtGrids.")
+	@In
+	public String outEtPtFolder;
+
+	@Description("The maps of the evapotranspiration, one for each time step of the series.")
+	@Out
+	public List<GridCoverage2D> outEtPtGrids;
+
+	@Description("The .flt files of the output maps, if outEtPtFolder is given.")
+	@Out
+	public List<String> outEtPtFiles;
+
+	SimulationClock clock;
+
+	double nullValue = -9999.0;
+	ParallelLoop loop;
+
+	@Execute
+	public void process() throws Exception {
+		// the maps of the folders are listed here and read only with their chunk
+		List<File> temperatureFiles = (inAirTemperatureGrids != null) ? null : listFolder(inAirTemperatureFolder);
+		List<File> netRadiationFiles = (inNetRadiationGrids != null) ? null : listFolder(inNetRadiationFolder);
+		final int steps = (temperatureFiles == null) ? inAirTemperatureGrids.size() : temperatureFiles.size();
+		int netRadiationSteps = (netRadiationFiles == null) ? inNetRadiationGrids.size() : netRadiationFiles.size();
+		if (netRadiationSteps != steps) {
+			throw new IllegalArgumentException("The series have " + steps + " maps of temperature and "
+					+ netRadiationSteps + " maps of net radiation.");
+		}
+		outEtPtGrids = new ArrayList<GridCoverage2D>((outEtPtFolder == null) ? steps : 0);
+		outEtPtFiles = new ArrayList<String>();
+		if (steps == 0) {
+			return;
+		}
+		File folder = null;
+		if (outEtPtFolder != null) {
+			folder = new File(outEtPtFolder);
+			folder.mkdirs();
+		}
+
+		// the day/night switch of each time step, computed before the pixels in the kernel of the step
+		clock = SimulationClock.maps(clock, tStartDate, doHourly);
+		final PriestleyTaylorKernel[] kernels = new PriestleyTaylorKernel[steps];
+		for (int t = 0; t < steps; t++) {
+			clock.setStep(t);
+			kernels[t] = createKernel(clock.isLight());
+		}
+
+		if (loop == null || loop.getParallelism() != parallelism) {
+			if (loop != null) {loop.shutdown();}
+			loop = new ParallelLoop(parallelism);
+		}
+
+		final int chunk = (chunkSteps <= 0) ? steps : Math.min(chunkSteps, steps);
+		// the output maps of a chunk are reused by the next one when they are written to file
+		WritableRaster[] reusedMaps = new WritableRaster[chunk];
+		RegionMap regionMap = null;
+		CoordinateReferenceSystem crs = null;
+		for (int first = 0; first < steps; first += chunk) {
+			final int count = Math.min(chunk, steps - first);
+			final Raster[] temperatureMaps = new Raster[count];
+			final Raster[] netRadiationMaps = new Raster[count];
+			final WritableRaster[] outEtPtMaps = new WritableRaster[count];
+			for (int t = 0; t < count; t++) {
+				GridCoverage2D temperatureGrid = (temperatureFiles == null) ? inAirTemperatureGrids.get(first + t)
+						: OmsRasterReader.readRaster(temperatureFiles.get(first + t).getAbsolutePath());
+				GridCoverage2D netRadiationGrid = (netRadiationFiles == null) ? inNetRadiationGrids.get(first + t)
+						: OmsRasterReader.readRaster(netRadiationFiles.get(first + t).getAbsolutePath());
+				if (regionMap == null) {
+					// all the maps are on the grid of the first one
+					regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(temperatureGrid);
+					crs = temperatureGrid.getCoordinateReferenceSystem();
+				}
+				temperatureMaps[t] = sourceRaster(temperatureGrid, regionMap);
+				netRadiationMaps[t] = sourceRaster(netRadiationGrid, regionMap);
+				if (folder == null || reusedMaps[t] == null) {
+					reusedMaps[t] = CoverageUtilities.createDoubleWritableRaster(regionMap.getCols(), regionMap.getRows(), null, null, null);
+				}
+				outEtPtMaps[t] = reusedMaps[t];
+			}
+			computeChunk(kernels, first, temperatureMaps, netRadiationMaps, outEtPtMaps);
+
+			for (int t = 0; t < count; t++) {
+				CoverageUtilities.setNovalueBorder(outEtPtMaps[t]);
+				if (folder == null) {
+					outEtPtGrids.add(CoverageUtilities.buildCoverage("ET", outEtPtMaps[t], regionMap, crs));
+				} else {
+					clock.setStep(first + t);
+					File fltFile = new File(folder, "ETp_" + clock.toDateTime().toString("yyyyMMddHHmm") + ".flt");
+					writeMap(fltFile, outEtPtMaps[t], regionMap);
+					outEtPtFiles.add(fltFile.getAbsolutePath());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops the threads of the pool at the end of the run.
+	 */
+	@Finalize
+	public void close() {
+		if (loop != null) {
+			loop.shutdown();
+			loop = null;
+		}
+	}
+
+	/**
+	 * Computes the maps of a chunk of time steps. Each thread takes a band of rows and, for each row,
+	 * computes the whole row of every step of the chunk with the kernel of the step.
+	 *
+	 * @param first the time step of the first map of the chunk
+	 */
+	void computeChunk(final PriestleyTaylorKernel[] kernels, final int first, final Raster[] temperatureMaps,
+			final Raster[] netRadiationMaps, final WritableRaster[] outEtPtMaps) {
+		final int count = temperatureMaps.length;
+		final int columns = outEtPtMaps[0].getWidth();
+		final int rows = outEtPtMaps[0].getHeight();
+		final int length = columns - 2;
+		if (length <= 0) {
+			return;
+		}
+		loop.run(rows - 2, (from, to) -> {
+			RasterAccess[] temperatureAccess = new RasterAccess[count];
+			RasterAccess[] netRadiationAccess = new RasterAccess[count];
+			RasterAccess[] outEtPtAccess = new RasterAccess[count];
+			for (int t = 0; t < count; t++) {
+				temperatureAccess[t] = new RasterAccess(temperatureMaps[t]);
+				netRadiationAccess[t] = new RasterAccess(netRadiationMaps[t]);
+				outEtPtAccess[t] = new RasterAccess(outEtPtMaps[t]);
+			}
+			double[] temperatureRow = new double[length];
+			double[] netRadiationRow = new double[length];
+			double[] etpRow = new double[length];
+			for (int r = from + 1; r < to + 1; r++) {
+				for (int t = 0; t < count; t++) {
+					// the pixels from 1 to columns - 2 of the row
+					int x = temperatureMaps[t].getMinX();
+					int y = temperatureMaps[t].getMinY();
+					temperatureAccess[t].readRow(y + r, x + 1, x + columns - 1, temperatureRow);
+					x = netRadiationMaps[t].getMinX();
+					y = netRadiationMaps[t].getMinY();
+					netRadiationAccess[t].readRow(y + r, x + 1, x + columns - 1, netRadiationRow);
+					kernels[first + t].compute(temperatureRow, netRadiationRow, null, null, 0, length, etpRow);
+					outEtPtAccess[t].writeRow(r, 1, columns - 1, etpRow);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes a map as an ESRI float grid, row by row.
+	 */
+	private void writeMap(File fltFile, WritableRaster map, RegionMap regionMap) throws Exception {
+		FloatGridWriter writer = new FloatGridWriter(fltFile, regionMap, nullValue);
+		try {
+			RasterAccess access = new RasterAccess(map);
+			double[] row = new double[writer.columns];
+			for (int r = 0; r < writer.rows; r++) {
+				access.readRow(r, 0, writer.columns, row);
+				writer.writeRows(r, 1, row);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Gives the kernel with the inputs of the component, for a step of the day or of the night.
+	 */
+	private PriestleyTaylorKernel createKernel(boolean isLigth) {
+		PriestleyTaylorKernel kernel = new PriestleyTaylorKernel();
+		kernel.nullValue = nullValue;
+		kernel.defaultTemperature = defaultAirTemperature;
+		kernel.defaultNetRadiation = defaultNetRadiation;
+		kernel.defaultPressure = defaultPressure;
+		kernel.alpha = pAlpha;
+		// the soil heat flux is considered only in the hourly case
+		kernel.soilHeatFluxCoefficient = (doHourly == true) ? ((isLigth == true) ? pGmorn : pGnight) : 0;
+		kernel.latentHeat = lambda;
+		kernel.specificHeat = 1013;
+		kernel.scale = (doHourly == true) ? 3600 : 86400;
+		return kernel;
+	}
+
+	/**
+	 * Lists the maps of the folder, ordered by file name.
+	 */
+	private List<File> listFolder(String folder) {
+		checkNull(folder);
+		File[] files = new File(folder).listFiles();
+		if (files == null) {
+			throw new IllegalArgumentException("The folder " + folder + " can not be read.");
+		}
+		Arrays.sort(files);
+		List<File> maps = new ArrayList<File>();
+		for (File file : files) {
+			String name = file.getName().toLowerCase();
+			if (name.endsWith(".asc") || name.endsWith(".tif") || name.endsWith(".tiff")) {
+				maps.add(file);
+			}
+		}
+		return maps;
+	}
+
+	/**
+	 * Gives the raster of a map without copying it, if the image has a single tile,
+	 * as the maps read from file; otherwise the image is copied in a single raster.
+	 * The missing values are left as they are: the kernel takes both NaN and the null value as missing.
+	 *
+	 * @param inValues: the input map values
+	 * @return the raster of the given map, checked to be on the grid of the series
+	 */
+	private Raster sourceRaster(GridCoverage2D inValues, RegionMap regionMap) {
+		RenderedImage image = inValues.getRenderedImage();
+		if (image.getWidth() != regionMap.getCols() || image.getHeight() != regionMap.getRows()) {
+			throw new IllegalArgumentException("The maps of the series must have " + regionMap.getCols()
+					+ " columns and " + regionMap.getRows() + " rows.");
+		}
+		if (image.getNumXTiles() == 1 && image.getNumYTiles() == 1) {
+			Raster tile = image.getTile(image.getMinTileX(), image.getMinTileY());
+			// the tile can be larger than the image: the child has the bounds of the image
+			return tile.createChild(image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight(),
+					image.getMinX(), image.getMinY(), null);
+		}
+		return image.getData();
+	}
+}
@@ -17,12 +17,8 @@
  */
 package etpRasterCase;
 
-import static org.jgrasstools.gears.libs.modules.JGTConstants.isNovalue;
-
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
 import oms3.annotations.Author;
 import oms3.annotations.Description;
 import oms3.annotations.Execute;
@@ -36,12 +32,15 @@ import oms3.annotations.Status;
 import oms3.annotations.Unit;
 
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.utils.RegionMap;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormatter;
+
+import prosperoClasses.FloatRasters;
+import prosperoClasses.PriestleyTaylorKernel;
+import prosperoClasses.RasterAccess;
+import prosperoClasses.RasterPool;
+import prosperoClasses.SimulationClock;
 
 @Description("Calculate evapotraspiration based on the Priestley Taylor model")
 @Author(name = "Giuseppe Formetta, Silvia Franceschi and Andrea Antonello", contact = "maryban@hotmail.it")
@@ -113,13 +112,25 @@ public class OmsPriestleyTaylorEtpModel extends JGTModel {
 	public String tStartDate;
 
 
+	@Description("Number of output rasters reused in rotation, 0 allocates a new raster at each step. "
+			+ "With N rasters the output map has to be consumed within N steps.")
+	@In
+	public int outputRasterPoolSize = 0;
+	RasterPool outputPool;
+
+	@Description("Store the input and output maps in 32-bit floats, halving the memory of the maps. "
+			+ "The values are computed in double and rounded only when stored.")
+	@In
+	public boolean doFloat = false;
+
 	@Description("The reference evapotranspiration.")
 	@Out
 	public GridCoverage2D outETpDataGrid;
 
-	private DateTimeFormatter formatter = JGTConstants.utcDateFormatterYYYYMMDDHHMM;
+	SimulationClock clock;
 
 	int step;
+	PriestleyTaylorKernel kernel = new PriestleyTaylorKernel();
 	WritableRaster NetradiationMap;
 	WritableRaster TemperatureMap;
 	WritableRaster PressureMap;
@@ -140,63 +151,33 @@ public class OmsPriestleyTaylorEtpModel extends JGTModel {
 
 
 		// create the output maps with the right dimensions
-		WritableRaster outETpWritableRaster= CoverageUtilities.createDoubleWritableRaster(cols, rows, null, null, null);
-		WritableRandomIter ETpIter = RandomIterFactory.createWritable(outETpWritableRaster, null);
-
-		DateTime startDateTime = formatter.parseDateTime(tStartDate);
-		DateTime date=(doHourly==false)?startDateTime.plusDays(step):startDateTime.plusHours(step).plusMinutes(30); 
+		WritableRaster outETpWritableRaster= nextOutputRaster(cols, rows);
+
+		clock = SimulationClock.maps(clock, tStartDate, doHourly);
+		clock.setStep(step);
+		configureKernel(clock.isLight());
+
+		// read and write the maps by rows, directly on the data of the rasters when possible
+		RasterAccess temperatureAccess = new RasterAccess(TemperatureMap);
+		RasterAccess netradiationAccess = new RasterAccess(NetradiationMap);
+		RasterAccess pressureAccess = (inPressureGrid!= null) ? new RasterAccess(PressureMap) : null;
+		RasterAccess ETpAccess = new RasterAccess(outETpWritableRaster);
+		double[] temperatureRow = new double[cols];
+		double[] netradiationRow = new double[cols];
+		double[] pressureRow = new double[cols];
+		double[] ETpRow = new double[cols];
+		int length = cols - 2;
 
 		// iterate over the entire domain and compute for each pixel the SWE
-		for( int r = 1; r < rows - 1; r++ ) {
-			for( int c = 1; c < cols - 1; c++ ) {
-
-				// get the exact value of the variable in the pixel i, j 
-
-
-
-				double temp = defaultTemp;
-				temp=TemperatureMap.getSampleDouble(c, r, 0);
-				if (!isNovalue(temp)) {
-					temp = defaultTemp;
-				}
-
-
-				double netradiation=defaultHourlyNetradiation;
-				netradiation=NetradiationMap.getSampleDouble(c, r, 0);
-				netradiation=(isNovalue(netradiation))?defaultHourlyNetradiation:netradiation;
-
-				if (!isNovalue(netradiation )) {
-					if (doHourly == true) {
-						netradiation =netradiation  * 0.0864 / 24.0;
-					} else {
-						netradiation = netradiation  * 0.0864;
-					}
-				}
-
-
-				double pressure = defaultPressure;
-				if (inPressureGrid!= null) {
-					double p=PressureMap.getSampleDouble(c, r, 0);
-					if (isNovalue(p)) {
-						pressure = defaultPressure;
-					} else {
-						pressure = p;
-					}
-				}
-
-				int ora = date.getHourOfDay();
-				boolean isLigth = false;
-				if (ora > 6 && ora < 18) {
-					isLigth = true;
-				}
-
-				double etp = (netradiation<0)?0:compute(pGmorn, pGnight, pAlpha, netradiation, temp, pressure, isLigth, doHourly);
-				etp=(etp<0)?0:etp;
-
-				ETpIter.setSample(c, r, 0, etp);
-
-
+		for( int r = 1; r < rows - 1 && length > 0; r++ ) {
+			// the pixels from 1 to cols - 2 of the row
+			temperatureAccess.readRow(r, 1, cols - 1, temperatureRow);
+			netradiationAccess.readRow(r, 1, cols - 1, netradiationRow);
+			if (pressureAccess != null) {
+				pressureAccess.readRow(r, 1, cols - 1, pressureRow);
 			}
+			kernel.compute(temperatureRow, netradiationRow, (pressureAccess != null) ? pressureRow : null, null, 0, length, ETpRow);
+			ETpAccess.writeRow(r, 1, cols - 1, ETpRow);
 		}
 
 		CoverageUtilities.setNovalueBorder(outETpWritableRaster);
@@ -208,42 +189,38 @@ public class OmsPriestleyTaylorEtpModel extends JGTModel {
 
 	}
 
-	private double compute( double ggm, double ggn, double alpha, double NetRad, double AirTem, double AtmPres, boolean islight,
-			boolean ishourlyo ) {
-		double result = 0;
-		if (ishourlyo == true) {
-			double den_Delta = (AirTem + 237.3) * (AirTem + 237.3);
-			double exp_Delta = (17.27 * AirTem) / (AirTem + 237.3);
-			double num_Delta = 4098 * (0.6108 * Math.exp(exp_Delta));
-			double Delta = num_Delta / den_Delta;
-
-			double lambda = 2.501 - 0.002361 * AirTem;
-			double gamma = 0.001013 * AtmPres / (0.622 * lambda);
-
-			double coeff_G;
-			if (islight == true) {
-				coeff_G = ggm;
-			} else {
-				coeff_G = ggn;
-			}
-
-			double G = coeff_G * NetRad;
-
-			result = (alpha) * Delta * (NetRad - G) / ((gamma + Delta) * lambda);
-
-		} else {
-			double den_Delta = (AirTem + 237.3) * (AirTem + 237.3);
-			double exp_Delta = (17.27 * AirTem) / (AirTem + 237.3);
-			double num_Delta = 4098 * (0.6108 * Math.exp(exp_Delta));
-			double Delta = num_Delta / den_Delta;
-
-			double lambda = 2.501 - 0.002361 * AirTem;
-			double gamma = 0.001013 * AtmPres / (0.622 * lambda);
-
-			result = (alpha) * Delta * (NetRad) / ((gamma + Delta) * lambda);
+	/**
+	 * Copies the inputs of the component in the kernel, before the pixels are computed.
+	 * The net radiation is converted from W/m2 to MJ/m2 of the time step and lambda depends on the temperature.
+	 */
+	private void configureKernel(boolean isLigth) {
+		// the missing values, NaN or -9999, are replaced by the defaults
+		kernel.defaultTemperature = defaultTemp;
+		kernel.defaultNetRadiation = defaultHourlyNetradiation;
+		kernel.defaultPressure = defaultPressure;
+		kernel.alpha = pAlpha;
+		// the soil heat flux is considered only in the hourly case
+		kernel.soilHeatFluxCoefficient = (doHourly == true) ? ((isLigth == true) ? pGmorn : pGnight) : 0;
+		kernel.latentHeat = 2.501;
+		kernel.latentHeatSlope = -0.002361;
+		kernel.specificHeat = 0.001013;
+		kernel.netRadiationFactor = (doHourly == true) ? 0.0864 / 24.0 : 0.0864;
+		kernel.pressureFactor = 1;
+		kernel.scale = 1;
+	}
 
+	/**
+	 * Gives the raster of the output map, from the pool if the rasters are reused.
+	 */
+	private WritableRaster nextOutputRaster(int cols, int rows) {
+		if (outputRasterPoolSize <= 0) {
+			return (doFloat == true) ? FloatRasters.createFloatWritableRaster(cols, rows, null)
+					: CoverageUtilities.createDoubleWritableRaster(cols, rows, null, null, null);
+		}
+		if (outputPool == null || outputPool.size() != outputRasterPoolSize || outputPool.isFloat() != doFloat) {
+			outputPool = new RasterPool(outputRasterPoolSize, doFloat);
 		}
-		return result;
+		return outputPool.next(cols, rows);
 	}
 
 	/**
@@ -255,7 +232,8 @@ public class OmsPriestleyTaylorEtpModel extends JGTModel {
 	 */
 	private WritableRaster mapsReader ( GridCoverage2D inValues){	
 		RenderedImage inValuesRenderedImage = inValues.getRenderedImage();
-		WritableRaster inValuesWR = CoverageUtilities.replaceNovalue(inValuesRenderedImage, -9999.0);
+		WritableRaster inValuesWR = (doFloat == true) ? FloatRasters.replaceNovalue(inValuesRenderedImage, -9999.0)
+				: CoverageUtilities.replaceNovalue(inValuesRenderedImage, -9999.0);
 		inValuesRenderedImage = null;
 		return inValuesWR;
 	}
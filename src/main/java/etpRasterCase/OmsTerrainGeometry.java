@@ -0,0 +1,92 @@
+package etpRasterCase;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import oms3.annotations.Author;
+import oms3.annotations.Description;
+import oms3.annotations.Execute;
+import oms3.annotations.In;
+import oms3.annotations.Keywords;
+import oms3.annotations.Label;
+import oms3.annotations.License;
+import oms3.annotations.Name;
+import oms3.annotations.Out;
+import oms3.annotations.Status;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.libs.modules.JGTModel;
+import org.jgrasstools.gears.utils.RegionMap;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+
+import prosperoClasses.TerrainGeometry;
+
+/*
+ * GNU GPL v3 License
+ *
+ * Copyright 2017 Michele Bottazzi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+@Description("Normal vector, slope and aspect of the terrain, computed once for the DEM.")
+@Author(name = "Michele Bottazzi")
+@Keywords("Terrain, Slope, Aspect")
+@Label("")
+@Name("")
+@Status()
+@License("General Public License Version 3 (GPLv3)")
+@SuppressWarnings("nls")
+public class OmsTerrainGeometry extends JGTModel {
+
+	@Description("The map of the Digital Elevation Model.")
+	@In
+	public GridCoverage2D inDem;
+
+	@Description("The file where the geometry is saved and read again for the same DEM, compared by grid, origin and "
+			+ "a checksum of the elevations; if not given the geometry is only kept in memory.")
+	@In
+	public String terrainGeometryFile;
+
+	@Description("Normal vector, slope and aspect of the pixels of the DEM.")
+	@Out
+	public TerrainGeometry outTerrainGeometry;
+
+	GridCoverage2D terrainDem;
+
+	@Execute
+	public void process() throws Exception {
+		// the geometry is computed only when a different DEM is given
+		if (outTerrainGeometry != null && terrainDem == inDem) {
+			return;
+		}
+		RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inDem);
+		int columns = regionMap.getCols();
+		int rows = regionMap.getRows();
+		double res = regionMap.getXres();
+		WritableRaster demMap = CoverageUtilities.replaceNovalue(inDem.getRenderedImage(), -9999.0);
+		File file = (terrainGeometryFile != null) ? new File(terrainGeometryFile) : null;
+		TerrainGeometry terrain = null;
+		// the saved geometry is used only if it was computed on the same grid and elevations
+		if (file != null && TerrainGeometry.isSaved(file, columns, rows, res, regionMap.getWest(), regionMap.getNorth(),
+				TerrainGeometry.checksum(demMap))) {
+			terrain = TerrainGeometry.read(file);
+		}
+		if (terrain == null) {
+			terrain = TerrainGeometry.compute(demMap, res, regionMap.getWest(), regionMap.getNorth());
+			if (file != null) {
+				terrain.write(file);
+			}
+		}
+		outTerrainGeometry = terrain;
+		terrainDem = inDem;
+	}
+}
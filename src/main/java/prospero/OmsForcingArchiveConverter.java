@@ -0,0 +1,122 @@
+package prospero;
+
+import java.io.File;
+import java.util.EnumMap;
+
+import oms3.annotations.Author;
+import oms3.annotations.Description;
+import oms3.annotations.Execute;
+import oms3.annotations.In;
+import oms3.annotations.Keywords;
+import oms3.annotations.Label;
+import oms3.annotations.License;
+import oms3.annotations.Name;
+import oms3.annotations.Status;
+
+import org.jgrasstools.gears.libs.modules.JGTModel;
+
+import prosperoClasses.ForcingArchive;
+import prosperoClasses.StationBlock.Variable;
+
+@Description("Converts the OMS csv time series of the stations into a forcing archive, "
+		+ "read by the evapotranspiration components through inForcingArchive.")
+@Author(name = "Michele Bottazzi", contact = "michele.bottazzi@gmail.com")
+@Keywords("Evapotranspiration, forcing, conversion")
+@Label("")
+@Name("")
+@Status(Status.CERTIFIED)
+@License("General Public License Version 3 (GPLv3)")
+public class OmsForcingArchiveConverter extends JGTModel {
+
+	@Description("The csv file of the air temperature.")
+	@In
+	public String inAirTemperaturePath;
+
+	@Description("The csv file of the wind speed.")
+	@In
+	public String inWindVelocityPath;
+
+	@Description("The csv file of the air relative humidity.")
+	@In
+	public String inRelativeHumidityPath;
+
+	@Description("The csv file of the direct short wave radiation.")
+	@In
+	public String inShortWaveRadiationDirectPath;
+
+	@Description("The csv file of the diffuse short wave radiation.")
+	@In
+	public String inShortWaveRadiationDiffusePath;
+
+	@Description("The csv file of the long wave radiation.")
+	@In
+	public String inLongWaveRadiationPath;
+
+	@Description("The csv file of the net long wave radiation.")
+	@In
+	public String inNetLongWaveRadiationPath;
+
+	@Description("The csv file of the net radiation.")
+	@In
+	public String inNetRadiationPath;
+
+	@Description("The csv file of the atmospheric pressure.")
+	@In
+	public String inAtmosphericPressurePath;
+
+	@Description("The csv file of the soil heat flux.")
+	@In
+	public String inSoilFluxPath;
+
+	@Description("The csv file of the leaf area index.")
+	@In
+	public String inLeafAreaIndexPath;
+
+	@Description("The csv file of the soil moisture.")
+	@In
+	public String inSoilMosturePath;
+
+	@Description("The name of the field of the ids of the stations in the csv files.")
+	@In
+	public String idField = "val";
+
+	@Description("The novalue of the csv files.")
+	@In
+	public double fileNovalue = -9999.0;
+
+	@Description("Stores the values in 4 bytes instead of 8, halving the size of the archive.")
+	@In
+	public boolean doFloat = false;
+
+	@Description("The path of the forcing archive.")
+	@In
+	public String outForcingFile;
+
+	@Execute
+	public void process() throws Exception {
+		checkNull(outForcingFile);
+		EnumMap<Variable, File> files = new EnumMap<Variable, File>(Variable.class);
+		put(files, Variable.AIR_TEMPERATURE, inAirTemperaturePath);
+		put(files, Variable.WIND_VELOCITY, inWindVelocityPath);
+		put(files, Variable.RELATIVE_HUMIDITY, inRelativeHumidityPath);
+		put(files, Variable.SHORTWAVE_DIRECT, inShortWaveRadiationDirectPath);
+		put(files, Variable.SHORTWAVE_DIFFUSE, inShortWaveRadiationDiffusePath);
+		put(files, Variable.LONGWAVE, inLongWaveRadiationPath);
+		put(files, Variable.NET_LONGWAVE, inNetLongWaveRadiationPath);
+		put(files, Variable.NET_RADIATION, inNetRadiationPath);
+		put(files, Variable.ATMOSPHERIC_PRESSURE, inAtmosphericPressurePath);
+		put(files, Variable.SOIL_FLUX, inSoilFluxPath);
+		put(files, Variable.LEAF_AREA_INDEX, inLeafAreaIndexPath);
+		put(files, Variable.SOIL_MOISTURE, inSoilMosturePath);
+		if (files.isEmpty()) {
+			throw new IllegalArgumentException("No csv file to convert.");
+		}
+		ForcingArchive.convert(files, idField, fileNovalue, new File(outForcingFile), doFloat);
+	}
+
+	private static void put(EnumMap<Variable, File> files, Variable variable, String path) {
+		if (path != null && path.length() > 0) {
+			files.put(variable, new File(path));
+		}
+	}
+}
@@ -1,17 +1,17 @@
 package prospero;
 
-import static java.lang.Math.pow;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map.Entry;
-import java.util.Set;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
 import oms3.annotations.Execute;
+import oms3.annotations.Finalize;
 import oms3.annotations.In;
 import oms3.annotations.Keywords;
 import oms3.annotations.Label;
@@ -23,26 +23,17 @@ import oms3.annotations.Unit;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.feature.FeatureIterator;
-import org.geotools.feature.SchemaException;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.jgrasstools.gears.libs.modules.JGTModel;
-import org.jgrasstools.gears.utils.CrsUtilities;
-import org.jgrasstools.gears.utils.geometry.GeometryUtilities;
 import org.jgrasstools.hortonmachine.i18n.HortonMessageHandler;
 import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
-import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.Point;
 
 import prosperoClasses.*;
+import prosperoClasses.StationBlock.Variable;
+import prosperoClasses.StationOutputBuffer.Output;
 
 @Description("The Prospero model")
 @Author(name = "Michele Bottazzi", contact = "michele.bottazzi@gmail.com")
@@ -111,7 +102,75 @@ public class OmsProspero extends JGTModel implements Parameters {
 	@In
 	@Unit("m3 m-3")
 	public HashMap<Integer, double[]> inSoilMoisture;
-	
+
+	@Description("The forcings of all the stations as dense columns indexed by the station ordinal, "
+			+ "alternative to the HashMap inputs. Each station is paired by id with its centroid.")
+	@In
+	public StationBlock inStationBlock;
+
+	@Description("The path of the forcing archive of the stations, written by OmsForcingArchiveConverter, "
+			+ "alternative to the HashMap inputs. It is read at the date of each step.")
+	@In
+	public String inForcingArchive;
+
+	@Description("The forcings of the step, from the station block, the archive, the csv files or the HashMap inputs")
+	StationForcings stationForcings = new StationForcings();
+
+	@Description("The csv file of the air temperature, read directly at the date of each step "
+			+ "as alternative to the HashMap inputs; the other csv files are optional. "
+			+ "The stations are taken in the order in which they are found in the files, "
+			+ "each paired by id with its centroid.")
+	@In
+	public String inAirTemperaturePath;
+
+	@Description("The csv file of the wind speed.")
+	@In
+	public String inWindVelocityPath;
+
+	@Description("The csv file of the air relative humidity.")
+	@In
+	public String inRelativeHumidityPath;
+
+	@Description("The csv file of the direct short wave radiation.")
+	@In
+	public String inShortWaveRadiationDirectPath;
+
+	@Description("The csv file of the diffuse short wave radiation.")
+	@In
+	public String inShortWaveRadiationDiffusePath;
+
+	@Description("The csv file of the long wave radiation.")
+	@In
+	public String inLongWaveRadiationPath;
+
+	@Description("The csv file of the net long wave radiation.")
+	@In
+	public String inNetLongWaveRadiationPath;
+
+	@Description("The csv file of the atmospheric pressure.")
+	@In
+	public String inAtmosphericPressurePath;
+
+	@Description("The csv file of the soil heat flux.")
+	@In
+	public String inSoilFluxPath;
+
+	@Description("The csv file of the leaf area index.")
+	@In
+	public String inLeafAreaIndexPath;
+
+	@Description("The csv file of the soil moisture.")
+	@In
+	public String inSoilMosturePath;
+
+	@Description("The name of the field of the ids of the stations in the csv files.")
+	@In
+	public String idField = "val";
+
+	@Description("The novalue of the csv files.")
+	@In
+	public double fileNovalue = -9999.0;
+
 	/////////////////////////////////////////////
 	// ENVIRONMENTAL VARIABLES - DEFAULT
 	/////////////////////////////////////////////
@@ -202,8 +261,12 @@ public class OmsProspero extends JGTModel implements Parameters {
 	@In
 	public GridCoverage2D inDem;
 	
-	@Description("the linked HashMap with the coordinate of the stations")
-	LinkedHashMap<Integer, Coordinate> stationCoordinates;
+	@Description("The coordinates of the stations, computed once and rebuilt only if the centroids or the DEM change")
+	StationGeometry stationGeometry;
+	double[] solarElevationAngles;
+	// the ordinal of the centroid of each station of the block, rebuilt when the stations change
+	int[] centroidOrdinals;
+	int[] pairedStations;
 	
 	@Description("Final target CRS")
 	CoordinateReferenceSystem targetCRS = DefaultGeographicCRS.WGS84;
@@ -243,7 +306,7 @@ public class OmsProspero extends JGTModel implements Parameters {
 	
 	double nullValue = -9999.0;
 	public int time;
-	DateTimeFormatter formatter = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm").withZone(DateTimeZone.UTC);
+	SimulationClock clock;
 	
 	
 	/////////////////////////////////////////////
@@ -324,6 +387,37 @@ public class OmsProspero extends JGTModel implements Parameters {
 	@Out
 	public HashMap<Integer, double[]> outEvaporation;
 	
+	@Description("All the outputs of the step as columns indexed by the station ordinal.")
+	@Out
+	public StationOutputBuffer outStationBuffer = new StationOutputBuffer();
+	
+	@Description("The window of the aggregated transpiration: daily, monthly or the length of a custom window "
+			+ "in minutes; if null the transpiration is not aggregated.")
+	@In
+	public String aggregationWindow;
+
+	@Description("The last date of the simulation, whose step closes the open window of the aggregation even if "
+			+ "it does not reach its end. Required with aggregationWindow, since the outputs are passed to the "
+			+ "other components only at the steps.")
+	@In
+	public String tEndDate;
+
+	@Description("The total, the minimum, the maximum and the number of valid values of the transpiration "
+			+ "of each station on the last window, given at the step closing the window and null at the others.")
+	@Out
+	public HashMap<Integer, double[]> outTranspirationAggregated;
+
+	TemporalAggregator aggregator;
+
+	@Description("Switch that defines if the HashMap outputs are filled at each step.")
+	@In
+	public boolean doHashMapOutput = true;
+
+	@Description("Switch that defines if the HashMap outputs are updated in place instead of rebuilt at each step, "
+			+ "only for consumers that do not keep the maps of a step.")
+	@In
+	public boolean doReuseHashMapOutput = false;
+	
 	/////////////////////////////////////////////
 	// OTHERS - DO
 	/////////////////////////////////////////////
@@ -340,9 +434,27 @@ public class OmsProspero extends JGTModel implements Parameters {
 	@In
 	public boolean doHourly = true;
 	
-	@Description("Define the closure of energy budget: single or full iteration.")
+	@Description("Define the closure of energy budget: single estimate or Newton iteration on the full balance.")
+	@In
+	public boolean doIterative = false;
+	
+	@Description("Interpolate saturation pressure, delta and dew point pressure in a table over 200-340 K.")
+	@In
+	public boolean doTabulatedPressure = false;
+	
+	@Description("Tolerance on the leaf temperature of the iterative closure of the energy budget.")
 	@In
-	public boolean doIterative = true;
+	@Unit("K")
+	public double energyBalanceTolerance = 1E-3;
+	
+	@Description("Maximum number of iterations of the iterative closure of the energy budget.")
+	@In
+	public int maxIterations = 20;
+	
+	@Description("Leaf temperatures of the previous step indexed by the ordinal of the centroid, "
+			+ "first guess of the iterative closure")
+	double[] previousLeafTemperatureSun;
+	double[] previousLeafTemperatureShade;
 	
 	@Description("Choose if you want to print only the latent heat or all the other outputs.")
 	@In
@@ -363,17 +475,20 @@ public class OmsProspero extends JGTModel implements Parameters {
 	@In
 	String printo;
 	// METHODS FROM CLASSES		
-	SensibleHeatMethods sensibleHeat 	= new SensibleHeatMethods();
-	LatentHeatMethods latentHeat 		= new LatentHeatMethods();
-	PressureMethods pressure 			= new PressureMethods(); 
-	RadiationMethod radiationMethods 	= new RadiationMethod();
 	SolarGeometry solarGeometry 		= new SolarGeometry();
-	EnvironmentalStress environmentalStress	= new EnvironmentalStress();
+	Leaf propertyOfLeaf 				= new Leaf();
+	CanopyEnergyBalance canopy 			= new CanopyEnergyBalance(propertyOfLeaf);
 	
-	private HortonMessageHandler msg = HortonMessageHandler.getInstance();
-
+	static final Variable[] VARIABLES = Variable.values();
+	static final Output[] OUTPUTS = Output.values();
 	
+	@Description("Number of threads computing the stations, 1 runs them serially.")
+	@In
+	public int parallelism = 1;
+	ParallelLoop loop;
 	
+	private HortonMessageHandler msg = HortonMessageHandler.getInstance();
+
 	@Execute
 	public void process() throws Exception {
 		if (doHourly == true) {
@@ -382,288 +497,328 @@ public class OmsProspero extends JGTModel implements Parameters {
 			} else {
 			time = 86400;
 			}
-		DateTime startDateTime = formatter.parseDateTime(tStartDate);
-		DateTime date=(doHourly==false)?startDateTime.plusDays(step).plusHours(12):startDateTime.plusMinutes(temporalStep*step);
+		clock = SimulationClock.stations(clock, tStartDate, doHourly, temporalStep);
+		clock.setStep(step);
 		//latitude = Math.toRadians(latitude);
 		
-		stationCoordinates = getCoordinate(0,inCentroids, idCentroids);
-		Iterator<Integer> idIterator = stationCoordinates.keySet().iterator();
-		CoordinateReferenceSystem sourceCRS = inDem.getCoordinateReferenceSystem2D();
-
-		Leaf propertyOfLeaf = new Leaf();
-		double poreRadius = propertyOfLeaf.poreRadius;
-		double poreArea = propertyOfLeaf.poreArea;
-		double poreDepth = propertyOfLeaf.poreDepth;
-		double poreDensity = propertyOfLeaf.poreDensity;
-		double leafLength = propertyOfLeaf.length;
-		int leafSide = propertyOfLeaf.side;
-		int leafStomaSide = propertyOfLeaf.stomaSide;
-		double longWaveEmittance = propertyOfLeaf.longWaveEmittance;
-		
-		outLatentHeatShade 	= new HashMap<Integer, double[]>();
-		outLatentHeat		= new HashMap<Integer, double[]>();
-		outTranspiration 	= new HashMap<Integer, double[]>();
-		if (doFullPrint == true) {
-			outLeafTemperature 		= new HashMap<Integer, double[]>();
-			outRadiation 			= new HashMap<Integer, double[]>();
-			outRadiationShade 		= new HashMap<Integer, double[]>();
-			outSensibleHeat 		= new HashMap<Integer, double[]>();
-			outSensibleHeatShade 	= new HashMap<Integer, double[]>();
-			outRadiationShade 		= new HashMap<Integer, double[]>();
-			outRadiationSoil 		= new HashMap<Integer, double[]>();
-			outLeafTemperatureShade	= new HashMap<Integer, double[]>();
-			outCanopy 				= new HashMap<Integer, double[]>();
-			outEvaporation			= new HashMap<Integer, double[]>();
-			}
-		
-		Set<Entry<Integer, double[]>> entrySet = inAirTemperature.entrySet();
-		for( Entry<Integer, double[]> entry : entrySet ) {
-			Integer ID = entry.getKey();
-			
-			Coordinate coordinate = (Coordinate) stationCoordinates.get(idIterator.next());
-			Point [] idPoint=getPoint(coordinate,sourceCRS, targetCRS);
-			elevation = coordinate.z;
-			longitude = (idPoint[0].getX());
-			latitude = Math.toRadians(idPoint[0].getY());
-		
-			//double solarElevationAngle = solarGeometry.getSolarElevationAngle(date, latitude,longitude, doHourly);
-			
-			/////////////////////////////////////////////
-			// INPUT READER
-			/////////////////////////////////////////////
-				
-			double airTemperature = inAirTemperature.get(ID)[0]+273.0;
-			if (airTemperature == (nullValue+273.0)) {airTemperature = nullValue;}//defaultAirTemperature;}		
-			double leafTemperatureSun = airTemperature;
-			double leafTemperatureShade = airTemperature;
-			
-			double leafAreaIndex = defaultLeafAreaIndex;
-			if (inLeafAreaIndex != null)				
-				leafAreaIndex = inLeafAreaIndex.get(ID)[0];
-			if (leafAreaIndex == nullValue) {leafAreaIndex = defaultLeafAreaIndex;}
-													
-				double shortWaveRadiationDirect = inShortWaveRadiationDirect.get(ID)[0];
-				if (shortWaveRadiationDirect == nullValue) {shortWaveRadiationDirect = defaultShortWaveRadiationDirect;}
-
-				double shortWaveRadiationDiffuse = inShortWaveRadiationDiffuse.get(ID)[0];
-				if (shortWaveRadiationDiffuse == nullValue) {shortWaveRadiationDiffuse = 0.159*shortWaveRadiationDirect;} 						
-				
-				double longWaveRadiation = inLongWaveRadiation.get(ID)[0];
-				if (longWaveRadiation == nullValue) {longWaveRadiation = longWaveEmittance * stefanBoltzmannConstant * pow (airTemperature, 4);}//defaultLongWaveRadiation;}	
-				longWaveRadiation = longWaveEmittance * stefanBoltzmannConstant * pow (airTemperature, 4);
-				
-				double netLongWaveRadiation = inNetLongWaveRadiation.get(ID)[0];
-				if (netLongWaveRadiation == nullValue) {netLongWaveRadiation = 0;}//defaultLongWaveRadiation;}	
-				//longWaveRadiation = longWaveEmittance * stefanBoltzmannConstant * pow (airTemperature, 4);
-				
-				double windVelocity = defaultWindVelocity;
-				if (inWindVelocity != null){windVelocity = inWindVelocity.get(ID)[0];}
-				if (windVelocity == nullValue) {windVelocity = defaultWindVelocity;}
-				if (windVelocity == 0) {windVelocity = defaultWindVelocity;}			
-				
-				double atmosphericPressure = 101325;
-				if (inAtmosphericPressure != null){atmosphericPressure = inAtmosphericPressure.get(ID)[0];}
-				if (atmosphericPressure == nullValue) {atmosphericPressure = pressure.computePressure(defaultAtmosphericPressure, massAirMolecule, gravityConstant, elevation,boltzmannConstant, airTemperature);;}			
-				
-				double relativeHumidity = defaultRelativeHumidity;
-				if (inRelativeHumidity != null){relativeHumidity = inRelativeHumidity.get(ID)[0];}
-				if (relativeHumidity == nullValue) {relativeHumidity = defaultRelativeHumidity;}				
-				
-				double soilFlux = defaultSoilFlux;
-				if (inSoilFlux != null){soilFlux = inSoilFlux.get(ID)[0];}
-				if (soilFlux == nullValue) {soilFlux = defaultSoilFlux;}
-				
-				double soilMoisture = defaultSoilMoisture;
-				if (inSoilMoisture != null){soilMoisture = inSoilMoisture.get(ID)[0];}
-				if (soilMoisture == nullValue) {soilMoisture = defaultSoilMoisture;}
-				
-				// WIND
-				WindProfile windVelocityProfile = new WindProfile();
-				double windInCanopy = windVelocityProfile.computeWindProfile(windVelocity, canopyHeight);
-				double windSoil = windVelocityProfile.computeWindProfile(windVelocity, 0.2);
-
-				// Compute the saturation pressure
-				double saturationVaporPressure = pressure.computeSaturationVaporPressure(airTemperature, waterMolarMass, latentHeatEvaporation, molarGasConstant);			
-				// Compute the actual vapour pressure
-				double vaporPressure = pressure.computeVaporPressure(relativeHumidity, saturationVaporPressure);		
-				// Compute the delta
-				double delta = pressure.computeDelta(airTemperature, waterMolarMass, latentHeatEvaporation, molarGasConstant);			
-				// Compute the convective transfer coefficient - hc
-				double convectiveTransferCoefficient = sensibleHeat.computeConvectiveTransferCoefficient(airTemperature, windInCanopy, leafLength, criticalReynoldsNumber, prandtlNumber);
-				// Compute the sensible transfer coefficient - cH
-				double sensibleHeatTransferCoefficient = sensibleHeat.computeSensibleHeatTransferCoefficient(convectiveTransferCoefficient, leafSide);
-				// Compute the latent transfer coefficient - cE
-				double latentHeatTransferCoefficient = latentHeat.computeLatentHeatTransferCoefficient(airTemperature, atmosphericPressure, leafStomaSide, convectiveTransferCoefficient, airSpecificHeat,
-						airDensity, molarGasConstant, molarVolume, waterMolarMass, latentHeatEvaporation, poreDensity, poreArea, poreDepth, poreRadius);			
-
-				
-				// RADIATION
-				double solarElevationAngle = solarGeometry.getSolarElevationAngle(date, latitude,longitude, doHourly, time);
-				double shortwaveCanopySun = radiationMethods.computeAbsordebRadiationSunlit(leafAreaIndex, solarElevationAngle, shortWaveRadiationDirect*2.1, shortWaveRadiationDiffuse*2.1);
-				double radFactorSun = (shortWaveRadiationDirect*2.1 + shortWaveRadiationDiffuse*2.1)/ shortwaveCanopySun;
-				
-	
-				// Compute the area in sunlight
-	            double areaCanopySun = radiationMethods.computeSunlitLeafAreaIndex(typeOfCanopy,leafAreaIndex, solarElevationAngle);
-
-				double shortwaveCanopyShade = radiationMethods.computeAbsordebRadiationShadow(leafAreaIndex, solarElevationAngle, shortWaveRadiationDirect*2.1, shortWaveRadiationDiffuse*2.1);
-				double radFactorShade = (shortWaveRadiationDirect*2.1 + shortWaveRadiationDiffuse*2.1)/ shortwaveCanopyShade;
-				shortwaveCanopySun = (shortWaveRadiationDirect+shortWaveRadiationDiffuse)/radFactorSun;
-				shortwaveCanopyShade = (shortWaveRadiationDirect+shortWaveRadiationDiffuse)/radFactorShade;
-
-				if (solarElevationAngle <0) {
-					 shortwaveCanopySun=0;
-					 shortwaveCanopyShade=0;
-					 areaCanopySun=0;
-				 }
-				// Compute the area in shadow
-				double areaCanopyShade = leafAreaIndex - areaCanopySun;				
-				double netLong = shortWaveRadiationDirect-netLongWaveRadiation;
-				
-				double incidentSolarRadiationSoil = shortWaveRadiationDirect + shortWaveRadiationDiffuse - shortwaveCanopySun - shortwaveCanopyShade-netLong;
-				incidentSolarRadiationSoil=(incidentSolarRadiationSoil<0)?0:incidentSolarRadiationSoil;
-								
-				 
-				// LAYER SOIL
-	            double evaporation = computeEvaporation(incidentSolarRadiationSoil, windSoil, airTemperature, relativeHumidity, atmosphericPressure, soilFlux)* latentHeatEvaporation / 86400;
-	            
-	            evaporation=(evaporation<0)?0:evaporation;
-
-				////////////////////////////////////////
-				////////////////////////////////////////
-				///////////////  SUN LAYER  ////////////
-				////////////////////////////////////////
-				////////////////////////////////////////	       
-	            
-								
-				double vaporPressureDew = pressure.computeVapourPressureDewPoint(airTemperature);		
-				double vapourPressureDeficit = pressure.computeVapourPressureDeficit(vaporPressure, vaporPressureDew);
-
-
-	            double stressRadiationSun = 1;
-	            if (useRadiationStress == true) {
-		            stressRadiationSun = environmentalStress.computeRadiationStress(shortwaveCanopySun*2.1, alpha, theta);
-	            	}
-	            
-	            double stressRadiationShade = 1;
-	            if (useRadiationStress == true) {
-		            stressRadiationShade = environmentalStress.computeRadiationStress(shortwaveCanopyShade*2.1, alpha, theta);
-	            	}
-	            
-	            
-            	double stressTemperature = 1;
-	            if (useTemperatureStress == true) {
-	            	stressTemperature = environmentalStress.computeTemperatureStress(airTemperature, Tl, Th, T0);
-	            	}
-
-	            double stressVPD = 1;
-	            if (useVDPStress == true) {
-	            	stressVPD = environmentalStress.computeVapourPressureStress(vapourPressureDeficit, VPD0);
-	            	}
-	              
-            	double stressWater = 1;
-	            if (useWaterStress == true) {
-		            stressWater = environmentalStress.computeFAOWaterStress(soilMoisture, waterFieldCapacity, waterWiltingPoint, rootsDepth, depletionFraction);
-	            	}
-	            	            
-	            double stressSun = defaultStress*stressRadiationSun * stressTemperature * stressWater * stressVPD;
-	        
-	            double stressShade = defaultStress*stressRadiationShade * stressTemperature * stressWater * stressVPD;
-	          
-				
-	            double energyBalanceResidualSun = 0;
-				// Compute the leaf temperature in sunlight				
-	            leafTemperatureSun =  computeSurfaceTemperature(shortwaveCanopySun, energyBalanceResidualSun, sensibleHeatTransferCoefficient,airTemperature,
-	            		areaCanopySun, stressSun,latentHeatTransferCoefficient,delta,vaporPressure,saturationVaporPressure,leafSide,longWaveRadiation);
-				// Compute the net longwave radiation in sunlight
-				double netLongWaveRadiationSun = areaCanopySun*radiationMethods.computeLongWaveRadiationBalance(leafSide, longWaveEmittance, airTemperature, leafTemperatureSun, stefanBoltzmannConstant);
-				// Compute the latent heat flux from the sunlight area
-				double latentHeatFluxSun 	= areaCanopySun*stressSun*latentHeat.computeLatentHeatFlux(delta,  leafTemperatureSun,  airTemperature,  
-						latentHeatTransferCoefficient,sensibleHeatTransferCoefficient,  vaporPressure,  saturationVaporPressure);
-				// Compute the sensible heat flux from the sunlight area
-				double sensibleHeatFluxSun = areaCanopySun*sensibleHeat.computeSensibleHeatFlux(sensibleHeatTransferCoefficient, leafTemperatureSun, airTemperature);
-				
-				// Compute the residual of the energy balance for the sunlight area								
-				energyBalanceResidualSun = computeEnergyBalance(shortwaveCanopySun, energyBalanceResidualSun, netLongWaveRadiationSun, latentHeatFluxSun, sensibleHeatFluxSun);
-				////////////////////////////////////////
-				////////////////////////////////////////
-				//////////////  SHADE LAYER  ///////////
-				////////////////////////////////////////
-				////////////////////////////////////////
-				double latentHeatFluxShade;
-				double sensibleHeatFluxShade;
-				
-				// FIRST ITERATION ENERGY BALANCE SHADE
-				// Initialization of the residual of the energy balance
-	            double energyBalanceResidualShade = 0;
-
-				// Compute the leaf temperature in shadow
-				leafTemperatureShade =  computeSurfaceTemperature(shortwaveCanopyShade, energyBalanceResidualShade, sensibleHeatTransferCoefficient,airTemperature,
-						areaCanopyShade, stressShade,latentHeatTransferCoefficient,delta,vaporPressure,saturationVaporPressure,leafSide,longWaveRadiation);
-				// Compute the net longwave radiation in shade
-				double netLongWaveRadiationShade = areaCanopyShade*radiationMethods.computeLongWaveRadiationBalance(leafSide, longWaveEmittance, airTemperature, leafTemperatureShade, stefanBoltzmannConstant);
-				// Compute the latent heat flux from the shaded area
-				latentHeatFluxShade 	= areaCanopyShade*stressShade*latentHeat.computeLatentHeatFlux(delta,  leafTemperatureShade,  airTemperature,  latentHeatTransferCoefficient,
-						sensibleHeatTransferCoefficient,  vaporPressure,  saturationVaporPressure);
-				// Compute the sensible heat flux from the shaded area				
-				sensibleHeatFluxShade = areaCanopyShade*sensibleHeat.computeSensibleHeatFlux(sensibleHeatTransferCoefficient, leafTemperatureShade, airTemperature);
-				
-				// Compute the residual of the energy balance for the shaded area				
-				energyBalanceResidualShade = computeEnergyBalance(shortwaveCanopyShade, energyBalanceResidualShade, netLongWaveRadiationShade, latentHeatFluxShade, sensibleHeatFluxShade);
-
-			
-				latentHeatFluxSun=(latentHeatFluxSun<0)?0:latentHeatFluxSun;
-				latentHeatFluxShade=(latentHeatFluxShade<0)?0:latentHeatFluxShade;
-				
-				totalTranspiration = (latentHeatFluxSun+latentHeatFluxShade+evaporation);
-				if (airTemperature == nullValue) {	
-					totalTranspiration=nullValue;	
-					}
-			
-				if (doFullPrint == true) {			
-					storeResultFull((Integer)ID, latentHeatFluxSun, latentHeatFluxShade, totalTranspiration, 
-							sensibleHeatFluxSun,sensibleHeatFluxShade,
-							leafTemperatureSun, leafTemperatureShade,shortwaveCanopySun, shortwaveCanopyShade,incidentSolarRadiationSoil,areaCanopySun,evaporation);
-				}
-			else {
-				storeResult((Integer)ID,latentHeatFluxSun, latentHeatFluxShade, totalTranspiration);
+		prepareGeometry();
+		// the solar geometry depends only on the date and on the station
+		solarGeometry.computeSolarElevationAngles(clock, doHourly, solarElevationAngles);
+
+		if (inAirTemperaturePath != null) {
+			stationForcings.openSeriesFiles(getSeriesFiles(), idField, fileNovalue);
+		}
+		StationBlock block = stationForcings.select(inStationBlock, inForcingArchive, clock.getMillis(), getInputs(),
+				nullValue);
+		final int[] centroid = pairStations(block.id);
+		configureCanopy();
+
+		final StationOutputBuffer results = outStationBuffer;
+		results.reuseHashMaps = doReuseHashMapOutput;
+		results.reset(block.id);
+		final double[][] columns = new double[VARIABLES.length][];
+		for (Variable variable : VARIABLES) {
+			columns[variable.ordinal()] = block.getColumn(variable);
+		}
+		prepareLoop();
+		// the stations are independent: each thread works on its own range of ordinals
+		loop.run(block.size(), (from, to) -> {
+			double[] forcing = new double[VARIABLES.length];
+			double[] saturationTerms = new double[PressureMethods.TERMS_LENGTH];
+			double[] result = new double[OUTPUTS.length];
+			for (int station = from; station < to; station++) {
+				computeStation(station, centroid[station], columns, solarElevationAngles[centroid[station]], forcing,
+						saturationTerms, result);
+				for (Output output : OUTPUTS) {
+					results.getColumn(output)[station] = result[output.ordinal()];
 				}
 			}
-		
+		});
+
+		if (doHashMapOutput == true) {
+			publishHashMaps();
+		}
+		if (block.size() > 0) {
+			totalTranspiration = results.getColumn(Output.TRANSPIRATION)[block.size() - 1];
+		}
+		outTranspirationAggregated = null;
+		if (aggregator == null) {
+			aggregator = TemporalAggregator.create(aggregationWindow, clock.getStartMillis(), (doHourly == true) ? temporalStep : 1440);
+		}
+		if (aggregator != null) {
+			if (tEndDate == null) {
+				throw new IllegalArgumentException("The aggregation needs tEndDate, whose step gives the last window.");
+			}
+			aggregator.reuseHashMaps = doReuseHashMapOutput;
+			boolean closed = aggregator.add(clock.getMillis(), block.id, results.getColumn(Output.TRANSPIRATION));
+			// the last step closes the window even if it does not reach its end
+			if (closed == false && clock.isLastStep(tEndDate)) {
+				closed = aggregator.flush();
+			}
+			if (closed) {
+				outTranspirationAggregated = aggregator.toHashMap();
+			}
+		}
 		step++;	
+	}
+
+	/**
+	 * Closes the files of the forcings and stops the threads of the pool at the end of the run.
+	 */
+	@Finalize
+	public void close() throws IOException {
+		stationForcings.close();
+		if (loop != null) {
+			loop.shutdown();
+			loop = null;
+		}
+	}
+
+	/**
+	 * @return the HashMap input of each variable of the component
+	 */
+	private EnumMap<Variable, HashMap<Integer, double[]>> getInputs() {
+		EnumMap<Variable, HashMap<Integer, double[]>> inputs = new EnumMap<Variable, HashMap<Integer, double[]>>(Variable.class);
+		inputs.put(Variable.AIR_TEMPERATURE, inAirTemperature);
+		inputs.put(Variable.WIND_VELOCITY, inWindVelocity);
+		inputs.put(Variable.RELATIVE_HUMIDITY, inRelativeHumidity);
+		inputs.put(Variable.SHORTWAVE_DIRECT, inShortWaveRadiationDirect);
+		inputs.put(Variable.SHORTWAVE_DIFFUSE, inShortWaveRadiationDiffuse);
+		inputs.put(Variable.LONGWAVE, inLongWaveRadiation);
+		inputs.put(Variable.NET_LONGWAVE, inNetLongWaveRadiation);
+		inputs.put(Variable.ATMOSPHERIC_PRESSURE, inAtmosphericPressure);
+		inputs.put(Variable.SOIL_FLUX, inSoilFlux);
+		inputs.put(Variable.LEAF_AREA_INDEX, inLeafAreaIndex);
+		inputs.put(Variable.SOIL_MOISTURE, inSoilMoisture);
+		return inputs;
+	}
+
+	/**
+	 * @return the csv file of each variable with a path
+	 */
+	private EnumMap<Variable, File> getSeriesFiles() {
+		EnumMap<Variable, File> files = new EnumMap<Variable, File>(Variable.class);
+		putSeriesFile(files, Variable.AIR_TEMPERATURE, inAirTemperaturePath);
+		putSeriesFile(files, Variable.WIND_VELOCITY, inWindVelocityPath);
+		putSeriesFile(files, Variable.RELATIVE_HUMIDITY, inRelativeHumidityPath);
+		putSeriesFile(files, Variable.SHORTWAVE_DIRECT, inShortWaveRadiationDirectPath);
+		putSeriesFile(files, Variable.SHORTWAVE_DIFFUSE, inShortWaveRadiationDiffusePath);
+		putSeriesFile(files, Variable.LONGWAVE, inLongWaveRadiationPath);
+		putSeriesFile(files, Variable.NET_LONGWAVE, inNetLongWaveRadiationPath);
+		putSeriesFile(files, Variable.ATMOSPHERIC_PRESSURE, inAtmosphericPressurePath);
+		putSeriesFile(files, Variable.SOIL_FLUX, inSoilFluxPath);
+		putSeriesFile(files, Variable.LEAF_AREA_INDEX, inLeafAreaIndexPath);
+		putSeriesFile(files, Variable.SOIL_MOISTURE, inSoilMosturePath);
+		return files;
+	}
+
+	private static void putSeriesFile(EnumMap<Variable, File> files, Variable variable, String path) {
+		if (path != null && path.length() > 0) {
+			files.put(variable, new File(path));
+		}
+	}
+
+	/**
+	 * Builds the geometry of the centroids and the solar geometry of the stations,
+	 * only when the centroids or the DEM change.
+	 */
+	private void prepareGeometry() throws Exception {
+		if (stationGeometry == null || !stationGeometry.isBuiltFrom(inCentroids, inDem)) {
+			stationGeometry = new StationGeometry(inCentroids, idCentroids, centroidElevation, inDem, targetCRS, pm);
+			double[] longitudeDegrees = new double[stationGeometry.size()];
+			for (int i = 0; i < longitudeDegrees.length; i++) {
+				longitudeDegrees[i] = Math.toDegrees(stationGeometry.longitude[i]);
 			}
-		
+			solarGeometry.setStations(stationGeometry.latitude, longitudeDegrees);
+			solarElevationAngles = new double[stationGeometry.size()];
+			previousLeafTemperatureSun = new double[stationGeometry.size()];
+			previousLeafTemperatureShade = new double[stationGeometry.size()];
+			Arrays.fill(previousLeafTemperatureSun, Double.NaN);
+			Arrays.fill(previousLeafTemperatureShade, Double.NaN);
+			centroidOrdinals = null;
+		}
+	}
 
+	/**
+	 * Pairs the stations with the centroids by id, only when the stations change.
+	 *
+	 * @return the ordinal of the centroid of each station
+	 * @throws IllegalArgumentException if a station has no centroid
+	 */
+	private int[] pairStations(int[] id) {
+		if (centroidOrdinals == null || !Arrays.equals(pairedStations, id)) {
+			centroidOrdinals = stationGeometry.indexOf(id);
+			pairedStations = id.clone();
+		}
+		return centroidOrdinals;
+	}
 
-	private void storeResultFull(int ID,double latentHeatSun, double latentHeatShadow,double totalTranspiration, 
-			double sensibleHeatFluxLight, double sensibleHeatFluxShadow,
-			double leafTemperatureSun, double leafTemperatureShadow, 
-			double radiationCanopyInLight, double radiationCanopyInShadow, double incidentSolarRadiationSoil,
-			double leafInSunlight, double evaporation) 
-			throws SchemaException {		
-		
-		outLatentHeat.put(ID, new double[]{latentHeatSun});
-		outLatentHeatShade.put(ID, new double[]{latentHeatShadow});
-		outTranspiration.put(ID, new double[]{totalTranspiration});
-		
-		outSensibleHeat.put(ID, new double[]{sensibleHeatFluxLight});
-		outSensibleHeatShade.put(ID, new double[]{sensibleHeatFluxShadow});
+	private void prepareLoop() {
+		if (loop == null || loop.getParallelism() != parallelism) {
+			if (loop != null) {loop.shutdown();}
+			loop = new ParallelLoop(parallelism);
+		}
+	}
 
-		outLeafTemperature.put(ID, new double[]{leafTemperatureSun});
-		outLeafTemperatureShade.put(ID, new double[]{leafTemperatureShadow});
+	/**
+	 * Computes the canopy energy balance of one station. It only reads the shared state and
+	 * the leaf temperatures of its own centroid, so it can run on any thread. The forcing, saturation terms and result arrays are
+	 * the work arrays of the calling thread.
+	 *
+	 * @param centroid the ordinal of the centroid of the station
+	 * @param columns the forcings of the step indexed by the ordinal of the variable, null if not given
+	 */
+	private void computeStation(int station, int centroid, double[][] columns, double solarElevationAngle,
+			double[] forcing, double[] saturationTerms, double[] result) {
+		for (Variable variable : VARIABLES) {
+			double[] column = columns[variable.ordinal()];
+			if (column != null) {
+				forcing[variable.ordinal()] = column[station];
+			} else {
+				// without the input the pressure is the standard one, the others take their default
+				forcing[variable.ordinal()] = (variable == Variable.ATMOSPHERIC_PRESSURE) ? 101325 : nullValue;
+			}
+		}
+		canopy.compute(forcing, stationGeometry.elevation[centroid], solarElevationAngle,
+				previousLeafTemperatureSun[centroid], previousLeafTemperatureShade[centroid], saturationTerms, result);
+		if (doIterative == true) {
+			previousLeafTemperatureSun[centroid] = result[Output.LEAF_TEMPERATURE_SUN.ordinal()];
+			previousLeafTemperatureShade[centroid] = result[Output.LEAF_TEMPERATURE_SHADE.ordinal()];
+		}
+	}
 
-		outRadiation.put(ID, new double[]{radiationCanopyInLight});
-		outRadiationShade.put(ID, new double[]{radiationCanopyInShadow});
-		outRadiationSoil.put(ID, new double[]{incidentSolarRadiationSoil});
-		outCanopy.put(ID, new double[]{leafInSunlight});
-		
-		outEvaporation.put(ID, new double[]{evaporation});
+	/**
+	 * Copies the inputs of the component in the canopy model, before the stations are computed.
+	 */
+	private void configureCanopy() {
+		canopy.nullValue = nullValue;
+		canopy.defaultWindVelocity = defaultWindVelocity;
+		canopy.defaultRelativeHumidity = defaultRelativeHumidity;
+		canopy.defaultShortWaveRadiationDirect = defaultShortWaveRadiationDirect;
+		canopy.defaultAtmosphericPressure = defaultAtmosphericPressure;
+		canopy.defaultSoilFlux = defaultSoilFlux;
+		canopy.defaultLeafAreaIndex = defaultLeafAreaIndex;
+		canopy.defaultSoilMoisture = defaultSoilMoisture;
+		canopy.defaultStress = defaultStress;
+		canopy.canopyHeight = canopyHeight;
+		canopy.typeOfCanopy = typeOfCanopy;
+		canopy.alpha = alpha;
+		canopy.theta = theta;
+		canopy.VPD0 = VPD0;
+		canopy.T0 = T0;
+		canopy.Tl = Tl;
+		canopy.Th = Th;
+		canopy.waterFieldCapacity = waterFieldCapacity;
+		canopy.waterWiltingPoint = waterWiltingPoint;
+		canopy.rootsDepth = rootsDepth;
+		canopy.depletionFraction = depletionFraction;
+		canopy.useRadiationStress = useRadiationStress;
+		canopy.useTemperatureStress = useTemperatureStress;
+		canopy.useVDPStress = useVDPStress;
+		canopy.useWaterStress = useWaterStress;
+		canopy.doIterative = doIterative;
+		canopy.pressure.doTabulated = doTabulatedPressure;
+		canopy.leafTemperatureSolver.tolerance = energyBalanceTolerance;
+		canopy.leafTemperatureSolver.maxIterations = maxIterations;
+	}
+
+	/**
+	 * Sets the HashMap outputs from the output buffer. The maps are reused at each step.
+	 */
+	private void publishHashMaps() {
+		outLatentHeat = outStationBuffer.toHashMap(Output.LATENT_HEAT_SUN);
+		outLatentHeatShade = outStationBuffer.toHashMap(Output.LATENT_HEAT_SHADE);
+		outTranspiration = outStationBuffer.toHashMap(Output.TRANSPIRATION);
+		if (doFullPrint == true) {
+			outSensibleHeat = outStationBuffer.toHashMap(Output.SENSIBLE_HEAT_SUN);
+			outSensibleHeatShade = outStationBuffer.toHashMap(Output.SENSIBLE_HEAT_SHADE);
+			outLeafTemperature = outStationBuffer.toHashMap(Output.LEAF_TEMPERATURE_SUN);
+			outLeafTemperatureShade = outStationBuffer.toHashMap(Output.LEAF_TEMPERATURE_SHADE);
+			outRadiation = outStationBuffer.toHashMap(Output.RADIATION_SUN);
+			outRadiationShade = outStationBuffer.toHashMap(Output.RADIATION_SHADE);
+			outRadiationSoil = outStationBuffer.toHashMap(Output.RADIATION_SOIL);
+			outCanopy = outStationBuffer.toHashMap(Output.CANOPY_SUN);
+			outEvaporation = outStationBuffer.toHashMap(Output.EVAPORATION);
+			}
+		}
+
+	/**
+	 * Gives one output of the last step as HashMap, also when doHashMapOutput is false.
+	 */
+	public HashMap<Integer, double[]> getOutput(Output output) {
+		return outStationBuffer.toHashMap(output);
+		}
+
+	/**
+	 * Runs the model on a whole series in a single call. The geometry, the canopy and the
+	 * threads are prepared once; the solar elevation angles of all the steps are computed
+	 * first, then each thread goes through the whole series of its own range of stations.
+	 * The stations are computed as in process(), so the results are identical to the ones of
+	 * the step by step run. The series starts from the current step, which is moved after its end;
+	 * the HashMap, buffer and aggregated outputs are not filled.
+	 *
+	 * @param id the id of the stations, in the order of the columns of the matrices: as in process(),
+	 * each column is computed with the geometry of the centroid of its id
+	 * @param forcings the matrix [time][station] of each available variable, the air temperature is required
+	 * @return the matrix [time][station] of each output
+	 */
+	public EnumMap<Output, double[][]> processSeries(int[] id, EnumMap<Variable, double[][]> forcings) throws Exception {
+		if (forcings.get(Variable.AIR_TEMPERATURE) == null) {
+			throw new IllegalArgumentException("The series of the air temperature is required.");
+		}
+		clock = SimulationClock.stations(clock, tStartDate, doHourly, temporalStep);
+		prepareGeometry();
+		final int[] centroid = stationGeometry.indexOf(id);
+		final int steps = forcings.get(Variable.AIR_TEMPERATURE).length;
+		final double[][][] inputs = new double[VARIABLES.length][][];
+		for (Variable variable : forcings.keySet()) {
+			double[][] matrix = forcings.get(variable);
+			if (matrix.length != steps) {
+				throw new IllegalArgumentException("The series of " + variable + " has " + matrix.length
+						+ " steps instead of " + steps + ".");
+			}
+			for (int t = 0; t < steps; t++) {
+				if (matrix[t].length != id.length) {
+					throw new IllegalArgumentException("The step " + t + " of " + variable + " has "
+							+ matrix[t].length + " stations instead of " + id.length + ".");
+				}
+			}
+			inputs[variable.ordinal()] = matrix;
 		}
-	private void storeResult(int ID,double latentHeatSun, double latentHeatShadow,double totalTranspiration) 
-			throws SchemaException {
-		outLatentHeat.put(ID, new double[]{latentHeatSun});
-		outLatentHeatShade.put(ID, new double[]{latentHeatShadow});
-		outTranspiration.put(ID, new double[]{totalTranspiration});
+		configureCanopy();
+
+		final double[][] angles = new double[steps][stationGeometry.size()];
+		for (int t = 0; t < steps; t++) {
+			clock.setStep(step + t);
+			solarGeometry.computeSolarElevationAngles(clock, doHourly, angles[t]);
+		}
+		final double[][][] outputs = new double[OUTPUTS.length][steps][id.length];
+		prepareLoop();
+		loop.run(id.length, (from, to) -> {
+			double[] forcing = new double[VARIABLES.length];
+			double[] saturationTerms = new double[PressureMethods.TERMS_LENGTH];
+			double[] result = new double[OUTPUTS.length];
+			double[][] columns = new double[VARIABLES.length][];
+			for (int t = 0; t < steps; t++) {
+				for (int v = 0; v < columns.length; v++) {
+					columns[v] = (inputs[v] == null) ? null : inputs[v][t];
+				}
+				for (int station = from; station < to; station++) {
+					computeStation(station, centroid[station], columns, angles[t][centroid[station]], forcing,
+							saturationTerms, result);
+					for (int o = 0; o < OUTPUTS.length; o++) {
+						outputs[o][t][station] = result[o];
+					}
+				}
+			}
+		});
+		step += steps;
+
+		EnumMap<Output, double[][]> series = new EnumMap<Output, double[][]>(Output.class);
+		for (Output output : OUTPUTS) {
+			series.put(output, outputs[output.ordinal()]);
+		}
+		return series;
 		}
 	
 	/*private Point[] getPoint(Coordinate coordinate, CoordinateReferenceSystem sourceCRS, CoordinateReferenceSystem targetCRS)
@@ -672,30 +827,6 @@ public class OmsProspero extends JGTModel implements Parameters {
 		CrsUtilities.reproject(sourceCRS, targetCRS, point);
 		return point;
 	}*/
-	private double computeEvaporation( double netRadiation, double windVelocity, double airTemperature, double relativeHumidity, 
-    		double atmosphericPressure, double soilHeatFlux) {
-		netRadiation = netRadiation * 86400/1E6;
-		atmosphericPressure = atmosphericPressure/1000;
-		airTemperature = airTemperature-273.15;
-		soilHeatFlux = soilHeatFlux * 86400/1E6;
-        // Computation of Delta [KPa °C-1]
-        double denDelta = Math.pow((airTemperature + 237.3), 2);
-        double expDelta = (17.27 * airTemperature) / (airTemperature + 237.3);
-        double numDelta = 4098 * (0.6108 * Math.exp(expDelta));
-        double delta = numDelta / denDelta;
-        // Computation of Psicrometric constant [kPa °C-1]
-        double psychrometricConstant = 0.665 * 0.001 * atmosphericPressure;
-        // Computation of mean saturation vapour pressure [kPa]
-        double saturationVaporPressure = 0.6108 * Math.exp(expDelta);
-        // Computation of average hourly actual vapour pressure [kPa]
-        double vaporPressure = saturationVaporPressure * relativeHumidity / 100;
-        // Computation of ET [mm day-1]
-        double num = 0.408 * delta * (netRadiation - soilHeatFlux) + (900 * psychrometricConstant * windVelocity * (saturationVaporPressure - vaporPressure)) / (airTemperature + 273);
-        double den = delta + psychrometricConstant * (1 + 0.34 * windVelocity);
-        double result = (num / den);//*(2.45*1E6)/86400;
-        result = (result <0)?0:result;
-        return result;
-    }
 	private double computeEvapotranspirationPt( double netRadiation, double airTemperature, double atmosphericPressure, double soilHeatFlux) {
 		netRadiation = netRadiation * 86400/1E6;
 		airTemperature = airTemperature-273.15;
@@ -724,56 +855,11 @@ public class OmsProspero extends JGTModel implements Parameters {
     		double saturationVaporPressure,
     		int	side,
     		double longWaveRadiation){
-    		double surfaceTemperature1 = (shortWaveRadiation - residual + sensibleHeatTransferCoefficient*airTemperature*surfaceArea +
-    							stress * latentHeatTransferCoefficient*(delta*airTemperature + vaporPressure - saturationVaporPressure)*surfaceArea  +
-    							side * longWaveRadiation * 4 *1);
-    		double surfaceTemperature2 =(1/(sensibleHeatTransferCoefficient*surfaceArea +
-    				stress*latentHeatTransferCoefficient * delta *surfaceArea +
-    				side * longWaveRadiation/airTemperature * 4*1));
-    		double surfaceTemperature = surfaceTemperature1*surfaceTemperature2;
-    		return surfaceTemperature;	
+    		return canopy.computeSurfaceTemperature(shortWaveRadiation, residual, sensibleHeatTransferCoefficient, airTemperature, surfaceArea,
+    				stress, latentHeatTransferCoefficient, delta, vaporPressure, saturationVaporPressure, side, longWaveRadiation);
     		}
     public double computeEnergyBalance(double shortWaveRadiation,double residual,
     		double longWaveRadiation,double latentHeatFlux,double sensibleHeatFlux){
-    		double energyResidual = shortWaveRadiation - residual - longWaveRadiation - latentHeatFlux - sensibleHeatFlux;
-    		return energyResidual;	
+    		return canopy.computeEnergyBalance(shortWaveRadiation, residual, longWaveRadiation, latentHeatFlux, sensibleHeatFlux);
     }
-    private LinkedHashMap<Integer, Coordinate> getCoordinate(int nStaz,
-			SimpleFeatureCollection collection, String idField)
-					throws Exception {
-		LinkedHashMap<Integer, Coordinate> id2CoordinatesMcovarianceMatrix = new LinkedHashMap<Integer, Coordinate>();
-		FeatureIterator<SimpleFeature> iterator = collection.features();
-		Coordinate coordinate = null;
-		try {
-			while (iterator.hasNext()) {
-				SimpleFeature feature = iterator.next();
-				int name = ((Number) feature.getAttribute(idField)).intValue();
-				coordinate = ((Geometry) feature.getDefaultGeometry())
-						.getCentroid().getCoordinate();
-				double z = 0;
-				if (centroidElevation != null) {
-					try {
-						z = ((Number) feature.getAttribute(centroidElevation))
-								.doubleValue();
-					} catch (NullPointerException e) {
-						pm.errorMessage(msg.message("kriging.noPointZ"));
-						throw new Exception(msg.message("kriging.noPointZ"));
-					}
-				}
-				coordinate.z = z;
-				id2CoordinatesMcovarianceMatrix.put(name, coordinate);
-			}
-		} finally {
-			iterator.close();
-		}
-
-		return id2CoordinatesMcovarianceMatrix;
-	}
-	
-	private Point[] getPoint(Coordinate coordinate, CoordinateReferenceSystem sourceCRS, CoordinateReferenceSystem targetCRS)
-			throws Exception{
-		Point[] point = new Point[] { GeometryUtilities.gf().createPoint(coordinate) };
-		CrsUtilities.reproject(sourceCRS, targetCRS, point);
-		return point;
-	}		
 }
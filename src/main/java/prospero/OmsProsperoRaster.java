@@ -0,0 +1,535 @@
+package prospero;
+
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import oms3.annotations.Author;
+import oms3.annotations.Description;
+import oms3.annotations.Execute;
+import oms3.annotations.Finalize;
+import oms3.annotations.In;
+import oms3.annotations.Keywords;
+import oms3.annotations.Label;
+import oms3.annotations.License;
+import oms3.annotations.Name;
+import oms3.annotations.Out;
+import oms3.annotations.Status;
+import oms3.annotations.Unit;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.libs.modules.JGTModel;
+import org.jgrasstools.gears.utils.RegionMap;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import prosperoClasses.*;
+import prosperoClasses.StationBlock.Variable;
+import prosperoClasses.StationOutputBuffer.Output;
+
+/*
+ * GNU GPL v3 License
+ *
+ * Copyright 2017 Michele Bottazzi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+@Description("The Prospero model on raster maps")
+@Author(name = "Michele Bottazzi", contact = "michele.bottazzi@gmail.com")
+@Keywords("Evapotranspiration")
+@Label("")
+@Name("")
+@Status(Status.CERTIFIED)
+@License("General Public License Version 3 (GPLv3)")
+public class OmsProsperoRaster extends JGTModel implements Parameters {
+
+	/////////////////////////////////////////////
+	// ENVIRONMENTAL VARIABLES - INPUT
+	/////////////////////////////////////////////
+
+	@Description("The map of the air temperature.")
+	@In
+	@Unit("°C")
+	public GridCoverage2D inAirTemperatureGrid;
+
+	@Description("The map of the wind speed.")
+	@In
+	@Unit("m s-1")
+	public GridCoverage2D inWindVelocityGrid;
+
+	@Description("The map of the air relative humidity.")
+	@In
+	@Unit("%")
+	public GridCoverage2D inRelativeHumidityGrid;
+
+	@Description("The map of the direct short wave radiation at the surface.")
+	@In
+	@Unit("W m-2")
+	public GridCoverage2D inShortWaveRadiationDirectGrid;
+
+	@Description("The map of the diffuse short wave radiation at the surface.")
+	@In
+	@Unit("W m-2")
+	public GridCoverage2D inShortWaveRadiationDiffuseGrid;
+
+	@Description("The map of the net long wave radiation at the surface.")
+	@In
+	@Unit("W m-2")
+	public GridCoverage2D inNetLongWaveRadiationGrid;
+
+	@Description("The map of the atmospheric pressure.")
+	@In
+	@Unit("Pa")
+	public GridCoverage2D inAtmosphericPressureGrid;
+
+	@Description("The map of the soil heat flux.")
+	@In
+	@Unit("W m-2")
+	public GridCoverage2D inSoilFluxGrid;
+
+	@Description("The map of the leaf area index.")
+	@In
+	@Unit("m2 m-2")
+	public GridCoverage2D inLeafAreaIndexGrid;
+
+	@Description("The map of the soil moisture.")
+	@In
+	@Unit("m3 m-3")
+	public GridCoverage2D inSoilMoistureGrid;
+
+	@Description("The map of the Digital Elevation Model, on the grid of the air temperature. "
+			+ "It is used for the pressure when it is missing, without it the elevation is 0.")
+	@In
+	public GridCoverage2D inDem;
+
+	/////////////////////////////////////////////
+	// ENVIRONMENTAL VARIABLES - DEFAULT
+	/////////////////////////////////////////////
+
+	@Description("The wind default value in case of missing data.")
+	@In
+	@Unit("m s-1")
+	public double defaultWindVelocity = 0.5;
+
+	@Description("The humidity default value in case of missing data.")
+	@In
+	@Unit("%")
+	public double defaultRelativeHumidity = 70.0;
+
+	@Description("The short wave radiation default value in case of missing data.")
+	@In
+	@Unit("W m-2")
+	public double defaultShortWaveRadiationDirect = 0.0;
+
+	@Description("The atmospheric pressure default value in case of missing data.")
+	@In
+	@Unit("Pa")
+	public double defaultAtmosphericPressure = 101325.0;
+
+	@Description("The soilflux default value in case of missing data.")
+	@In
+	@Unit("W m-2")
+	public double defaultSoilFlux = 0.0;
+
+	@Description("The leaf area index default value in case of missing data.")
+	@In
+	@Unit("m2 m-2")
+	public double defaultLeafAreaIndex = 1.0;
+
+	@Description("Default soil moisture.")
+	@In
+	@Unit("m3 m-3")
+	public double defaultSoilMoisture = 0.20;
+
+	@In
+	public double defaultStress;
+
+	@In public double canopyHeight;
+
+	@In	public double alpha;
+	@In public double theta;
+	@In public double VPD0;
+
+	@In	public double T0;
+	@In public double Tl;
+	@In public double Th;
+
+	@In public double waterFieldCapacity;
+	@In public double waterWiltingPoint;
+	@In public double rootsDepth;
+	@In public double depletionFraction;
+
+	@In
+	public boolean useRadiationStress = true;
+	@In
+	public boolean useTemperatureStress = true;
+	@In
+	public boolean useVDPStress = true;
+	@In
+	public boolean useWaterStress = true;
+	@In
+	public String typeOfCanopy;
+
+	@Description("Define the closure of energy budget: single estimate or Newton iteration on the full balance.")
+	@In
+	public boolean doIterative = false;
+
+	@Description("Tolerance on the leaf temperature of the iterative closure of the energy budget.")
+	@In
+	@Unit("K")
+	public double energyBalanceTolerance = 1E-3;
+
+	@Description("Maximum number of iterations of the iterative closure of the energy budget.")
+	@In
+	public int maxIterations = 20;
+
+	@Description("Interpolate saturation pressure, delta and dew point pressure in a table over 200-340 K.")
+	@In
+	public boolean doTabulatedPressure = false;
+
+	@Description("Switch that defines if it is hourly.")
+	@In
+	public boolean doHourly = true;
+
+	@Description("The first day of the simulation.")
+	@In
+	public String tStartDate;
+
+	@Description("The time step in minutes.")
+	@In
+	public int temporalStep;
+
+	@Description("It is needed to iterate on the date")
+	int step;
+
+	@Description("Number of threads computing the tiles, 1 runs them serially.")
+	@In
+	public int parallelism = 1;
+
+	@Description("Side of the square tiles the map is divided in.")
+	@In
+	public int tileSize = 256;
+
+	@Description("Store the output maps in 32-bit floats, halving the memory of the maps. "
+			+ "The values are computed in double and rounded only when stored.")
+	@In
+	public boolean doFloat = false;
+
+	@Description("Number of sets of output rasters reused in rotation, 0 allocates new rasters at each step. "
+			+ "With N sets the output maps have to be consumed within N steps.")
+	@In
+	public int outputRasterPoolSize = 0;
+	RasterPool outputPool;
+
+	/////////////////////////////////////////////
+	// OUTPUT
+	/////////////////////////////////////////////
+
+	@Description("The map of the latent heat of the sunlit canopy.")
+	@Unit("W m-2")
+	@Out
+	public GridCoverage2D outLatentHeatGrid;
+
+	@Description("The map of the latent heat of the shaded canopy.")
+	@Unit("W m-2")
+	@Out
+	public GridCoverage2D outLatentHeatShadeGrid;
+
+	@Description("The map of the transpiration plus the evaporation from soil.")
+	@Unit("W m-2")
+	@Out
+	public GridCoverage2D outTranspirationGrid;
+
+	@Description("The map of the temperature of the sunlit leaves.")
+	@Unit("K")
+	@Out
+	public GridCoverage2D outLeafTemperatureGrid;
+
+	@Description("The map of the temperature of the shaded leaves.")
+	@Unit("K")
+	@Out
+	public GridCoverage2D outLeafTemperatureShadeGrid;
+
+	double nullValue = -9999.0;
+	SimulationClock clock;
+
+	Leaf propertyOfLeaf = new Leaf();
+	CanopyEnergyBalance canopy = new CanopyEnergyBalance(propertyOfLeaf);
+	SolarGeometry solarGeometry = new SolarGeometry();
+	ParallelLoop loop;
+
+	static final Variable[] VARIABLES = Variable.values();
+	static final Output[] OUTPUTS = Output.values();
+	// the outputs given as maps, in the order of the output coverages
+	static final Output[] MAP_OUTPUTS = {Output.LATENT_HEAT_SUN, Output.LATENT_HEAT_SHADE, Output.TRANSPIRATION,
+			Output.LEAF_TEMPERATURE_SUN, Output.LEAF_TEMPERATURE_SHADE};
+
+	// Geometry of the pixels, computed once for the grid and indexed by row * columns + column
+	PixelGeolocation geolocation;
+	GridCoverage2D geometryDem;
+	RegionMap regionMap;
+	int columns;
+	int rows;
+	double[] elevation;
+	double[] solarElevationAngles;
+	// Leaf temperatures of the previous step, first guess of the iterative closure
+	double[] previousLeafTemperatureSun;
+	double[] previousLeafTemperatureShade;
+
+	@Execute
+	public void process() throws Exception {
+		clock = SimulationClock.stations(clock, tStartDate, doHourly, temporalStep);
+		clock.setStep(step);
+
+		// the maps share the grid of the air temperature
+		if (geolocation == null || geometryDem != inDem || !geolocation.isSameGrid(inAirTemperatureGrid)) {
+			computePixelGeometry(new PixelGeolocation(inAirTemperatureGrid));
+		}
+		solarGeometry.computeSolarElevationAngles(clock, doHourly, solarElevationAngles);
+		configureCanopy();
+
+		// the rasters of the maps are read in place, indexed by the ordinal of the variable
+		final Raster[] forcingMaps = new Raster[VARIABLES.length];
+		forcingMaps[Variable.AIR_TEMPERATURE.ordinal()] = sourceRaster(inAirTemperatureGrid);
+		forcingMaps[Variable.WIND_VELOCITY.ordinal()] = sourceRaster(inWindVelocityGrid);
+		forcingMaps[Variable.RELATIVE_HUMIDITY.ordinal()] = sourceRaster(inRelativeHumidityGrid);
+		forcingMaps[Variable.SHORTWAVE_DIRECT.ordinal()] = sourceRaster(inShortWaveRadiationDirectGrid);
+		forcingMaps[Variable.SHORTWAVE_DIFFUSE.ordinal()] = sourceRaster(inShortWaveRadiationDiffuseGrid);
+		forcingMaps[Variable.NET_LONGWAVE.ordinal()] = sourceRaster(inNetLongWaveRadiationGrid);
+		forcingMaps[Variable.ATMOSPHERIC_PRESSURE.ordinal()] = sourceRaster(inAtmosphericPressureGrid);
+		forcingMaps[Variable.SOIL_FLUX.ordinal()] = sourceRaster(inSoilFluxGrid);
+		forcingMaps[Variable.LEAF_AREA_INDEX.ordinal()] = sourceRaster(inLeafAreaIndexGrid);
+		forcingMaps[Variable.SOIL_MOISTURE.ordinal()] = sourceRaster(inSoilMoistureGrid);
+
+		final WritableRaster[] outputMaps = new WritableRaster[MAP_OUTPUTS.length];
+		for (int i = 0; i < outputMaps.length; i++) {
+			outputMaps[i] = nextOutputRaster();
+		}
+
+		if (loop == null || loop.getParallelism() != parallelism) {
+			if (loop != null) {loop.shutdown();}
+			loop = new ParallelLoop(parallelism);
+		}
+		computeTiles(forcingMaps, outputMaps);
+
+		CoordinateReferenceSystem crs = inAirTemperatureGrid.getCoordinateReferenceSystem();
+		outLatentHeatGrid = CoverageUtilities.buildCoverage("LatentHeatSun", outputMaps[0], regionMap, crs);
+		outLatentHeatShadeGrid = CoverageUtilities.buildCoverage("LatentHeatShade", outputMaps[1], regionMap, crs);
+		outTranspirationGrid = CoverageUtilities.buildCoverage("Transpiration", outputMaps[2], regionMap, crs);
+		outLeafTemperatureGrid = CoverageUtilities.buildCoverage("LeafTemperatureSun", outputMaps[3], regionMap, crs);
+		outLeafTemperatureShadeGrid = CoverageUtilities.buildCoverage("LeafTemperatureShade", outputMaps[4], regionMap, crs);
+		step++;
+	}
+
+	/**
+	 * Stops the threads of the pool at the end of the run.
+	 */
+	@Finalize
+	public void close() {
+		if (loop != null) {
+			loop.shutdown();
+			loop = null;
+		}
+	}
+
+	/**
+	 * Computes the output maps tile by tile, each thread on its own tiles and with its own row buffers.
+	 * The pixels outside the DEM or without air temperature are set to the null value; the other
+	 * missing forcings are given to the canopy as the null value, so their defaults are used.
+	 *
+	 * @param forcingMaps the rasters of the forcings indexed by the ordinal of the variable, null if not given
+	 * @param outputMaps the rasters of the outputs, in the order of MAP_OUTPUTS
+	 */
+	void computeTiles(final Raster[] forcingMaps, final WritableRaster[] outputMaps) {
+		final int tileSide = Math.max(1, tileSize);
+		final int tileColumns = (columns + tileSide - 1) / tileSide;
+		final int tileRows = (rows + tileSide - 1) / tileSide;
+		final int airTemperature = Variable.AIR_TEMPERATURE.ordinal();
+		// the tiles are independent: each thread writes only the pixels of its own tiles
+		loop.run(tileColumns * tileRows, (from, to) -> {
+			double[] forcing = new double[VARIABLES.length];
+			double[] saturationTerms = new double[PressureMethods.TERMS_LENGTH];
+			double[] result = new double[OUTPUTS.length];
+			RasterAccess[] inputs = new RasterAccess[VARIABLES.length];
+			double[][] inputRows = new double[VARIABLES.length][tileSide];
+			for (int v = 0; v < inputs.length; v++) {
+				inputs[v] = (forcingMaps[v] == null) ? null : new RasterAccess(forcingMaps[v]);
+			}
+			RasterAccess[] outputs = new RasterAccess[outputMaps.length];
+			double[][] outputRows = new double[outputMaps.length][tileSide];
+			for (int o = 0; o < outputs.length; o++) {
+				outputs[o] = new RasterAccess(outputMaps[o]);
+			}
+			for (int tile = from; tile < to; tile++) {
+				int firstColumn = (tile % tileColumns) * tileSide;
+				int firstRow = (tile / tileColumns) * tileSide;
+				int lastColumn = Math.min(firstColumn + tileSide, columns);
+				int lastRow = Math.min(firstRow + tileSide, rows);
+				for (int row = firstRow; row < lastRow; row++) {
+					for (int v = 0; v < inputs.length; v++) {
+						if (inputs[v] != null) {
+							// the rasters of the coverages can start from any position
+							Raster map = forcingMaps[v];
+							inputs[v].readRow(map.getMinY() + row, map.getMinX() + firstColumn, map.getMinX() + lastColumn, inputRows[v]);
+						}
+					}
+					for (int column = firstColumn, i = 0; column < lastColumn; column++, i++) {
+						int pixel = row * columns + column;
+						if (isNovalue(elevation[pixel]) || isNovalue(inputRows[airTemperature][i])) {
+							// outside the DEM or the maps
+							for (int o = 0; o < outputRows.length; o++) {
+								outputRows[o][i] = nullValue;
+							}
+							continue;
+						}
+						for (int v = 0; v < inputs.length; v++) {
+							if (inputs[v] != null) {
+								double value = inputRows[v][i];
+								forcing[v] = isNovalue(value) ? nullValue : value;
+							} else {
+								// without the input the pressure is the standard one, the others take their default
+								forcing[v] = (v == Variable.ATMOSPHERIC_PRESSURE.ordinal()) ? 101325 : nullValue;
+							}
+						}
+						canopy.compute(forcing, elevation[pixel], solarElevationAngles[pixel],
+								previousLeafTemperatureSun[pixel], previousLeafTemperatureShade[pixel], saturationTerms, result);
+						if (doIterative == true) {
+							previousLeafTemperatureSun[pixel] = result[Output.LEAF_TEMPERATURE_SUN.ordinal()];
+							previousLeafTemperatureShade[pixel] = result[Output.LEAF_TEMPERATURE_SHADE.ordinal()];
+						}
+						for (int o = 0; o < outputRows.length; o++) {
+							outputRows[o][i] = result[MAP_OUTPUTS[o].ordinal()];
+						}
+					}
+					for (int o = 0; o < outputs.length; o++) {
+						outputs[o].writeRow(row, firstColumn, lastColumn, outputRows[o]);
+					}
+				}
+			}
+		});
+	}
+
+	private boolean isNovalue(double value) {
+		return Double.isNaN(value) || value == nullValue;
+	}
+
+	/**
+	 * Computes elevation, latitude and longitude of the center of each pixel of the grid,
+	 * once for all the steps.
+	 */
+	private void computePixelGeometry(PixelGeolocation pixels) throws Exception {
+		geolocation = pixels;
+		regionMap = pixels.getRegionMap();
+		columns = pixels.columns;
+		rows = pixels.rows;
+
+		Raster demMap = sourceRaster(inDem);
+		int size = pixels.size();
+		elevation = new double[size];
+		if (demMap != null) {
+			RasterAccess demAccess = new RasterAccess(demMap);
+			double[] demRow = new double[columns];
+			for (int row = 0; row < rows; row++) {
+				demAccess.readRow(demMap.getMinY() + row, demMap.getMinX(), demMap.getMinX() + columns, demRow);
+				System.arraycopy(demRow, 0, elevation, row * columns, columns);
+			}
+		}
+		double[] latitudeDegrees = pixels.getLatitude();
+		double[] latitude = new double[size];
+		for (int pixel = 0; pixel < size; pixel++) {
+			latitude[pixel] = Math.toRadians(latitudeDegrees[pixel]);
+		}
+		solarGeometry.setStations(latitude, pixels.getLongitude());
+		solarElevationAngles = new double[size];
+		previousLeafTemperatureSun = new double[size];
+		previousLeafTemperatureShade = new double[size];
+		Arrays.fill(previousLeafTemperatureSun, Double.NaN);
+		Arrays.fill(previousLeafTemperatureShade, Double.NaN);
+		geometryDem = inDem;
+	}
+
+	/**
+	 * Copies the inputs of the component in the canopy model, before the tiles are computed.
+	 */
+	private void configureCanopy() {
+		canopy.nullValue = nullValue;
+		canopy.defaultWindVelocity = defaultWindVelocity;
+		canopy.defaultRelativeHumidity = defaultRelativeHumidity;
+		canopy.defaultShortWaveRadiationDirect = defaultShortWaveRadiationDirect;
+		canopy.defaultAtmosphericPressure = defaultAtmosphericPressure;
+		canopy.defaultSoilFlux = defaultSoilFlux;
+		canopy.defaultLeafAreaIndex = defaultLeafAreaIndex;
+		canopy.defaultSoilMoisture = defaultSoilMoisture;
+		canopy.defaultStress = defaultStress;
+		canopy.canopyHeight = canopyHeight;
+		canopy.typeOfCanopy = typeOfCanopy;
+		canopy.alpha = alpha;
+		canopy.theta = theta;
+		canopy.VPD0 = VPD0;
+		canopy.T0 = T0;
+		canopy.Tl = Tl;
+		canopy.Th = Th;
+		canopy.waterFieldCapacity = waterFieldCapacity;
+		canopy.waterWiltingPoint = waterWiltingPoint;
+		canopy.rootsDepth = rootsDepth;
+		canopy.depletionFraction = depletionFraction;
+		canopy.useRadiationStress = useRadiationStress;
+		canopy.useTemperatureStress = useTemperatureStress;
+		canopy.useVDPStress = useVDPStress;
+		canopy.useWaterStress = useWaterStress;
+		canopy.doIterative = doIterative;
+		canopy.pressure.doTabulated = doTabulatedPressure;
+		canopy.leafTemperatureSolver.tolerance = energyBalanceTolerance;
+		canopy.leafTemperatureSolver.maxIterations = maxIterations;
+	}
+
+	/**
+	 * Gives the raster of an output map, from the pool if the rasters are reused.
+	 * All the pixels are written at each step, so the rasters of the pool are not cleared.
+	 */
+	private WritableRaster nextOutputRaster() {
+		if (outputRasterPoolSize <= 0) {
+			return (doFloat == true) ? FloatRasters.createFloatWritableRaster(columns, rows, null)
+					: CoverageUtilities.createDoubleWritableRaster(columns, rows, null, null, null);
+		}
+		int size = outputRasterPoolSize * MAP_OUTPUTS.length;
+		if (outputPool == null || outputPool.size() != size || outputPool.isFloat() != doFloat) {
+			outputPool = new RasterPool(size, doFloat);
+		}
+		return outputPool.next(columns, rows);
+	}
+
+	/**
+	 * Gives the raster of a map without copying it, if the image has a single tile,
+	 * as the maps read from file; otherwise the image is copied in a single raster.
+	 *
+	 * @param inValues: the input map values, can be null
+	 * @return the raster of the given map, null if the map is not given
+	 */
+	private Raster sourceRaster(GridCoverage2D inValues) {
+		if (inValues == null) {
+			return null;
+		}
+		RenderedImage image = inValues.getRenderedImage();
+		if (image.getNumXTiles() == 1 && image.getNumYTiles() == 1) {
+			Raster tile = image.getTile(image.getMinTileX(), image.getMinTileY());
+			// the tile can be larger than the image: the child has the bounds of the image
+			return tile.createChild(image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight(),
+					image.getMinX(), image.getMinY(), null);
+		}
+		return image.getData();
+	}
+}
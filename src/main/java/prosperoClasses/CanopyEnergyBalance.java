@@ -0,0 +1,288 @@
+package prosperoClasses;
+
+import static java.lang.Math.pow;
+
+import prosperoClasses.StationBlock.Variable;
+import prosperoClasses.StationOutputBuffer.Output;
+
+/**
+ * Energy balance of the sunlit and shaded canopy layers and evaporation from the soil in a point,
+ * shared by the point and the raster version of Prospero.
+ * The configuration is set before the computation; then compute only reads it, so a single
+ * instance can be used by several threads.
+ */
+public class CanopyEnergyBalance implements Parameters {
+
+	// Values used in case of missing data
+	public double nullValue = -9999.0;
+	public double defaultWindVelocity = 0.5;
+	public double defaultRelativeHumidity = 70.0;
+	public double defaultShortWaveRadiationDirect = 0.0;
+	public double defaultAtmosphericPressure = 101325.0;
+	public double defaultSoilFlux = 0.0;
+	public double defaultLeafAreaIndex = 1.0;
+	public double defaultSoilMoisture = 0.20;
+	public double defaultStress;
+
+	public double canopyHeight;
+	public String typeOfCanopy;
+
+	// Parameters of the environmental stresses
+	public double alpha;
+	public double theta;
+	public double VPD0;
+	public double T0;
+	public double Tl;
+	public double Th;
+	public double waterFieldCapacity;
+	public double waterWiltingPoint;
+	public double rootsDepth;
+	public double depletionFraction;
+
+	public boolean useRadiationStress = true;
+	public boolean useTemperatureStress = true;
+	public boolean useVDPStress = true;
+	public boolean useWaterStress = true;
+
+	// Close the energy balance with the Newton solver instead of the single estimate
+	public boolean doIterative = false;
+
+	public final Leaf leaf;
+	public final PressureMethods pressure = new PressureMethods();
+	public final LeafTemperatureSolver leafTemperatureSolver = new LeafTemperatureSolver();
+	final LeafConductanceModel leafConductance;
+	final SensibleHeatMethods sensibleHeat = new SensibleHeatMethods();
+	final LatentHeatMethods latentHeat = new LatentHeatMethods();
+	final RadiationMethod radiationMethods = new RadiationMethod();
+	final EnvironmentalStress environmentalStress = new EnvironmentalStress();
+	final WindProfile windVelocityProfile = new WindProfile();
+
+	public CanopyEnergyBalance(Leaf leaf) {
+		this.leaf = leaf;
+		leafConductance = new LeafConductanceModel(leaf);
+	}
+
+	/**
+	 * Computes the fluxes of a point.
+	 *
+	 * @param forcing the forcings indexed by the ordinal of {@link Variable}, the air temperature in °C;
+	 * missing values are given with the null value
+	 * @param elevation the elevation of the point [m]
+	 * @param solarElevationAngle the sine of the solar elevation angle
+	 * @param previousLeafTemperatureSun the sunlit leaf temperature of the previous step [K], first guess of
+	 * the Newton iteration; NaN if not known
+	 * @param previousLeafTemperatureShade the same for the shaded leaves
+	 * @param saturationTerms work array of the calling thread, of length {@link PressureMethods#TERMS_LENGTH}
+	 * @param result the array filled with the outputs, indexed by the ordinal of {@link Output}
+	 */
+	public void compute(double[] forcing, double elevation, double solarElevationAngle, double previousLeafTemperatureSun,
+			double previousLeafTemperatureShade, double[] saturationTerms, double[] result) {
+		double leafLength = leaf.length;
+		int leafSide = leaf.side;
+		double longWaveEmittance = leaf.longWaveEmittance;
+
+		double airTemperature = forcing[Variable.AIR_TEMPERATURE.ordinal()]+273.0;
+		if (airTemperature == (nullValue+273.0)) {airTemperature = nullValue;}
+		double leafTemperatureSun = airTemperature;
+		double leafTemperatureShade = airTemperature;
+
+		double leafAreaIndex = forcing[Variable.LEAF_AREA_INDEX.ordinal()];
+		if (leafAreaIndex == nullValue) {leafAreaIndex = defaultLeafAreaIndex;}
+
+		double shortWaveRadiationDirect = forcing[Variable.SHORTWAVE_DIRECT.ordinal()];
+		if (shortWaveRadiationDirect == nullValue) {shortWaveRadiationDirect = defaultShortWaveRadiationDirect;}
+
+		double shortWaveRadiationDiffuse = forcing[Variable.SHORTWAVE_DIFFUSE.ordinal()];
+		if (shortWaveRadiationDiffuse == nullValue) {shortWaveRadiationDiffuse = 0.159*shortWaveRadiationDirect;}
+
+		// the incoming long wave is always the one emitted at air temperature
+		double longWaveRadiation = longWaveEmittance * stefanBoltzmannConstant * pow (airTemperature, 4);
+
+		double netLongWaveRadiation = forcing[Variable.NET_LONGWAVE.ordinal()];
+		if (netLongWaveRadiation == nullValue) {netLongWaveRadiation = 0;}
+
+		double windVelocity = forcing[Variable.WIND_VELOCITY.ordinal()];
+		if (windVelocity == nullValue) {windVelocity = defaultWindVelocity;}
+		if (windVelocity == 0) {windVelocity = defaultWindVelocity;}
+
+		double atmosphericPressure = forcing[Variable.ATMOSPHERIC_PRESSURE.ordinal()];
+		if (atmosphericPressure == nullValue) {atmosphericPressure = pressure.computePressure(defaultAtmosphericPressure, massAirMolecule, gravityConstant, elevation,boltzmannConstant, airTemperature);}
+
+		double relativeHumidity = forcing[Variable.RELATIVE_HUMIDITY.ordinal()];
+		if (relativeHumidity == nullValue) {relativeHumidity = defaultRelativeHumidity;}
+
+		double soilFlux = forcing[Variable.SOIL_FLUX.ordinal()];
+		if (soilFlux == nullValue) {soilFlux = defaultSoilFlux;}
+
+		double soilMoisture = forcing[Variable.SOIL_MOISTURE.ordinal()];
+		if (soilMoisture == nullValue) {soilMoisture = defaultSoilMoisture;}
+
+		// WIND
+		double windInCanopy = windVelocityProfile.computeWindProfile(windVelocity, canopyHeight);
+		double windSoil = windVelocityProfile.computeWindProfile(windVelocity, 0.2);
+
+		// Compute the saturation pressure, the delta and the dew point pressure
+		pressure.computeSaturationTerms(airTemperature, waterMolarMass, latentHeatEvaporation, molarGasConstant, saturationTerms);
+		double saturationVaporPressure = saturationTerms[PressureMethods.SATURATION_VAPOR_PRESSURE];
+		// Compute the actual vapour pressure
+		double vaporPressure = pressure.computeVaporPressure(relativeHumidity, saturationVaporPressure);
+		double delta = saturationTerms[PressureMethods.DELTA];
+		// Compute the convective transfer coefficient - hc
+		double convectiveTransferCoefficient = sensibleHeat.computeConvectiveTransferCoefficient(airTemperature, windInCanopy, leafLength, criticalReynoldsNumber, prandtlNumber);
+		// Compute the sensible transfer coefficient - cH
+		double sensibleHeatTransferCoefficient = sensibleHeat.computeSensibleHeatTransferCoefficient(convectiveTransferCoefficient, leafSide);
+		// Compute the latent transfer coefficient - cE
+		double latentHeatTransferCoefficient = leafConductance.computeLatentHeatTransferCoefficient(airTemperature, atmosphericPressure, convectiveTransferCoefficient);
+
+		// RADIATION
+		double shortwaveCanopySun = radiationMethods.computeAbsordebRadiationSunlit(leafAreaIndex, solarElevationAngle, shortWaveRadiationDirect*2.1, shortWaveRadiationDiffuse*2.1);
+		double radFactorSun = (shortWaveRadiationDirect*2.1 + shortWaveRadiationDiffuse*2.1)/ shortwaveCanopySun;
+
+		// Compute the area in sunlight
+		double areaCanopySun = radiationMethods.computeSunlitLeafAreaIndex(typeOfCanopy,leafAreaIndex, solarElevationAngle);
+
+		double shortwaveCanopyShade = radiationMethods.computeAbsordebRadiationShadow(leafAreaIndex, solarElevationAngle, shortWaveRadiationDirect*2.1, shortWaveRadiationDiffuse*2.1);
+		double radFactorShade = (shortWaveRadiationDirect*2.1 + shortWaveRadiationDiffuse*2.1)/ shortwaveCanopyShade;
+		shortwaveCanopySun = (shortWaveRadiationDirect+shortWaveRadiationDiffuse)/radFactorSun;
+		shortwaveCanopyShade = (shortWaveRadiationDirect+shortWaveRadiationDiffuse)/radFactorShade;
+
+		if (solarElevationAngle <0) {
+			shortwaveCanopySun=0;
+			shortwaveCanopyShade=0;
+			areaCanopySun=0;
+		}
+		// Compute the area in shadow
+		double areaCanopyShade = leafAreaIndex - areaCanopySun;
+		double netLong = shortWaveRadiationDirect-netLongWaveRadiation;
+
+		double incidentSolarRadiationSoil = shortWaveRadiationDirect + shortWaveRadiationDiffuse - shortwaveCanopySun - shortwaveCanopyShade-netLong;
+		incidentSolarRadiationSoil=(incidentSolarRadiationSoil<0)?0:incidentSolarRadiationSoil;
+
+		// LAYER SOIL
+		double evaporation = computeEvaporation(incidentSolarRadiationSoil, windSoil, airTemperature, relativeHumidity, atmosphericPressure, soilFlux)* latentHeatEvaporation / 86400;
+		evaporation=(evaporation<0)?0:evaporation;
+
+		// STRESS
+		double vaporPressureDew = saturationTerms[PressureMethods.DEW_POINT_PRESSURE];
+		double vapourPressureDeficit = pressure.computeVapourPressureDeficit(vaporPressure, vaporPressureDew);
+
+		double stressRadiationSun = 1;
+		double stressRadiationShade = 1;
+		if (useRadiationStress == true) {
+			stressRadiationSun = environmentalStress.computeRadiationStress(shortwaveCanopySun*2.1, alpha, theta);
+			stressRadiationShade = environmentalStress.computeRadiationStress(shortwaveCanopyShade*2.1, alpha, theta);
+		}
+		double stressTemperature = 1;
+		if (useTemperatureStress == true) {
+			stressTemperature = environmentalStress.computeTemperatureStress(airTemperature, Tl, Th, T0);
+		}
+		double stressVPD = 1;
+		if (useVDPStress == true) {
+			stressVPD = environmentalStress.computeVapourPressureStress(vapourPressureDeficit, VPD0);
+		}
+		double stressWater = 1;
+		if (useWaterStress == true) {
+			stressWater = environmentalStress.computeFAOWaterStress(soilMoisture, waterFieldCapacity, waterWiltingPoint, rootsDepth, depletionFraction);
+		}
+		double stressSun = defaultStress*stressRadiationSun * stressTemperature * stressWater * stressVPD;
+		double stressShade = defaultStress*stressRadiationShade * stressTemperature * stressWater * stressVPD;
+
+		// SUN LAYER
+		// Compute the leaf temperature in sunlight
+		// without the air temperature the leaves stay at the null value, which is not used as first guess
+		boolean solve = doIterative == true && airTemperature != nullValue;
+		if (solve == true) {
+			leafTemperatureSun = leafTemperatureSolver.solve(previousLeafTemperatureSun, shortwaveCanopySun, areaCanopySun, stressSun, airTemperature,
+					sensibleHeatTransferCoefficient, latentHeatTransferCoefficient, delta, vaporPressure, saturationVaporPressure, leafSide, longWaveEmittance);
+		} else if (doIterative == false) {
+			leafTemperatureSun = computeSurfaceTemperature(shortwaveCanopySun, 0, sensibleHeatTransferCoefficient,airTemperature,
+					areaCanopySun, stressSun,latentHeatTransferCoefficient,delta,vaporPressure,saturationVaporPressure,leafSide,longWaveRadiation);
+		}
+		// Compute the latent heat flux from the sunlight area
+		double latentHeatFluxSun = areaCanopySun*stressSun*latentHeat.computeLatentHeatFlux(delta, leafTemperatureSun, airTemperature,
+				latentHeatTransferCoefficient,sensibleHeatTransferCoefficient, vaporPressure, saturationVaporPressure);
+		// Compute the sensible heat flux from the sunlight area
+		double sensibleHeatFluxSun = areaCanopySun*sensibleHeat.computeSensibleHeatFlux(sensibleHeatTransferCoefficient, leafTemperatureSun, airTemperature);
+
+		// SHADE LAYER
+		// Compute the leaf temperature in shadow
+		if (solve == true) {
+			leafTemperatureShade = leafTemperatureSolver.solve(previousLeafTemperatureShade, shortwaveCanopyShade, areaCanopyShade, stressShade, airTemperature,
+					sensibleHeatTransferCoefficient, latentHeatTransferCoefficient, delta, vaporPressure, saturationVaporPressure, leafSide, longWaveEmittance);
+		} else if (doIterative == false) {
+			leafTemperatureShade = computeSurfaceTemperature(shortwaveCanopyShade, 0, sensibleHeatTransferCoefficient,airTemperature,
+					areaCanopyShade, stressShade,latentHeatTransferCoefficient,delta,vaporPressure,saturationVaporPressure,leafSide,longWaveRadiation);
+		}
+		// Compute the latent heat flux from the shaded area
+		double latentHeatFluxShade = areaCanopyShade*stressShade*latentHeat.computeLatentHeatFlux(delta, leafTemperatureShade, airTemperature, latentHeatTransferCoefficient,
+				sensibleHeatTransferCoefficient, vaporPressure, saturationVaporPressure);
+		// Compute the sensible heat flux from the shaded area
+		double sensibleHeatFluxShade = areaCanopyShade*sensibleHeat.computeSensibleHeatFlux(sensibleHeatTransferCoefficient, leafTemperatureShade, airTemperature);
+
+		latentHeatFluxSun=(latentHeatFluxSun<0)?0:latentHeatFluxSun;
+		latentHeatFluxShade=(latentHeatFluxShade<0)?0:latentHeatFluxShade;
+
+		double totalTranspiration = (latentHeatFluxSun+latentHeatFluxShade+evaporation);
+		if (airTemperature == nullValue) {
+			totalTranspiration=nullValue;
+		}
+
+		result[Output.LATENT_HEAT_SUN.ordinal()] = latentHeatFluxSun;
+		result[Output.LATENT_HEAT_SHADE.ordinal()] = latentHeatFluxShade;
+		result[Output.TRANSPIRATION.ordinal()] = totalTranspiration;
+		result[Output.SENSIBLE_HEAT_SUN.ordinal()] = sensibleHeatFluxSun;
+		result[Output.SENSIBLE_HEAT_SHADE.ordinal()] = sensibleHeatFluxShade;
+		result[Output.LEAF_TEMPERATURE_SUN.ordinal()] = leafTemperatureSun;
+		result[Output.LEAF_TEMPERATURE_SHADE.ordinal()] = leafTemperatureShade;
+		result[Output.RADIATION_SUN.ordinal()] = shortwaveCanopySun;
+		result[Output.RADIATION_SHADE.ordinal()] = shortwaveCanopyShade;
+		result[Output.RADIATION_SOIL.ordinal()] = incidentSolarRadiationSoil;
+		result[Output.CANOPY_SUN.ordinal()] = areaCanopySun;
+		result[Output.EVAPORATION.ordinal()] = evaporation;
+	}
+
+	/**
+	 * Single estimate of the leaf temperature from the linearized energy balance.
+	 */
+	public double computeSurfaceTemperature(double shortWaveRadiation, double residual, double sensibleHeatTransferCoefficient,
+			double airTemperature, double surfaceArea, double stress, double latentHeatTransferCoefficient, double delta,
+			double vaporPressure, double saturationVaporPressure, int side, double longWaveRadiation) {
+		double surfaceTemperature1 = (shortWaveRadiation - residual + sensibleHeatTransferCoefficient*airTemperature*surfaceArea +
+				stress * latentHeatTransferCoefficient*(delta*airTemperature + vaporPressure - saturationVaporPressure)*surfaceArea +
+				side * longWaveRadiation * 4 *1);
+		double surfaceTemperature2 = (1/(sensibleHeatTransferCoefficient*surfaceArea +
+				stress*latentHeatTransferCoefficient * delta *surfaceArea +
+				side * longWaveRadiation/airTemperature * 4*1));
+		return surfaceTemperature1*surfaceTemperature2;
+	}
+
+	public double computeEnergyBalance(double shortWaveRadiation, double residual,
+			double longWaveRadiation, double latentHeatFlux, double sensibleHeatFlux) {
+		return shortWaveRadiation - residual - longWaveRadiation - latentHeatFlux - sensibleHeatFlux;
+	}
+
+	private double computeEvaporation(double netRadiation, double windVelocity, double airTemperature, double relativeHumidity,
+			double atmosphericPressure, double soilHeatFlux) {
+		netRadiation = netRadiation * 86400/1E6;
+		atmosphericPressure = atmosphericPressure/1000;
+		airTemperature = airTemperature-273.15;
+		soilHeatFlux = soilHeatFlux * 86400/1E6;
+		// Computation of Delta [KPa °C-1]
+		double denDelta = Math.pow((airTemperature + 237.3), 2);
+		double expDelta = (17.27 * airTemperature) / (airTemperature + 237.3);
+		double numDelta = 4098 * (0.6108 * Math.exp(expDelta));
+		double delta = numDelta / denDelta;
+		// Computation of Psicrometric constant [kPa °C-1]
+		double psychrometricConstant = 0.665 * 0.001 * atmosphericPressure;
+		// Computation of mean saturation vapour pressure [kPa]
+		double saturationVaporPressure = 0.6108 * Math.exp(expDelta);
+		// Computation of average hourly actual vapour pressure [kPa]
+		double vaporPressure = saturationVaporPressure * relativeHumidity / 100;
+		// Computation of ET [mm day-1]
+		double num = 0.408 * delta * (netRadiation - soilHeatFlux) + (900 * psychrometricConstant * windVelocity * (saturationVaporPressure - vaporPressure)) / (airTemperature + 273);
+		double den = delta + psychrometricConstant * (1 + 0.34 * windVelocity);
+		double result = (num / den);
+		result = (result <0)?0:result;
+		return result;
+	}
+}
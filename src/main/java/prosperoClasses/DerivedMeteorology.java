@@ -0,0 +1,92 @@
+package prosperoClasses;
+
+import prosperoClasses.StationBlock.Variable;
+
+/**
+ * Meteorological quantities of the FAO 56 reference methods derived once per step from
+ * the forcings of a block of stations, stored as columns indexed by the station ordinal:
+ * the air temperature and the fluxes with their defaults, the slope of the saturation vapour
+ * pressure curve, the saturation and actual vapour pressure and the psychrometric constant.
+ * The columns are allocated once and recomputed in place at each step.
+ */
+public class DerivedMeteorology {
+
+	// Missing data are the null value, and are replaced by the default values
+	public double nullValue = -9999.0;
+	public double defaultAirTemperature = 15.0;
+	public double defaultNetRadiation = 2.0;
+	public double defaultRelativeHumidity = 70.0;
+	// [kPa], not converted
+	public double defaultAtmosphericPressure;
+	public double defaultSoilFlux = 0.0;
+
+	// [C]
+	public double[] airTemperature = new double[0];
+	// [MJ m-2 day-1]
+	public double[] netRadiation = new double[0];
+	// [kPa]
+	public double[] atmosphericPressure = new double[0];
+	// [MJ m-2 day-1], the null value where the soil flux is not given
+	public double[] soilHeatFlux = new double[0];
+	// [kPa C-1]
+	public double[] delta = new double[0];
+	// [kPa]
+	public double[] saturationVaporPressure = new double[0];
+	// [kPa]
+	public double[] vaporPressure = new double[0];
+	// [kPa C-1]
+	public double[] psychrometricConstant = new double[0];
+
+	/**
+	 * Computes the quantities of all the stations of the block. The fluxes are converted
+	 * from W/m2 to MJ/m2/day and the pressure from Pa to kPa.
+	 */
+	public void compute(StationBlock block) {
+		int size = block.size();
+		if (airTemperature.length != size) {
+			airTemperature = new double[size];
+			netRadiation = new double[size];
+			atmosphericPressure = new double[size];
+			soilHeatFlux = new double[size];
+			delta = new double[size];
+			saturationVaporPressure = new double[size];
+			vaporPressure = new double[size];
+			psychrometricConstant = new double[size];
+		}
+		double[] airTemperatureColumn = block.getColumn(Variable.AIR_TEMPERATURE);
+		double[] netRadiationColumn = block.getColumn(Variable.NET_RADIATION);
+		double[] relativeHumidityColumn = block.getColumn(Variable.RELATIVE_HUMIDITY);
+		double[] atmosphericPressureColumn = block.getColumn(Variable.ATMOSPHERIC_PRESSURE);
+		double[] soilFluxColumn = block.getColumn(Variable.SOIL_FLUX);
+
+		for (int station = 0; station < size; station++) {
+			double temperature = airTemperatureColumn[station];
+			if (temperature == nullValue) {temperature = defaultAirTemperature;}
+
+			double radiation = (netRadiationColumn != null) ? netRadiationColumn[station] : nullValue;
+			if (radiation == nullValue) {radiation = defaultNetRadiation;}
+
+			double relativeHumidity = (relativeHumidityColumn != null) ? relativeHumidityColumn[station] : nullValue;
+			if (relativeHumidity == nullValue) {relativeHumidity = defaultRelativeHumidity;}
+
+			double pressure = (atmosphericPressureColumn != null) ? atmosphericPressureColumn[station] : nullValue;
+			pressure = (pressure == nullValue) ? defaultAtmosphericPressure : pressure / 1000;
+
+			double soilFlux = defaultSoilFlux;
+			if (soilFluxColumn != null) {soilFlux = soilFluxColumn[station];}
+			if (soilFlux == nullValue) {soilFlux = defaultSoilFlux;}
+			soilFlux = soilFlux * 86400/1E6;
+
+			double exponent = (17.27 * temperature) / (temperature + 237.3);
+			airTemperature[station] = temperature;
+			netRadiation[station] = radiation * 86400/1E6;
+			atmosphericPressure[station] = pressure;
+			// as in the components, a converted soil flux equal to the default one is not given
+			soilHeatFlux[station] = (soilFlux == defaultSoilFlux) ? nullValue : soilFlux;
+			delta[station] = PriestleyTaylorKernel.saturationSlope(temperature);
+			saturationVaporPressure[station] = 0.6108 * Math.exp(exponent);
+			vaporPressure[station] = saturationVaporPressure[station] * relativeHumidity / 100;
+			psychrometricConstant[station] = 0.665 * 0.001 * pressure;
+		}
+	}
+}
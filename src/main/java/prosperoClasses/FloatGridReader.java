@@ -0,0 +1,131 @@
+package prosperoClasses;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+import org.jgrasstools.gears.utils.RegionMap;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+
+/**
+ * Reader of a map in the ESRI binary float grid format (.flt with its .hdr), read
+ * by strips of rows. Each strip is read in a direct buffer, reused by all the strips,
+ * so only the rows of the strip are held in memory and the file can be larger than the heap.
+ * The novalue of the header is given as NaN, as in the maps of the raster readers.
+ */
+public class FloatGridReader {
+
+	public final int columns;
+	public final int rows;
+	final RegionMap regionMap = new RegionMap();
+	final double novalue;
+	final ByteOrder byteOrder;
+	final RandomAccessFile file;
+	final FileChannel channel;
+	ByteBuffer buffer;
+
+	/**
+	 * Opens the .flt file of the map and reads its header from the .hdr file with the same name.
+	 *
+	 * @param fltFile the path of the .flt file
+	 */
+	public FloatGridReader(File fltFile) throws IOException {
+		String name = fltFile.getName();
+		String base = name.toLowerCase().endsWith(".flt") ? name.substring(0, name.length() - 4) : name;
+		File hdrFile = new File(fltFile.getAbsoluteFile().getParentFile(), base + ".hdr");
+		HashMap<String, String> header = new HashMap<String, String>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(hdrFile), "US-ASCII"))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.trim().split("\\s+");
+				if (fields.length == 2) {
+					header.put(fields[0].toLowerCase(), fields[1]);
+				}
+			}
+		}
+		columns = (int) number(header, hdrFile, "ncols");
+		rows = (int) number(header, hdrFile, "nrows");
+		double xres = header.containsKey("cellsize") ? number(header, hdrFile, "cellsize") : number(header, hdrFile, "xdim");
+		double yres = header.containsKey("cellsize") ? xres : number(header, hdrFile, "ydim");
+		// the corner can be given as the center of the lower left pixel
+		double west = header.containsKey("xllcenter") ? number(header, hdrFile, "xllcenter") - xres / 2
+				: number(header, hdrFile, "xllcorner");
+		double south = header.containsKey("yllcenter") ? number(header, hdrFile, "yllcenter") - yres / 2
+				: number(header, hdrFile, "yllcorner");
+		novalue = header.containsKey("nodata_value") ? number(header, hdrFile, "nodata_value") : Double.NaN;
+		byteOrder = "msbfirst".equalsIgnoreCase(header.get("byteorder")) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+
+		regionMap.put(CoverageUtilities.COLS, (double) columns);
+		regionMap.put(CoverageUtilities.ROWS, (double) rows);
+		regionMap.put(CoverageUtilities.XRES, xres);
+		regionMap.put(CoverageUtilities.YRES, yres);
+		regionMap.put(CoverageUtilities.WEST, west);
+		regionMap.put(CoverageUtilities.SOUTH, south);
+		regionMap.put(CoverageUtilities.EAST, west + columns * xres);
+		regionMap.put(CoverageUtilities.NORTH, south + rows * yres);
+
+		file = new RandomAccessFile(fltFile, "r");
+		if (file.length() != 4L * columns * rows) {
+			file.close();
+			throw new IOException("The file " + fltFile + " has " + file.length() + " bytes, the header gives "
+					+ columns + " x " + rows + " floats.");
+		}
+		channel = file.getChannel();
+	}
+
+	private static double number(HashMap<String, String> header, File hdrFile, String key) throws IOException {
+		String value = header.get(key);
+		if (value == null) {
+			throw new IOException("The header " + hdrFile + " has no " + key + ".");
+		}
+		return Double.parseDouble(value);
+	}
+
+	/**
+	 * @return the grid of the map, as given by the header
+	 */
+	public RegionMap getRegionMap() {
+		return regionMap;
+	}
+
+	/**
+	 * Reads a strip of whole rows, the values are ordered by row and then by column.
+	 */
+	public void readRows(int firstRow, int rowCount, double[] values) throws IOException {
+		if (firstRow < 0 || firstRow + rowCount > rows) {
+			throw new IllegalArgumentException("The rows " + firstRow + "-" + (firstRow + rowCount)
+					+ " are outside the map of " + rows + " rows.");
+		}
+		int size = rowCount * columns;
+		if (buffer == null || buffer.capacity() < 4 * size) {
+			buffer = ByteBuffer.allocateDirect(4 * size).order(byteOrder);
+		}
+		buffer.clear();
+		buffer.limit(4 * size);
+		long position = 4L * firstRow * columns;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("The file ends before the row " + (firstRow + rowCount) + ".");
+			}
+			position += read;
+		}
+		buffer.flip();
+		for (int i = 0; i < size; i++) {
+			float value = buffer.getFloat();
+			values[i] = (value == (float) novalue) ? Double.NaN : value;
+		}
+	}
+
+	public void close() throws IOException {
+		channel.close();
+		file.close();
+	}
+}
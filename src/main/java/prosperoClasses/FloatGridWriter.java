@@ -0,0 +1,86 @@
+package prosperoClasses;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import org.jgrasstools.gears.utils.RegionMap;
+
+/**
+ * Writer of a map in the ESRI binary float grid format (.flt with its .hdr), written
+ * by strips of rows. Each strip is converted in a direct buffer, reused by all the strips,
+ * and written at its position in the file, so the whole map is never held in memory
+ * and the file can be larger than the heap.
+ */
+public class FloatGridWriter {
+
+	public final int columns;
+	public final int rows;
+	final RandomAccessFile file;
+	final FileChannel channel;
+	ByteBuffer buffer;
+
+	/**
+	 * Creates the .flt file of the map and writes its header in the .hdr file with the same name.
+	 *
+	 * @param fltFile the path of the .flt file
+	 * @param regionMap the grid of the map
+	 * @param novalue the value written for the missing data
+	 */
+	public FloatGridWriter(File fltFile, RegionMap regionMap, double novalue) throws IOException {
+		columns = regionMap.getCols();
+		rows = regionMap.getRows();
+		String name = fltFile.getName();
+		String base = name.toLowerCase().endsWith(".flt") ? name.substring(0, name.length() - 4) : name;
+		File hdrFile = new File(fltFile.getAbsoluteFile().getParentFile(), base + ".hdr");
+		try (PrintWriter header = new PrintWriter(hdrFile, "US-ASCII")) {
+			header.println("ncols " + columns);
+			header.println("nrows " + rows);
+			header.println("xllcorner " + regionMap.getWest());
+			header.println("yllcorner " + regionMap.getSouth());
+			if (regionMap.getXres() == regionMap.getYres()) {
+				header.println("cellsize " + regionMap.getXres());
+			} else {
+				header.println("xdim " + regionMap.getXres());
+				header.println("ydim " + regionMap.getYres());
+			}
+			header.println("NODATA_value " + novalue);
+			header.println("byteorder LSBFIRST");
+		}
+		file = new RandomAccessFile(fltFile, "rw");
+		file.setLength(4L * columns * rows);
+		channel = file.getChannel();
+	}
+
+	/**
+	 * Writes a strip of whole rows, the values are ordered by row and then by column.
+	 */
+	public void writeRows(int firstRow, int rowCount, double[] values) throws IOException {
+		if (firstRow < 0 || firstRow + rowCount > rows) {
+			throw new IllegalArgumentException("The rows " + firstRow + "-" + (firstRow + rowCount)
+					+ " are outside the map of " + rows + " rows.");
+		}
+		int size = rowCount * columns;
+		if (buffer == null || buffer.capacity() < 4 * size) {
+			buffer = ByteBuffer.allocateDirect(4 * size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		buffer.clear();
+		for (int i = 0; i < size; i++) {
+			buffer.putFloat((float) values[i]);
+		}
+		buffer.flip();
+		long position = 4L * firstRow * columns;
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	public void close() throws IOException {
+		channel.close();
+		file.close();
+	}
+}
@@ -0,0 +1,72 @@
+package prosperoClasses;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import org.jgrasstools.gears.libs.modules.JGTConstants;
+
+/**
+ * Rasters of a single band stored in 32-bit floats, the counterpart of
+ * CoverageUtilities.createDoubleWritableRaster and CoverageUtilities.replaceNovalue
+ * for the maps where the double precision is not needed. The values are read
+ * and computed in double and rounded to float only when they are stored.
+ */
+public class FloatRasters {
+
+	/**
+	 * Creates a float raster of the given dimension.
+	 *
+	 * @param value the value of all the pixels, if null they are 0
+	 */
+	public static WritableRaster createFloatWritableRaster(int columns, int rows, Double value) {
+		BandedSampleModel sampleModel = new BandedSampleModel(DataBuffer.TYPE_FLOAT, columns, rows, 1);
+		WritableRaster raster = Raster.createWritableRaster(sampleModel, null);
+		if (value != null) {
+			float[] data = new RasterAccess(raster).floatData;
+			Arrays.fill(data, value.floatValue());
+		}
+		return raster;
+	}
+
+	/**
+	 * Copies the first band of the image in a float raster, replacing the novalues with the given value.
+	 * The image is read tile by tile, without a double copy of the whole map.
+	 */
+	public static WritableRaster replaceNovalue(RenderedImage image, double value) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BandedSampleModel sampleModel = new BandedSampleModel(DataBuffer.TYPE_FLOAT, width, height, 1);
+		WritableRaster raster = Raster.createWritableRaster(sampleModel, new Point(image.getMinX(), image.getMinY()));
+		RasterAccess access = new RasterAccess(raster);
+		Rectangle bounds = raster.getBounds();
+		double[] buffer = new double[Math.min(width, image.getTileWidth())];
+		for (int tileY = image.getMinTileY(); tileY < image.getMinTileY() + image.getNumYTiles(); tileY++) {
+			for (int tileX = image.getMinTileX(); tileX < image.getMinTileX() + image.getNumXTiles(); tileX++) {
+				Raster tile = image.getTile(tileX, tileY);
+				Rectangle area = tile.getBounds().intersection(bounds);
+				if (area.isEmpty()) {
+					continue;
+				}
+				if (buffer.length < area.width) {
+					buffer = new double[area.width];
+				}
+				for (int row = area.y; row < area.y + area.height; row++) {
+					tile.getSamples(area.x, row, area.width, 1, 0, buffer);
+					for (int i = 0; i < area.width; i++) {
+						if (JGTConstants.isNovalue(buffer[i])) {
+							buffer[i] = value;
+						}
+					}
+					access.writeRow(row, area.x, area.x + area.width, buffer);
+				}
+			}
+		}
+		return raster;
+	}
+}
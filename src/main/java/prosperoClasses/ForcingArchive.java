@@ -0,0 +1,398 @@
+package prosperoClasses;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import prosperoClasses.StationBlock.Variable;
+
+/**
+ * Binary columnar container of the forcings of a set of stations on a regular time axis.
+ * The file has a little-endian header (magic, version, bytes of the values, number of variables,
+ * of stations and of steps, start and step in epoch milliseconds, names of the variables and
+ * ids of the stations) followed by one contiguous block for each variable, in doubles or floats.
+ * Each block is ordered by step and then by station, so the values of a step and the values of
+ * a time window are contiguous. The blocks are memory mapped in segments of whole steps, so any
+ * step can be read without reading the ones before it. The missing data are the null value;
+ * the variables without any data are listed in the header without a block.
+ */
+public class ForcingArchive {
+
+	static final int MAGIC = 0x464F5243;
+	static final int VERSION = 1;
+	static final int SEGMENT = 1 << 28;
+
+	public static final double nullValue = -9999.0;
+
+	final RandomAccessFile file;
+	final FileChannel channel;
+	final int valueBytes;
+	final int[] ids;
+	final long startMillis;
+	final long stepMillis;
+	final int count;
+	// the variables of the file, the ones with data in the order of their blocks
+	final Variable[] variables;
+	final boolean[] contained = new boolean[Variable.values().length];
+	// segments of the block of each variable with data, indexed by the ordinal of the variable
+	final MappedByteBuffer[][] segments = new MappedByteBuffer[Variable.values().length][];
+	final int segmentSteps;
+
+	StationBlock lastBlock;
+	// ordinals in the block of the stations of the file
+	int[] ordinals;
+	boolean sameOrder;
+	double[] row;
+
+	private ForcingArchive(File path) throws IOException {
+		file = new RandomAccessFile(path, "r");
+		channel = file.getChannel();
+		try {
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("The file " + path + " is not a forcing archive.");
+			}
+			valueBytes = header.getInt();
+			int variableCount = header.getInt();
+			int stationCount = header.getInt();
+			count = header.getInt();
+			startMillis = header.getLong();
+			stepMillis = header.getLong();
+			variables = new Variable[variableCount];
+			boolean[] hasData = new boolean[variableCount];
+			for (int v = 0; v < variableCount; v++) {
+				byte[] name = new byte[header.getInt()];
+				header.get(name);
+				variables[v] = Variable.valueOf(new String(name, StandardCharsets.US_ASCII));
+				hasData[v] = header.get() != 0;
+				contained[variables[v].ordinal()] = true;
+			}
+			ids = new int[stationCount];
+			header.asIntBuffer().get(ids);
+			long offset = align(header.position() + 4L * stationCount);
+
+			int rowBytes = Math.max(1, stationCount * valueBytes);
+			segmentSteps = Math.max(1, SEGMENT / rowBytes);
+			for (int v = 0; v < variableCount; v++) {
+				if (!hasData[v]) {
+					continue;
+				}
+				Variable variable = variables[v];
+				int segmentCount = (count + segmentSteps - 1) / segmentSteps;
+				MappedByteBuffer[] blocks = new MappedByteBuffer[segmentCount];
+				for (int s = 0; s < segmentCount; s++) {
+					int steps = Math.min(segmentSteps, count - s * segmentSteps);
+					blocks[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset + (long) s * segmentSteps * rowBytes, (long) steps * rowBytes);
+					blocks[s].order(ByteOrder.LITTLE_ENDIAN);
+				}
+				segments[variable.ordinal()] = blocks;
+				offset += (long) count * stationCount * valueBytes;
+			}
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens an archive written by {@link #convert}.
+	 */
+	public static ForcingArchive open(File path) throws IOException {
+		return new ForcingArchive(path);
+	}
+
+	static long align(long position) {
+		return (position + 7) / 8 * 8;
+	}
+
+	public int[] getIds() {
+		return ids;
+	}
+
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	public long getStepMillis() {
+		return stepMillis;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public boolean isFloat() {
+		return valueBytes == 4;
+	}
+
+	/**
+	 * @return true if the archive has the values of the variable
+	 */
+	public boolean has(Variable variable) {
+		return segments[variable.ordinal()] != null;
+	}
+
+	/**
+	 * @return true if the variable was converted, also when all its values are missing
+	 */
+	public boolean contains(Variable variable) {
+		return contained[variable.ordinal()];
+	}
+
+	/**
+	 * @return a block with the stations of the archive in the same order, filled without the mapping of the ids
+	 */
+	public StationBlock createBlock() {
+		return new StationBlock(ids.clone());
+	}
+
+	/**
+	 * @return the step of the date, -1 if the date is outside the archive or between two steps
+	 */
+	public int indexOf(long millis) {
+		long offset = millis - startMillis;
+		if (offset < 0 || offset % stepMillis != 0 || offset / stepMillis >= count) {
+			return -1;
+		}
+		return (int) (offset / stepMillis);
+	}
+
+	/**
+	 * Reads the values of the variable on the steps [fromStep, toStep), ordered by step and then
+	 * by station in the order of the ids.
+	 *
+	 * @param values the output, of at least (toStep - fromStep) * stations values
+	 */
+	public void read(Variable variable, int fromStep, int toStep, double[] values) {
+		MappedByteBuffer[] blocks = segments[variable.ordinal()];
+		if (blocks == null) {
+			throw new IllegalArgumentException("The archive has no values of " + variable + ".");
+		}
+		if (fromStep < 0 || toStep > count || fromStep > toStep) {
+			throw new IllegalArgumentException("The steps " + fromStep + "-" + toStep + " are outside the archive of " + count + " steps.");
+		}
+		int stations = ids.length;
+		int position = 0;
+		int step = fromStep;
+		while (step < toStep) {
+			int segment = step / segmentSteps;
+			int first = step - segment * segmentSteps;
+			int steps = Math.min(toStep - step, segmentSteps - first);
+			ByteBuffer block = blocks[segment].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			block.position(first * stations * valueBytes);
+			if (valueBytes == 8) {
+				block.asDoubleBuffer().get(values, position, steps * stations);
+			} else {
+				for (int i = position; i < position + steps * stations; i++) {
+					values[i] = block.getFloat();
+				}
+			}
+			position += steps * stations;
+			step += steps;
+		}
+	}
+
+	/**
+	 * Copies the values of the date in the columns of the block, as the HashMap inputs would do.
+	 * The variables that were not converted are removed from the block, so the components use their
+	 * defaults; the variables without data, the stations of the block that are not in the archive,
+	 * and all of them if the date is not in the archive, get the null value.
+	 *
+	 * @param millis the date of the step, as given by the SimulationClock
+	 * @return false if the date is not in the archive
+	 */
+	public boolean fill(StationBlock block, long millis) {
+		int step = indexOf(millis);
+		if (block != lastBlock) {
+			ordinals = new int[ids.length];
+			sameOrder = block.size() == ids.length;
+			for (int i = 0; i < ids.length; i++) {
+				ordinals[i] = block.indexOf(ids[i]);
+				sameOrder = sameOrder && ordinals[i] == i;
+			}
+			row = new double[ids.length];
+			lastBlock = block;
+		}
+		for (Variable variable : Variable.values()) {
+			if (!contains(variable)) {
+				block.setColumn(variable, null);
+				continue;
+			}
+			double[] column = block.getColumn(variable);
+			if (column == null) {
+				column = new double[block.size()];
+				block.setColumn(variable, column);
+			}
+			if (step < 0 || !has(variable)) {
+				Arrays.fill(column, nullValue);
+			} else if (sameOrder) {
+				read(variable, step, step + 1, column);
+			} else {
+				Arrays.fill(column, nullValue);
+				read(variable, step, step + 1, row);
+				for (int i = 0; i < ids.length; i++) {
+					if (ordinals[i] >= 0) {
+						column[ordinals[i]] = row[i];
+					}
+				}
+			}
+		}
+		return step >= 0;
+	}
+
+	public void close() throws IOException {
+		channel.close();
+		file.close();
+	}
+
+	/**
+	 * Converts the OMS CSV files of the variables in an archive. The time axis goes from the first
+	 * to the last date of the files with the shortest interval between two rows as step; the rows
+	 * that are not on the axis are skipped. The stations are all the ones of the files, in the order
+	 * in which they are found. The variables whose files have only missing data have no block.
+	 *
+	 * @param files the CSV file of each variable
+	 * @param idField the first cell of the row with the ids of the stations
+	 * @param fileNovalue the value of the missing data in the files
+	 * @param output the archive
+	 * @param doFloat stores the values in floats instead of doubles
+	 */
+	public static void convert(Map<Variable, File> files, String idField, double fileNovalue, File output, boolean doFloat)
+			throws IOException {
+		// first pass: the time axis, the stations and the variables with data
+		long start = Long.MAX_VALUE;
+		long end = Long.MIN_VALUE;
+		long step = Long.MAX_VALUE;
+		LinkedHashMap<Integer, Integer> stations = new LinkedHashMap<Integer, Integer>();
+		List<Variable> variables = new ArrayList<Variable>();
+		List<Variable> missing = new ArrayList<Variable>();
+		for (Map.Entry<Variable, File> entry : new EnumMap<Variable, File>(files).entrySet()) {
+			StationSeriesReader reader = new StationSeriesReader(entry.getValue(), idField);
+			try {
+				reader.fileNovalue = fileNovalue;
+				double[] values = new double[reader.getIds().length];
+				boolean hasData = false;
+				long previous = Long.MIN_VALUE;
+				while (reader.next()) {
+					long millis = reader.getMillis();
+					start = Math.min(start, millis);
+					end = Math.max(end, millis);
+					if (previous != Long.MIN_VALUE && millis > previous) {
+						step = Math.min(step, millis - previous);
+					}
+					previous = millis;
+					if (!hasData) {
+						reader.readValues(values);
+						for (double value : values) {
+							hasData = hasData || value != nullValue;
+						}
+					}
+				}
+				if (hasData) {
+					variables.add(entry.getKey());
+					for (int id : reader.getIds()) {
+						if (!stations.containsKey(id)) {
+							stations.put(id, stations.size());
+						}
+					}
+				} else {
+					missing.add(entry.getKey());
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		if (start == Long.MAX_VALUE) {
+			throw new IOException("The CSV files have no data.");
+		}
+		if (step == Long.MAX_VALUE) {
+			step = SimulationClock.MILLIS_PER_HOUR;
+		}
+		int count = (int) ((end - start) / step + 1);
+		int[] ids = new int[stations.size()];
+		for (Map.Entry<Integer, Integer> station : stations.entrySet()) {
+			ids[station.getValue()] = station.getKey();
+		}
+
+		// the header
+		int valueBytes = doFloat ? 4 : 8;
+		int headerSize = 40 + 4 * ids.length;
+		for (Variable variable : files.keySet()) {
+			headerSize += 5 + variable.name().length();
+		}
+		long offset = align(headerSize);
+		long rowBytes = (long) ids.length * valueBytes;
+		long length = offset + variables.size() * count * rowBytes;
+		try (RandomAccessFile archive = new RandomAccessFile(output, "rw"); FileChannel channel = archive.getChannel()) {
+			archive.setLength(0);
+			archive.setLength(length);
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, offset).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(valueBytes).putInt(variables.size() + missing.size())
+					.putInt(ids.length).putInt(count);
+			header.putLong(start).putLong(step);
+			for (Variable variable : variables) {
+				byte[] name = variable.name().getBytes(StandardCharsets.US_ASCII);
+				header.putInt(name.length).put(name).put((byte) 1);
+			}
+			for (Variable variable : missing) {
+				byte[] name = variable.name().getBytes(StandardCharsets.US_ASCII);
+				header.putInt(name.length).put(name).put((byte) 0);
+			}
+			for (int id : ids) {
+				header.putInt(id);
+			}
+
+			// second pass: the block of each variable, written by segments of whole steps
+			int segmentSteps = (int) Math.max(1, SEGMENT / Math.max(1, rowBytes));
+			double[] row = new double[ids.length];
+			for (Variable variable : variables) {
+				StationSeriesReader reader = new StationSeriesReader(files.get(variable), idField);
+				try {
+					reader.fileNovalue = fileNovalue;
+					int[] fileIds = reader.getIds();
+					int[] columns = new int[fileIds.length];
+					for (int i = 0; i < fileIds.length; i++) {
+						columns[i] = stations.get(fileIds[i]);
+					}
+					double[] values = new double[fileIds.length];
+					for (int first = 0; first < count; first += segmentSteps) {
+						int steps = Math.min(segmentSteps, count - first);
+						ByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, offset + first * rowBytes, steps * rowBytes)
+								.order(ByteOrder.LITTLE_ENDIAN);
+						for (int t = first; t < first + steps; t++) {
+							Arrays.fill(row, nullValue);
+							if (reader.advanceTo(start + t * step)) {
+								reader.readValues(values);
+								for (int i = 0; i < values.length; i++) {
+									row[columns[i]] = values[i];
+								}
+							}
+							for (double value : row) {
+								if (doFloat) {
+									segment.putFloat((float) value);
+								} else {
+									segment.putDouble(value);
+								}
+							}
+						}
+					}
+				} finally {
+					reader.close();
+				}
+				offset += count * rowBytes;
+			}
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package prosperoClasses;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.pow;
+import static java.lang.Math.sqrt;
+
+/**
+ * Latent heat transfer coefficient of a leaf, with the terms depending only on the
+ * pore geometry computed once. Same model of
+ * {@link LatentHeatMethods#computeLatentHeatTransferCoefficient}, notation from Schymanski & Or, 2017.
+ */
+public class LeafConductanceModel implements Parameters {
+
+	static final double THERMAL_DIFFUSIVITY_SLOPE = 1.32 * pow(10,-7);
+	static final double THERMAL_DIFFUSIVITY_INTERCEPT = 1.73 * pow(10,-5);
+	static final double DIFFUSION_COEFFICIENT_SLOPE = 1.49 * pow(10,-7);
+	static final double DIFFUSION_COEFFICIENT_INTERCEPT = 1.96 * pow(10,-5);
+
+	// (r_sp + r_vs) * k_dv, the pore resistance without the diffusion term
+	final double poreResistanceFactor;
+	// g_bw / h_c * N_Le^0.66
+	final double boundaryLayerFactor;
+
+	public LeafConductanceModel(Leaf leaf) {
+		double throatFactor = leaf.poreDepth/(leaf.poreArea*leaf.poreDensity);
+		double constantTerm = 1/(4*leaf.poreRadius) - 1/(PI * (1/sqrt(leaf.poreDensity)));
+		double vapourFactor = constantTerm/leaf.poreDensity;
+		poreResistanceFactor = throatFactor + vapourFactor;
+		boundaryLayerFactor = leaf.stomaSide/(airSpecificHeat*airDensity);
+	}
+
+	/**
+	 * @return the latent heat transfer coefficient c_E [W m-2 Pa-1]
+	 */
+	public double computeLatentHeatTransferCoefficient(double airTemperature, double atmosphericPressure, double convectiveTransferCoefficient) {
+		// alpha_a
+		double thermalDiffusivity = THERMAL_DIFFUSIVITY_SLOPE * airTemperature - THERMAL_DIFFUSIVITY_INTERCEPT;
+		// D_va
+		double binaryDiffusionCoefficient = DIFFUSION_COEFFICIENT_SLOPE * airTemperature - DIFFUSION_COEFFICIENT_INTERCEPT;
+		// k_dv
+		double ratio = binaryDiffusionCoefficient/molarVolume;
+		// N_Le
+		double lewisNumber = thermalDiffusivity/binaryDiffusionCoefficient;
+		// g_sw,mol
+		double molarStomatalConductance = ratio/poreResistanceFactor;
+		// g_sw
+		double stomatalConductance = molarStomatalConductance * (molarGasConstant * airTemperature)/atmosphericPressure;
+		// g_bw
+		double boundaryLayerConductance = boundaryLayerFactor*convectiveTransferCoefficient/pow(lewisNumber,0.66);
+		// g_tw
+		double totalConductance = 1/ ((1/stomatalConductance) + (1/boundaryLayerConductance));
+		// g_tw,mol
+		double molarTotalConductance = totalConductance*40;
+		// c_E
+		return (waterMolarMass * latentHeatEvaporation * molarTotalConductance) / atmosphericPressure;
+	}
+}
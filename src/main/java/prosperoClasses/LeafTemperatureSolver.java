@@ -0,0 +1,69 @@
+package prosperoClasses;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.pow;
+
+/**
+ * Newton solver of the energy balance of a canopy layer:
+ * the leaf temperature is iterated until the residual computed with the
+ * long wave, latent and sensible heat fluxes vanishes. The long wave balance is the
+ * full one, side * emittance * sigma * (TL^4 - Ta^4), so the derivative of the residual
+ * changes with the leaf temperature and is computed at each iterate.
+ */
+public class LeafTemperatureSolver implements Parameters {
+
+	// Convergence threshold on the leaf temperature update [K]
+	public double tolerance = 1E-3;
+	public int maxIterations = 20;
+
+	LatentHeatMethods latentHeat = new LatentHeatMethods();
+	SensibleHeatMethods sensibleHeat = new SensibleHeatMethods();
+
+	public double computeResidual(double leafTemperature, double shortWaveRadiation, double surfaceArea, double stress,
+			double airTemperature, double sensibleHeatTransferCoefficient, double latentHeatTransferCoefficient,
+			double delta, double vaporPressure, double saturationVaporPressure, int side, double longWaveEmittance) {
+		double netLongWaveRadiation = surfaceArea*side*longWaveEmittance*stefanBoltzmannConstant*(pow(leafTemperature, 4) - pow(airTemperature, 4));
+		double latentHeatFlux = surfaceArea*stress*latentHeat.computeLatentHeatFlux(delta, leafTemperature, airTemperature,
+				latentHeatTransferCoefficient, sensibleHeatTransferCoefficient, vaporPressure, saturationVaporPressure);
+		double sensibleHeatFlux = surfaceArea*sensibleHeat.computeSensibleHeatFlux(sensibleHeatTransferCoefficient, leafTemperature, airTemperature);
+		return shortWaveRadiation - netLongWaveRadiation - latentHeatFlux - sensibleHeatFlux;
+	}
+
+	/**
+	 * @return the derivative of the residual with respect to the leaf temperature
+	 */
+	public double computeDerivative(double leafTemperature, double surfaceArea, double stress,
+			double sensibleHeatTransferCoefficient, double latentHeatTransferCoefficient, double delta, int side, double longWaveEmittance) {
+		return -surfaceArea*(4 * side * longWaveEmittance * stefanBoltzmannConstant * pow(leafTemperature, 3)
+				+ stress*latentHeatTransferCoefficient*delta + sensibleHeatTransferCoefficient);
+	}
+
+	/**
+	 * Solves the energy balance starting from the given leaf temperature, e.g. the one of the
+	 * previous time step, so that few iterations are needed when the forcings change slowly.
+	 *
+	 * @param initialTemperature the first guess [K], NaN or not positive to start from the air temperature
+	 * @return the leaf temperature [K]
+	 */
+	public double solve(double initialTemperature, double shortWaveRadiation, double surfaceArea, double stress,
+			double airTemperature, double sensibleHeatTransferCoefficient, double latentHeatTransferCoefficient,
+			double delta, double vaporPressure, double saturationVaporPressure, int side, double longWaveEmittance) {
+		if (surfaceArea == 0 || Double.isNaN(surfaceArea)) {
+			// no leaves in this layer: they stay at air temperature
+			return airTemperature;
+		}
+		double leafTemperature = (initialTemperature > 0) ? initialTemperature : airTemperature;
+		for (int iteration = 0; iteration < maxIterations; iteration++) {
+			double residual = computeResidual(leafTemperature, shortWaveRadiation, surfaceArea, stress, airTemperature,
+					sensibleHeatTransferCoefficient, latentHeatTransferCoefficient, delta, vaporPressure, saturationVaporPressure, side, longWaveEmittance);
+			double derivative = computeDerivative(leafTemperature, surfaceArea, stress, sensibleHeatTransferCoefficient,
+					latentHeatTransferCoefficient, delta, side, longWaveEmittance);
+			double increment = -residual/derivative;
+			leafTemperature = leafTemperature + increment;
+			if (abs(increment) < tolerance) {
+				break;
+			}
+		}
+		return leafTemperature;
+	}
+}
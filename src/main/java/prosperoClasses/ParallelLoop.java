@@ -0,0 +1,75 @@
+package prosperoClasses;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a loop over the range [0, size) on a ForkJoin pool, splitting it in contiguous chunks.
+ * Each chunk is computed by one thread, so the body must write only into the
+ * positions of its own range.
+ */
+public class ParallelLoop {
+
+	public interface Body {
+		void compute(int from, int to);
+	}
+
+	int parallelism;
+	ForkJoinPool pool;
+
+	public ParallelLoop(int parallelism) {
+		this.parallelism = parallelism;
+		if (parallelism > 1) {
+			pool = new ForkJoinPool(parallelism);
+		}
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Computes the whole range, serially if the loop has a single thread.
+	 */
+	public void run(int size, Body body) {
+		if (pool == null || size < 2) {
+			body.compute(0, size);
+			return;
+		}
+		// a few chunks per thread to balance the load
+		int grain = Math.max(1, size / (4 * parallelism));
+		pool.invoke(new RangeTask(body, 0, size, grain));
+	}
+
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	static class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final Body body;
+		final int from;
+		final int to;
+		final int grain;
+
+		RangeTask(Body body, int from, int to, int grain) {
+			this.body = body;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				body.compute(from, to);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new RangeTask(body, from, middle, grain), new RangeTask(body, middle, to, grain));
+		}
+	}
+}
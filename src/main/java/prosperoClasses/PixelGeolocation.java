@@ -0,0 +1,117 @@
+package prosperoClasses;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.jgrasstools.gears.utils.RegionMap;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+
+/**
+ * Position of the pixels of a grid, computed from the grid geometry without creating
+ * an object per pixel. The coordinates are the ones of the center of the pixel,
+ * rows are counted from the north. The geographic coordinates are computed
+ * at the first request and then kept, indexed by row * columns + column.
+ */
+public class PixelGeolocation {
+
+	public final int columns;
+	public final int rows;
+	final double north;
+	final double west;
+	final double xres;
+	final double yres;
+	final CoordinateReferenceSystem crs;
+	final RegionMap regionMap;
+
+	// Geographic coordinates in WGS84 [deg]
+	double[] longitude;
+	double[] latitude;
+
+	public PixelGeolocation(GridCoverage2D grid) {
+		regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(grid);
+		columns = regionMap.getCols();
+		rows = regionMap.getRows();
+		north = regionMap.getNorth();
+		west = regionMap.getWest();
+		xres = regionMap.getXres();
+		yres = regionMap.getYres();
+		crs = grid.getCoordinateReferenceSystem();
+	}
+
+	/**
+	 * Checks if the given map has the same grid, so that the geolocation can be reused.
+	 */
+	public boolean isSameGrid(GridCoverage2D grid) {
+		RegionMap other = CoverageUtilities.getRegionParamsFromGridCoverage(grid);
+		return other.getCols() == columns && other.getRows() == rows
+				&& other.getNorth() == north && other.getWest() == west
+				&& other.getXres() == xres && other.getYres() == yres
+				&& CRS.equalsIgnoreMetadata(grid.getCoordinateReferenceSystem(), crs);
+	}
+
+	public RegionMap getRegionMap() {
+		return regionMap;
+	}
+
+	public int size() {
+		return columns * rows;
+	}
+
+	/**
+	 * @return the easting of the center of the column in the CRS of the grid
+	 */
+	public double getX(int column) {
+		return west + (column + 0.5) * xres;
+	}
+
+	/**
+	 * @return the northing of the center of the row in the CRS of the grid
+	 */
+	public double getY(int row) {
+		return north - (row + 0.5) * yres;
+	}
+
+	/**
+	 * @return the longitude of the pixels [deg], indexed by row * columns + column
+	 */
+	public double[] getLongitude() throws Exception {
+		computeGeographic();
+		return longitude;
+	}
+
+	/**
+	 * @return the latitude of the pixels [deg], indexed by row * columns + column
+	 */
+	public double[] getLatitude() throws Exception {
+		computeGeographic();
+		return latitude;
+	}
+
+	private synchronized void computeGeographic() throws Exception {
+		if (longitude != null) {
+			return;
+		}
+		int size = size();
+		double[] coordinates = new double[2 * size];
+		for (int row = 0; row < rows; row++) {
+			double y = getY(row);
+			for (int column = 0; column < columns; column++) {
+				int pixel = row * columns + column;
+				coordinates[2 * pixel] = getX(column);
+				coordinates[2 * pixel + 1] = y;
+			}
+		}
+		MathTransform transform = CRS.findMathTransform(crs, DefaultGeographicCRS.WGS84, true);
+		transform.transform(coordinates, 0, coordinates, 0, size);
+		double[] lon = new double[size];
+		double[] lat = new double[size];
+		for (int pixel = 0; pixel < size; pixel++) {
+			lon[pixel] = coordinates[2 * pixel];
+			lat[pixel] = coordinates[2 * pixel + 1];
+		}
+		latitude = lat;
+		longitude = lon;
+	}
+}
@@ -0,0 +1,101 @@
+package prosperoClasses;
+
+/**
+ * Priestley-Taylor evapotranspiration on arrays of pixels or stations, shared by the point
+ * and the raster components:
+ *
+ * ET = alpha * Delta * (Rn - G) / ((gamma + Delta) * lambda)
+ *
+ * with Delta the slope of the saturation vapour pressure curve, lambda = latentHeat + latentHeatSlope * T
+ * and gamma = specificHeat * P / (0.622 * lambda), or gamma = psychrometricCoefficient * P when the
+ * coefficient is given, as in FAO 56. The units are given by the configuration of the
+ * component: the net radiation and the pressure are multiplied by their factors before the computation.
+ * The configuration is set before the computation; then compute only reads it, so a single
+ * instance can be used by several threads.
+ */
+public class PriestleyTaylorKernel {
+
+	// Missing data are NaN or the null value, and are replaced by the default values
+	public double nullValue = -9999.0;
+	public double defaultTemperature = 15.0;
+	public double defaultNetRadiation = 0.0;
+	public double defaultPressure = 101.325;
+
+	public double alpha;
+	// The soil heat flux where it is not given is G = soilHeatFluxCoefficient * Rn
+	public double soilHeatFluxCoefficient;
+	public double latentHeat = 2.45E6;
+	public double latentHeatSlope = 0;
+	public double specificHeat = 1013;
+	// If positive gamma = psychrometricCoefficient * P, without the specific heat and lambda
+	public double psychrometricCoefficient = 0;
+
+	// Conversion of the inputs; the default pressure is not converted
+	public double netRadiationFactor = 1;
+	public double pressureFactor = 1;
+	// Multiplies the result, e.g. to give the evapotranspiration of the time step
+	public double scale = 1;
+
+	/**
+	 * Computes the evapotranspiration of the positions [from, to) of the arrays.
+	 *
+	 * @param temperature the air temperature [C]
+	 * @param netRadiation the net radiation
+	 * @param pressure the atmospheric pressure, if null the default one is used
+	 * @param soilHeatFlux the soil heat flux, if null or missing it is computed from the net radiation
+	 * @param etp the output, can be one of the input arrays
+	 */
+	public void compute(double[] temperature, double[] netRadiation, double[] pressure, double[] soilHeatFlux,
+			int from, int to, double[] etp) {
+		for (int i = from; i < to; i++) {
+			double airTemperature = temperature[i];
+			if (isMissing(airTemperature)) {airTemperature = defaultTemperature;}
+
+			double radiation = netRadiation[i];
+			if (isMissing(radiation)) {radiation = defaultNetRadiation;}
+			radiation = radiation * netRadiationFactor;
+
+			double atmosphericPressure = defaultPressure;
+			if (pressure != null && !isMissing(pressure[i])) {atmosphericPressure = pressure[i] * pressureFactor;}
+
+			double G = soilHeatFluxCoefficient * radiation;
+			if (soilHeatFlux != null && !isMissing(soilHeatFlux[i])) {G = soilHeatFlux[i];}
+
+			double result = 0;
+			if (radiation >= 0) {
+				double Delta = saturationSlope(airTemperature);
+				double lambda = latentHeat + latentHeatSlope * airTemperature;
+				result = evapotranspiration(Delta, psychrometricConstant(atmosphericPressure, lambda), lambda, radiation, G);
+			}
+			etp[i] = ((result < 0) ? 0 : result) * scale;
+		}
+	}
+
+	public boolean isMissing(double value) {
+		return value == nullValue || Double.isNaN(value);
+	}
+
+	/**
+	 * @return the slope of the saturation vapour pressure curve [kPa/C]
+	 */
+	public static double saturationSlope(double airTemperature) {
+		double den_Delta = (airTemperature + 237.3) * (airTemperature + 237.3);
+		double exp_Delta = (17.27 * airTemperature) / (airTemperature + 237.3);
+		double num_Delta = 4098 * (0.6108 * Math.exp(exp_Delta));
+		return num_Delta / den_Delta;
+	}
+
+	public double psychrometricConstant(double atmosphericPressure, double lambda) {
+		if (psychrometricCoefficient > 0) {
+			return psychrometricCoefficient * atmosphericPressure;
+		}
+		return specificHeat * atmosphericPressure / (0.622 * lambda);
+	}
+
+	/**
+	 * @return the evapotranspiration before the check on the sign and the scale
+	 */
+	public double evapotranspiration(double Delta, double gamma, double lambda, double netRadiation, double soilHeatFlux) {
+		return (alpha) * Delta * (netRadiation - soilHeatFlux) / ((gamma + Delta) * lambda);
+	}
+}
@@ -0,0 +1,105 @@
+package prosperoClasses;
+
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Access to the first band of a raster by rows of primitive values.
+ * When the raster is backed by a double[] or float[] with a component sample model,
+ * the rows are copied directly from and to the backing array, taking into account
+ * offsets, scanline and pixel stride and the translation of the sample model.
+ * Otherwise the rows go through getSamples/setSamples of the raster.
+ * Different threads can use different instances on disjoint rows of the same raster.
+ */
+public class RasterAccess {
+
+	final Raster raster;
+	double[] doubleData;
+	float[] floatData;
+	int base;
+	int scanlineStride;
+	int pixelStride;
+	int translateX;
+	int translateY;
+
+	public RasterAccess(Raster raster) {
+		this.raster = raster;
+		SampleModel sampleModel = raster.getSampleModel();
+		DataBuffer dataBuffer = raster.getDataBuffer();
+		if (sampleModel instanceof ComponentSampleModel) {
+			ComponentSampleModel componentModel = (ComponentSampleModel) sampleModel;
+			int bank = componentModel.getBankIndices()[0];
+			if (dataBuffer instanceof DataBufferDouble) {
+				doubleData = ((DataBufferDouble) dataBuffer).getData(bank);
+			} else if (dataBuffer instanceof DataBufferFloat) {
+				floatData = ((DataBufferFloat) dataBuffer).getData(bank);
+			}
+			base = dataBuffer.getOffsets()[bank] + componentModel.getBandOffsets()[0];
+			scanlineStride = componentModel.getScanlineStride();
+			pixelStride = componentModel.getPixelStride();
+			translateX = raster.getSampleModelTranslateX();
+			translateY = raster.getSampleModelTranslateY();
+		}
+	}
+
+	/**
+	 * @return true if the rows are copied directly from the backing array
+	 */
+	public boolean isDirect() {
+		return doubleData != null || floatData != null;
+	}
+
+	/**
+	 * @return the position of the pixel in the backing array, valid only if the access is direct
+	 */
+	public int index(int column, int row) {
+		return base + (row - translateY) * scanlineStride + (column - translateX) * pixelStride;
+	}
+
+	/**
+	 * Copies the pixels [fromColumn, toColumn) of the row in the first positions of values.
+	 */
+	public void readRow(int row, int fromColumn, int toColumn, double[] values) {
+		int length = toColumn - fromColumn;
+		int index = index(fromColumn, row);
+		if (doubleData != null && pixelStride == 1) {
+			System.arraycopy(doubleData, index, values, 0, length);
+		} else if (doubleData != null) {
+			for (int i = 0; i < length; i++, index += pixelStride) {
+				values[i] = doubleData[index];
+			}
+		} else if (floatData != null) {
+			for (int i = 0; i < length; i++, index += pixelStride) {
+				values[i] = floatData[index];
+			}
+		} else {
+			raster.getSamples(fromColumn, row, length, 1, 0, values);
+		}
+	}
+
+	/**
+	 * Copies the first values in the pixels [fromColumn, toColumn) of the row.
+	 */
+	public void writeRow(int row, int fromColumn, int toColumn, double[] values) {
+		int length = toColumn - fromColumn;
+		int index = index(fromColumn, row);
+		if (doubleData != null && pixelStride == 1) {
+			System.arraycopy(values, 0, doubleData, index, length);
+		} else if (doubleData != null) {
+			for (int i = 0; i < length; i++, index += pixelStride) {
+				doubleData[index] = values[i];
+			}
+		} else if (floatData != null) {
+			for (int i = 0; i < length; i++, index += pixelStride) {
+				floatData[index] = (float) values[i];
+			}
+		} else {
+			((WritableRaster) raster).setSamples(fromColumn, row, length, 1, 0, values);
+		}
+	}
+}
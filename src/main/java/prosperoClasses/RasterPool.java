@@ -0,0 +1,51 @@
+package prosperoClasses;
+
+import java.awt.image.WritableRaster;
+
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+
+/**
+ * Fixed number of output rasters reused in rotation across the time steps.
+ * A raster is given again after the other ones of the pool, so the coverage built on it
+ * must be consumed (e.g. written) within that number of steps. The rasters are not cleared:
+ * the caller has to write all the pixels. The rasters are stored in doubles or,
+ * if requested, in floats.
+ */
+public class RasterPool {
+
+	WritableRaster[] rasters;
+	int next;
+	final boolean doFloat;
+
+	public RasterPool(int size) {
+		this(size, false);
+	}
+
+	public RasterPool(int size, boolean doFloat) {
+		rasters = new WritableRaster[Math.max(1, size)];
+		this.doFloat = doFloat;
+	}
+
+	public int size() {
+		return rasters.length;
+	}
+
+	public boolean isFloat() {
+		return doFloat;
+	}
+
+	/**
+	 * @return the next raster of the rotation, allocated only the first time
+	 * or if the dimension of the maps changes
+	 */
+	public WritableRaster next(int columns, int rows) {
+		WritableRaster raster = rasters[next];
+		if (raster == null || raster.getWidth() != columns || raster.getHeight() != rows) {
+			raster = doFloat ? FloatRasters.createFloatWritableRaster(columns, rows, null)
+					: CoverageUtilities.createDoubleWritableRaster(columns, rows, null, null, null);
+			rasters[next] = raster;
+		}
+		next = (next + 1) % rasters.length;
+		return raster;
+	}
+}
@@ -0,0 +1,154 @@
+package prosperoClasses;
+
+import java.time.LocalDate;
+
+import org.jgrasstools.gears.libs.modules.JGTConstants;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Clock of a simulation in UTC: the start date is parsed once and the date of each step is
+ * start + offset + step * length in epoch milliseconds. The hour of the day, the day of the
+ * year and the milliseconds of the day of the step are computed when the step is set, so the
+ * components read primitives instead of building a DateTime at each step.
+ */
+public class SimulationClock {
+
+	public static final long MILLIS_PER_MINUTE = 60 * 1000L;
+	public static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+	public static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+	final String startDate;
+	final long startMillis;
+	final long offsetMillis;
+	final long stepMillis;
+
+	int step = -1;
+	long millis;
+	int millisOfDay;
+	int hourOfDay;
+	long epochDay = Long.MIN_VALUE;
+	int dayOfYear;
+	String endDate;
+	long endMillis;
+
+	/**
+	 * @param startDate the first date of the simulation, yyyy-MM-dd HH:mm in UTC
+	 * @param offsetMillis the distance of the date of the first step from the start date
+	 * @param stepMillis the length of the step
+	 */
+	public SimulationClock(String startDate, long offsetMillis, long stepMillis) {
+		this.startDate = startDate;
+		this.startMillis = JGTConstants.utcDateFormatterYYYYMMDDHHMM.parseMillis(startDate);
+		this.offsetMillis = offsetMillis;
+		this.stepMillis = stepMillis;
+	}
+
+	/**
+	 * Gives the clock of the station components: the daily steps are at noon of each day,
+	 * the hourly steps are temporalStep minutes long from the start date.
+	 * The given clock is reused if it has the same start and step.
+	 */
+	public static SimulationClock stations(SimulationClock clock, String startDate, boolean doHourly, int temporalStep) {
+		long offset = (doHourly == false) ? 12 * MILLIS_PER_HOUR : 0;
+		long length = (doHourly == false) ? MILLIS_PER_DAY : temporalStep * MILLIS_PER_MINUTE;
+		return reuse(clock, startDate, offset, length);
+	}
+
+	/**
+	 * Gives the clock of the raster Priestley-Taylor components: the daily steps are at the
+	 * start hour of each day, the hourly steps are at the half of each hour from the start date.
+	 * The given clock is reused if it has the same start and step.
+	 */
+	public static SimulationClock maps(SimulationClock clock, String startDate, boolean doHourly) {
+		long offset = (doHourly == false) ? 0 : 30 * MILLIS_PER_MINUTE;
+		long length = (doHourly == false) ? MILLIS_PER_DAY : MILLIS_PER_HOUR;
+		return reuse(clock, startDate, offset, length);
+	}
+
+	private static SimulationClock reuse(SimulationClock clock, String startDate, long offset, long length) {
+		if (clock != null && clock.startDate.equals(startDate) && clock.offsetMillis == offset && clock.stepMillis == length) {
+			return clock;
+		}
+		return new SimulationClock(startDate, offset, length);
+	}
+
+	/**
+	 * Moves the clock to the given step.
+	 */
+	public void setStep(int step) {
+		if (step == this.step) {
+			return;
+		}
+		this.step = step;
+		millis = startMillis + offsetMillis + step * stepMillis;
+		millisOfDay = (int) Math.floorMod(millis, MILLIS_PER_DAY);
+		hourOfDay = (int) (millisOfDay / MILLIS_PER_HOUR);
+		long day = Math.floorDiv(millis, MILLIS_PER_DAY);
+		// the day of the year changes only once a day
+		if (day != epochDay) {
+			epochDay = day;
+			dayOfYear = LocalDate.ofEpochDay(day).getDayOfYear();
+		}
+	}
+
+	public int getStep() {
+		return step;
+	}
+
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	public long getStepMillis() {
+		return stepMillis;
+	}
+
+	public long getMillis() {
+		return millis;
+	}
+
+	public int getMillisOfDay() {
+		return millisOfDay;
+	}
+
+	public int getHourOfDay() {
+		return hourOfDay;
+	}
+
+	public int getDayOfYear() {
+		return dayOfYear;
+	}
+
+	/**
+	 * Checks if the step is the last one of the simulation: the next step starts after the end date.
+	 *
+	 * @param endDate the last date of the simulation, yyyy-MM-dd HH:mm in UTC, can be null
+	 * @return false if the end date is null
+	 */
+	public boolean isLastStep(String endDate) {
+		if (endDate == null) {
+			return false;
+		}
+		if (!endDate.equals(this.endDate)) {
+			endMillis = JGTConstants.utcDateFormatterYYYYMMDDHHMM.parseMillis(endDate);
+			this.endDate = endDate;
+		}
+		// the date of the step without the offset, as the dates of the readers
+		return millis - offsetMillis + stepMillis > endMillis;
+	}
+
+	/**
+	 * @return true for the hours of the day, from 7 to 17
+	 */
+	public boolean isLight() {
+		return hourOfDay > 6 && hourOfDay < 18;
+	}
+
+	/**
+	 * @return the date of the step, built only on request
+	 */
+	public DateTime toDateTime() {
+		return new DateTime(millis, DateTimeZone.UTC);
+	}
+}
@@ -7,6 +7,26 @@ import static java.lang.Math.sin;
 import org.joda.time.DateTime;
 
 public class SolarGeometry {	
+	
+	// Terms depending only on the day of the year, indexed by the day (1-366)
+	static final double[] EQUATION_OF_TIME = new double[367];
+	static final double[] SIN_DECLINATION = new double[367];
+	static final double[] COS_DECLINATION = new double[367];
+	static {
+		for (int dayOfTheYear = 1; dayOfTheYear <= 366; dayOfTheYear++) {
+			double dayAngle = 2*PI*(dayOfTheYear-1)/365;
+			EQUATION_OF_TIME[dayOfTheYear] = 0.017 + 0.4281*cos(dayAngle) - 7.351*sin(dayAngle) - 3.349*cos(2*dayAngle) - 9.7331*sin(2*dayAngle);
+			double solarDeclinationAngle = -23.4*PI*cos(2*PI*(dayOfTheYear+10)/365)/180;
+			SIN_DECLINATION[dayOfTheYear] = sin(solarDeclinationAngle);
+			COS_DECLINATION[dayOfTheYear] = cos(solarDeclinationAngle);
+		}
+	}
+	
+	// Terms depending only on the station
+	double[] sinLatitude;
+	double[] cosLatitude;
+	double[] longitude;
+	
 	public double getSolarElevationAngle(DateTime date, double latitude, double longitude, boolean doHourly, double time) {
 		// from Iqbal, M. (2012). An introduction to solar radiation.
 		// Latitude is in radiant
@@ -24,5 +44,50 @@ public class SolarGeometry {
 		return solarElevationAngle;
 
 	}
+	
+	/**
+	 * Stores the latitude terms of the stations, used by {@link #computeSolarElevationAngles}.
+	 *
+	 * @param latitude the latitude of the stations [rad]
+	 * @param longitude the longitude of the stations [deg]
+	 */
+	public void setStations(double[] latitude, double[] longitude) {
+		sinLatitude = new double[latitude.length];
+		cosLatitude = new double[latitude.length];
+		for (int i = 0; i < latitude.length; i++) {
+			sinLatitude[i] = sin(latitude[i]);
+			cosLatitude[i] = cos(latitude[i]);
+		}
+		this.longitude = longitude.clone();
+	}
+	
+	/**
+	 * Computes the solar elevation angle of all the stations given to {@link #setStations}
+	 * with one cosine per station. The result is the same of {@link #getSolarElevationAngle}.
+	 *
+	 * @param solarElevationAngle the array filled with the angle of each station
+	 */
+	public void computeSolarElevationAngles(DateTime date, boolean doHourly, double[] solarElevationAngle) {
+		computeSolarElevationAngles(date.getDayOfYear(), date.getMillisOfDay(), doHourly, solarElevationAngle);
+	}
+
+	/**
+	 * Computes the solar elevation angles at the step of the clock, without building its date.
+	 */
+	public void computeSolarElevationAngles(SimulationClock clock, boolean doHourly, double[] solarElevationAngle) {
+		computeSolarElevationAngles(clock.getDayOfYear(), clock.getMillisOfDay(), doHourly, solarElevationAngle);
+	}
+
+	private void computeSolarElevationAngles(int dayOfTheYear, int millisOfDay, boolean doHourly, double[] solarElevationAngle) {
+		double equationOfTime = EQUATION_OF_TIME[dayOfTheYear];
+		double sinDeclination = SIN_DECLINATION[dayOfTheYear];
+		double cosDeclination = COS_DECLINATION[dayOfTheYear];
+		double hour=(doHourly==true)? (double)millisOfDay / (1000 * (3600)):12.5;
+		for (int i = 0; i < longitude.length; i++) {
+			double solarNoon = 12 + (4*(15-longitude[i])-equationOfTime)/60;
+			double hourAngleOfSun = PI*(hour - solarNoon)/12;
+			solarElevationAngle[i] = sinLatitude[i]*sinDeclination+cosLatitude[i]*cosDeclination*cos(hourAngleOfSun);
+		}
+	}
 
 }
@@ -0,0 +1,117 @@
+package prosperoClasses;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Forcings of a set of stations stored as dense columns, one double[] per variable,
+ * indexed by a fixed station ordinal. The id-to-ordinal mapping is built once.
+ */
+public class StationBlock {
+
+	public enum Variable {
+		AIR_TEMPERATURE,
+		WIND_VELOCITY,
+		RELATIVE_HUMIDITY,
+		SHORTWAVE_DIRECT,
+		SHORTWAVE_DIFFUSE,
+		LONGWAVE,
+		NET_LONGWAVE,
+		NET_RADIATION,
+		ATMOSPHERIC_PRESSURE,
+		SOIL_FLUX,
+		LEAF_AREA_INDEX,
+		SOIL_MOISTURE
+	}
+
+	public int[] id;
+	HashMap<Integer, Integer> ordinals;
+	double[][] columns = new double[Variable.values().length][];
+
+	public StationBlock(int[] id) {
+		this.id = id;
+		ordinals = new HashMap<Integer, Integer>(2 * id.length);
+		for (int i = 0; i < id.length; i++) {
+			ordinals.put(id[i], i);
+		}
+	}
+
+	/**
+	 * Builds a block whose ordinals follow the iteration order of the given keys.
+	 */
+	public static StationBlock fromKeys(Set<Integer> keys) {
+		int[] id = new int[keys.size()];
+		int i = 0;
+		for (Integer key : keys) {
+			id[i++] = key;
+		}
+		return new StationBlock(id);
+	}
+
+	public int size() {
+		return id.length;
+	}
+
+	/**
+	 * @return the ordinal of the station, -1 if the station is not in the block
+	 */
+	public int indexOf(int stationId) {
+		Integer ordinal = ordinals.get(stationId);
+		return (ordinal == null) ? -1 : ordinal;
+	}
+
+	/**
+	 * Checks if the block holds exactly the stations of the given map.
+	 */
+	public boolean hasStations(Map<Integer, ?> values) {
+		if (values.size() != id.length) {
+			return false;
+		}
+		for (int i = 0; i < id.length; i++) {
+			if (!values.containsKey(id[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the column of the variable, null if the variable is not available
+	 */
+	public double[] getColumn(Variable variable) {
+		return columns[variable.ordinal()];
+	}
+
+	public void setColumn(Variable variable, double[] values) {
+		if (values != null && values.length != id.length) {
+			throw new IllegalArgumentException("The column of " + variable + " has " + values.length
+					+ " values, but the block has " + id.length + " stations.");
+		}
+		columns[variable.ordinal()] = values;
+	}
+
+	/**
+	 * Adapter from the OMS HashMap inputs: copies the first value of each station into the
+	 * column of the variable, reusing the column of the previous step.
+	 * Stations missing from the map get the null value, a null map removes the column.
+	 *
+	 * @return the filled column
+	 */
+	public double[] fill(Variable variable, HashMap<Integer, double[]> values, double nullValue) {
+		if (values == null) {
+			columns[variable.ordinal()] = null;
+			return null;
+		}
+		double[] column = columns[variable.ordinal()];
+		if (column == null) {
+			column = new double[id.length];
+			columns[variable.ordinal()] = column;
+		}
+		for (int i = 0; i < id.length; i++) {
+			double[] value = values.get(id[i]);
+			column[i] = (value == null) ? nullValue : value[0];
+		}
+		return column;
+	}
+}
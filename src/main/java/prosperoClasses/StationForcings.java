@@ -0,0 +1,97 @@
+package prosperoClasses;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jgrasstools.gears.libs.modules.JGTConstants;
+
+import prosperoClasses.StationBlock.Variable;
+
+/**
+ * The forcings of a step of the station components, from the first source given: the station block
+ * input, the forcing archive, the csv files, the HashMap inputs. The archive and the files are opened
+ * at the first step and kept open until {@link #close()}, the block filled from them is reused.
+ */
+public class StationForcings {
+
+	ForcingArchive archive;
+	StationSeriesFiles seriesFiles;
+	// the block filled from the archive, the files or the HashMaps
+	StationBlock forcings;
+
+	/**
+	 * Opens the csv files read by the following steps, if they are not open yet.
+	 *
+	 * @param files the csv file of each variable, none if the forcings are not read from files
+	 */
+	public void openSeriesFiles(Map<Variable, File> files, String idField, double fileNovalue) throws IOException {
+		if (seriesFiles == null && !files.isEmpty()) {
+			seriesFiles = StationSeriesFiles.open(files, idField, fileNovalue);
+			forcings = seriesFiles.createBlock();
+		}
+	}
+
+	/**
+	 * Selects the forcings of the step.
+	 *
+	 * @param inStationBlock the block given as input, used as it is
+	 * @param inForcingArchive the path of the forcing archive, null if not given
+	 * @param millis the date of the step, as given by the SimulationClock
+	 * @param inputs the HashMap input of each variable of the component, the stations are the ones of the air temperature
+	 * @param nullValue the value of the missing data
+	 * @return the block of the step
+	 * @throws IllegalArgumentException if the archive or the files have not the date of the step
+	 */
+	public StationBlock select(StationBlock inStationBlock, String inForcingArchive, long millis,
+			Map<Variable, HashMap<Integer, double[]>> inputs, double nullValue) throws IOException {
+		if (inStationBlock != null) {
+			return inStationBlock;
+		}
+		if (inForcingArchive != null) {
+			if (archive == null) {
+				archive = ForcingArchive.open(new File(inForcingArchive));
+				forcings = archive.createBlock();
+			}
+			if (!archive.fill(forcings, millis)) {
+				throw new IllegalArgumentException("The date " + JGTConstants.utcDateFormatterYYYYMMDDHHMM.print(millis)
+						+ " is not in the forcing archive " + inForcingArchive + ".");
+			}
+			return forcings;
+		}
+		if (seriesFiles != null) {
+			if (!seriesFiles.fill(forcings, millis)) {
+				throw new IllegalArgumentException("The date " + JGTConstants.utcDateFormatterYYYYMMDDHHMM.print(millis)
+						+ " is not in the csv files of the forcings.");
+			}
+			return forcings;
+		}
+		HashMap<Integer, double[]> airTemperature = inputs.get(Variable.AIR_TEMPERATURE);
+		if (forcings == null || !forcings.hasStations(airTemperature)) {
+			forcings = StationBlock.fromKeys(airTemperature.keySet());
+		}
+		for (Map.Entry<Variable, HashMap<Integer, double[]>> input : inputs.entrySet()) {
+			forcings.fill(input.getKey(), input.getValue(), nullValue);
+		}
+		return forcings;
+	}
+
+	/**
+	 * Closes the archive and the files; the next step opens them again.
+	 */
+	public void close() throws IOException {
+		try {
+			if (archive != null) {
+				archive.close();
+			}
+		} finally {
+			archive = null;
+			if (seriesFiles != null) {
+				seriesFiles.close();
+			}
+			seriesFiles = null;
+			forcings = null;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package prosperoClasses;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.jgrasstools.gears.libs.monitor.IJGTProgressMonitor;
+import org.jgrasstools.gears.utils.CrsUtilities;
+import org.jgrasstools.gears.utils.geometry.GeometryUtilities;
+import org.jgrasstools.hortonmachine.i18n.HortonMessageHandler;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Geometry of the centroids, read and reprojected once and kept in primitive arrays.
+ * The stations are stored in the order of the feature collection.
+ */
+public class StationGeometry {
+
+	public int[] id;
+	// Coordinates in the CRS of the DEM [m]
+	public double[] x;
+	public double[] y;
+	public double[] elevation;
+	// Coordinates in the target CRS [rad]
+	public double[] longitude;
+	public double[] latitude;
+
+	SimpleFeatureCollection centroids;
+	GridCoverage2D dem;
+	HashMap<Integer, Integer> ordinals;
+
+	private HortonMessageHandler msg = HortonMessageHandler.getInstance();
+
+	public StationGeometry(SimpleFeatureCollection inCentroids, String idCentroids, String centroidElevation,
+			GridCoverage2D inDem, CoordinateReferenceSystem targetCRS, IJGTProgressMonitor pm) throws Exception {
+		this.centroids = inCentroids;
+		this.dem = inDem;
+
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		ArrayList<Coordinate> coordinates = new ArrayList<Coordinate>();
+		FeatureIterator<SimpleFeature> iterator = inCentroids.features();
+		try {
+			while (iterator.hasNext()) {
+				SimpleFeature feature = iterator.next();
+				Number name = (Number) feature.getAttribute(idCentroids);
+				Geometry geometry = (Geometry) feature.getDefaultGeometry();
+				Coordinate coordinate = geometry.getCentroid().getCoordinate();
+				double z = 0;
+				if (centroidElevation != null) {
+					Number value = (Number) feature.getAttribute(centroidElevation);
+					if (value == null) {
+						pm.errorMessage(msg.message("kriging.noPointZ"));
+						throw new Exception(msg.message("kriging.noPointZ"));
+					}
+					z = value.doubleValue();
+				}
+				coordinate.z = z;
+				ids.add(name.intValue());
+				coordinates.add(coordinate);
+			}
+		} finally {
+			iterator.close();
+		}
+
+		int size = ids.size();
+		id = new int[size];
+		x = new double[size];
+		y = new double[size];
+		elevation = new double[size];
+		longitude = new double[size];
+		latitude = new double[size];
+
+		ordinals = new HashMap<Integer, Integer>(2 * size);
+		CoordinateReferenceSystem sourceCRS = inDem.getCoordinateReferenceSystem2D();
+		for (int i = 0; i < size; i++) {
+			Coordinate coordinate = coordinates.get(i);
+			Point[] point = new Point[] { GeometryUtilities.gf().createPoint(coordinate) };
+			CrsUtilities.reproject(sourceCRS, targetCRS, point);
+			id[i] = ids.get(i);
+			ordinals.put(id[i], i);
+			x[i] = coordinate.x;
+			y[i] = coordinate.y;
+			elevation[i] = coordinate.z;
+			longitude[i] = Math.toRadians(point[0].getX());
+			latitude[i] = Math.toRadians(point[0].getY());
+		}
+	}
+
+	/**
+	 * Checks if the geometry was computed from the given centroids and DEM,
+	 * so that it has to be rebuilt only when one of them is replaced.
+	 */
+	public boolean isBuiltFrom(SimpleFeatureCollection inCentroids, GridCoverage2D inDem) {
+		return centroids == inCentroids && dem == inDem;
+	}
+
+	/**
+	 * Pairs the stations with the centroids by id, whatever the order of the stations.
+	 *
+	 * @param stations the ids of the stations
+	 * @return the ordinal of the centroid of each station
+	 * @throws IllegalArgumentException if a station has no centroid
+	 */
+	public int[] indexOf(int[] stations) {
+		int[] centroid = new int[stations.length];
+		for (int i = 0; i < stations.length; i++) {
+			Integer ordinal = ordinals.get(stations[i]);
+			if (ordinal == null) {
+				throw new IllegalArgumentException("The station " + stations[i] + " has no centroid.");
+			}
+			centroid[i] = ordinal;
+		}
+		return centroid;
+	}
+
+	public int size() {
+		return id.length;
+	}
+}
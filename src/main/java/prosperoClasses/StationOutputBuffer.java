@@ -0,0 +1,104 @@
+package prosperoClasses;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Outputs of a set of stations stored as dense columns, one double[] per variable,
+ * indexed by the station ordinal. The columns are allocated once and reset in place
+ * at each step. The HashMap views used by the OMS writers are built only on request:
+ * a new map is given at each step, unless the reuse of the maps is enabled.
+ */
+public class StationOutputBuffer {
+
+	public enum Output {
+		LATENT_HEAT_SUN,
+		LATENT_HEAT_SHADE,
+		TRANSPIRATION,
+		SENSIBLE_HEAT_SUN,
+		SENSIBLE_HEAT_SHADE,
+		LEAF_TEMPERATURE_SUN,
+		LEAF_TEMPERATURE_SHADE,
+		RADIATION_SUN,
+		RADIATION_SHADE,
+		RADIATION_SOIL,
+		CANOPY_SUN,
+		EVAPORATION
+	}
+
+	// Keeps the HashMaps and updates them in place at the following steps, only for
+	// the consumers that do not hold the maps of a step after the next one is computed
+	public boolean reuseHashMaps = false;
+
+	public int[] id = new int[0];
+	double[][] columns = new double[Output.values().length][0];
+	List<HashMap<Integer, double[]>> maps = new ArrayList<HashMap<Integer, double[]>>();
+	// arrays of the maps, indexed by the station ordinal
+	double[][][] mapValues = new double[Output.values().length][][];
+	// ids of the stations in each map, to know when it has to be rebuilt
+	int[][] mapIds = new int[Output.values().length][];
+
+	public StationOutputBuffer() {
+		for (int i = 0; i < Output.values().length; i++) {
+			maps.add(null);
+		}
+	}
+
+	/**
+	 * Prepares the buffer for the stations of a step: the columns are reallocated only
+	 * if the number of stations changes, otherwise they are filled with NaN.
+	 */
+	public void reset(int[] id) {
+		this.id = id;
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i].length != id.length) {
+				columns[i] = new double[id.length];
+			}
+			Arrays.fill(columns[i], Double.NaN);
+		}
+	}
+
+	public int size() {
+		return id.length;
+	}
+
+	public double[] getColumn(Output output) {
+		return columns[output.ordinal()];
+	}
+
+	/**
+	 * Gives the output in the format of the OMS HashMap outputs. If reuseHashMaps is set
+	 * the map and its arrays are reused at the following steps, so the values must be
+	 * consumed before the next step is computed; otherwise a new map is built.
+	 */
+	public HashMap<Integer, double[]> toHashMap(Output output) {
+		int index = output.ordinal();
+		if (reuseHashMaps == false) {
+			double[] column = columns[index];
+			HashMap<Integer, double[]> map = new HashMap<Integer, double[]>(2 * id.length);
+			for (int i = 0; i < id.length; i++) {
+				map.put(id[i], new double[] {column[i]});
+			}
+			return map;
+		}
+		HashMap<Integer, double[]> map = maps.get(index);
+		if (map == null || !Arrays.equals(mapIds[index], id)) {
+			map = new HashMap<Integer, double[]>(2 * id.length);
+			mapValues[index] = new double[id.length][];
+			for (int i = 0; i < id.length; i++) {
+				mapValues[index][i] = new double[1];
+				map.put(id[i], mapValues[index][i]);
+			}
+			maps.set(index, map);
+			mapIds[index] = id.clone();
+		}
+		double[] column = columns[index];
+		double[][] values = mapValues[index];
+		for (int i = 0; i < id.length; i++) {
+			values[i][0] = column[i];
+		}
+		return map;
+	}
+}
@@ -0,0 +1,94 @@
+package prosperoClasses;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import prosperoClasses.StationBlock.Variable;
+
+/**
+ * The OMS CSV files of the forcings of the stations, one for each variable, read step by step
+ * with a {@link StationSeriesReader} each, without the OMS readers and the HashMaps.
+ * The files are read forward, so the dates of the steps have to increase.
+ */
+public class StationSeriesFiles {
+
+	final EnumMap<Variable, StationSeriesReader> readers = new EnumMap<Variable, StationSeriesReader>(Variable.class);
+
+	private StationSeriesFiles() {
+	}
+
+	/**
+	 * Opens the files of the variables.
+	 *
+	 * @param files the CSV file of each variable
+	 * @param idField the first cell of the row with the ids of the stations
+	 * @param fileNovalue the value of the missing data in the files
+	 */
+	public static StationSeriesFiles open(Map<Variable, File> files, String idField, double fileNovalue)
+			throws IOException {
+		StationSeriesFiles series = new StationSeriesFiles();
+		try {
+			for (Map.Entry<Variable, File> entry : new EnumMap<Variable, File>(files).entrySet()) {
+				StationSeriesReader reader = new StationSeriesReader(entry.getValue(), idField);
+				reader.fileNovalue = fileNovalue;
+				series.readers.put(entry.getKey(), reader);
+			}
+		} catch (IOException | RuntimeException e) {
+			series.close();
+			throw e;
+		}
+		return series;
+	}
+
+	/**
+	 * @return a block with all the stations of the files, in the order in which they are found
+	 */
+	public StationBlock createBlock() {
+		LinkedHashSet<Integer> ids = new LinkedHashSet<Integer>();
+		for (StationSeriesReader reader : readers.values()) {
+			for (int id : reader.getIds()) {
+				ids.add(id);
+			}
+		}
+		return StationBlock.fromKeys(ids);
+	}
+
+	/**
+	 * Copies the values of the date in the columns of the block, as the HashMap inputs would do.
+	 * The variables without a file are removed from the block, so the components use their defaults;
+	 * the stations that are not in a file, and all of them if the file has not the date, get the null value.
+	 *
+	 * @param millis the date of the step, as given by the SimulationClock
+	 * @return false if no file has the date
+	 */
+	public boolean fill(StationBlock block, long millis) throws IOException {
+		boolean found = false;
+		for (Variable variable : Variable.values()) {
+			StationSeriesReader reader = readers.get(variable);
+			if (reader == null) {
+				block.setColumn(variable, null);
+				continue;
+			}
+			reader.fill(block, variable, millis);
+			found = found || (reader.hasRow && reader.getMillis() == millis);
+		}
+		return found;
+	}
+
+	public void close() throws IOException {
+		IOException error = null;
+		for (StationSeriesReader reader : readers.values()) {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				error = (error == null) ? e : error;
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+}
@@ -0,0 +1,422 @@
+package prosperoClasses;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import prosperoClasses.StationBlock.Variable;
+
+/**
+ * Reader of the OMS time series CSV files (the @T and @H lines, the rows of the ids, of the types
+ * and of the format, then one row for each date) that copies the values of a date directly in
+ * the column of a station block. The file is memory mapped in windows of at most 256 MB and
+ * the numbers are parsed from the bytes of the mapping, without building a String for each line.
+ * The dates in the fixed yyyy-MM-dd HH:mm format are read digit by digit, the others
+ * with the pattern of the Format row. All the dates are in UTC.
+ */
+public class StationSeriesReader {
+
+	static final String FAST_PATTERN = "yyyy-MM-dd HH:mm";
+	static final int WINDOW = 1 << 28;
+	static final int[] DAYS_OF_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+	public double nullValue = -9999.0;
+	// the value of the missing data in the file
+	public double fileNovalue = -9999.0;
+
+	final File file;
+	final RandomAccessFile input;
+	final FileChannel channel;
+	final long fileSize;
+	// the largest mapping, longer than any line
+	final int window;
+	MappedByteBuffer buffer;
+	long bufferStart;
+	int limit;
+	// absolute position of the next line
+	long position;
+	// the current line, relative to the buffer
+	int lineStart;
+	int lineEnd;
+
+	int[] ids;
+	// null for the fixed format
+	DateTimeFormatter dateFormatter;
+
+	// the current row
+	boolean hasRow;
+	long rowMillis;
+	int valuesStart;
+
+	StationBlock lastBlock;
+	int[] ordinals;
+
+	/**
+	 * Opens the file and reads its header.
+	 *
+	 * @param file the CSV file
+	 * @param idField the first cell of the row with the ids of the stations, as the idfield of the OMS reader
+	 */
+	public StationSeriesReader(File file, String idField) throws IOException {
+		this(file, idField, WINDOW);
+	}
+
+	/**
+	 * Opens the file mapping it in windows of the given bytes.
+	 *
+	 * @param window the size of the windows, longer than any line of the file
+	 */
+	public StationSeriesReader(File file, String idField, int window) throws IOException {
+		this.file = file;
+		this.window = window;
+		input = new RandomAccessFile(file, "r");
+		channel = input.getChannel();
+		fileSize = channel.size();
+		try {
+			map(0);
+			readHeader(idField);
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	private void map(long start) throws IOException {
+		bufferStart = start;
+		limit = (int) Math.min(window, fileSize - start);
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, limit);
+	}
+
+	/**
+	 * Moves to the next line that is not empty, mapping the next window of the file when the
+	 * line is not all in the current one.
+	 *
+	 * @return false at the end of the file
+	 */
+	private boolean nextLine() throws IOException {
+		while (position < fileSize) {
+			int start = (int) (position - bufferStart);
+			int end = indexOfNewLine(start);
+			if (end < 0 && bufferStart + limit < fileSize) {
+				map(position);
+				start = 0;
+				end = indexOfNewLine(start);
+				if (end < 0 && bufferStart + limit < fileSize) {
+					throw new IOException("A line of " + file + " is longer than " + window + " bytes.");
+				}
+			}
+			if (end < 0) {
+				end = limit;
+			}
+			position = bufferStart + end + 1;
+			lineStart = start;
+			lineEnd = (end > start && buffer.get(end - 1) == '\r') ? end - 1 : end;
+			if (lineEnd > lineStart) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int indexOfNewLine(int from) {
+		for (int i = from; i < limit; i++) {
+			if (buffer.get(i) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads the lines before the first row of data, the one starting with an empty cell.
+	 */
+	private void readHeader(String idField) throws IOException {
+		String pattern = FAST_PATTERN;
+		while (nextLine()) {
+			if (buffer.get(lineStart) == ',') {
+				// the first row of data, read by next()
+				position = bufferStart + lineStart;
+				break;
+			}
+			String[] cells = lineString().split(",", -1);
+			String first = cells[0].trim();
+			if (first.equalsIgnoreCase(idField)) {
+				List<Integer> values = new ArrayList<Integer>();
+				for (int i = 2; i < cells.length; i++) {
+					String cell = cells[i].trim();
+					if (cell.length() > 0) {
+						values.add(Integer.parseInt(cell));
+					}
+				}
+				ids = new int[values.size()];
+				for (int i = 0; i < ids.length; i++) {
+					ids[i] = values.get(i);
+				}
+			} else if (first.equalsIgnoreCase("Format") && cells.length > 1 && cells[1].trim().length() > 0) {
+				pattern = cells[1].trim();
+			}
+		}
+		if (ids == null) {
+			throw new IOException("The file " + file + " has no row of ids starting with " + idField + ".");
+		}
+		dateFormatter = pattern.equals(FAST_PATTERN) ? null : DateTimeFormat.forPattern(pattern).withZone(DateTimeZone.UTC);
+	}
+
+	private String lineString() {
+		byte[] bytes = new byte[lineEnd - lineStart];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(lineStart + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the ids of the stations, in the order of the columns of the file
+	 */
+	public int[] getIds() {
+		return ids;
+	}
+
+	/**
+	 * Moves to the next row and reads its date; the values are read only when they are requested.
+	 *
+	 * @return false at the end of the file
+	 */
+	public boolean next() throws IOException {
+		hasRow = false;
+		if (!nextLine()) {
+			return false;
+		}
+		// the first cell is empty, the second is the date
+		int start = lineStart + 1;
+		int end = start;
+		while (end < lineEnd && buffer.get(end) != ',') {
+			end++;
+		}
+		rowMillis = parseDate(start, end);
+		valuesStart = end + 1;
+		hasRow = true;
+		return true;
+	}
+
+	/**
+	 * @return the date of the current row [ms]
+	 */
+	public long getMillis() {
+		return rowMillis;
+	}
+
+	/**
+	 * Moves to the row of the given date, skipping the rows before it without reading their values.
+	 * A row after the date is kept for the following calls.
+	 *
+	 * @return true if the file has a row with the given date
+	 */
+	public boolean advanceTo(long millis) throws IOException {
+		if (!hasRow && !next()) {
+			return false;
+		}
+		while (rowMillis < millis) {
+			if (!next()) {
+				return false;
+			}
+		}
+		return rowMillis == millis;
+	}
+
+	/**
+	 * Reads the values of the current row, in the order of the ids.
+	 *
+	 * @param values the array filled with the values, the null value for the missing ones
+	 */
+	public void readValues(double[] values) {
+		Arrays.fill(values, 0, ids.length, nullValue);
+		int start = valuesStart;
+		for (int i = 0; i < ids.length && start <= lineEnd; i++) {
+			int end = start;
+			while (end < lineEnd && buffer.get(end) != ',') {
+				end++;
+			}
+			values[i] = parseValue(start, end);
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * Copies the values of the given date in the column of the variable of the block; the stations
+	 * of the block that are not in the file, and all of them if the file has not the date, get the null value.
+	 *
+	 * @param millis the date of the step, as given by the SimulationClock
+	 * @return the filled column
+	 */
+	public double[] fill(StationBlock block, Variable variable, long millis) throws IOException {
+		double[] column = block.getColumn(variable);
+		if (column == null) {
+			column = new double[block.size()];
+			block.setColumn(variable, column);
+		}
+		Arrays.fill(column, nullValue);
+		if (!advanceTo(millis)) {
+			return column;
+		}
+		if (block != lastBlock) {
+			ordinals = new int[ids.length];
+			for (int i = 0; i < ids.length; i++) {
+				ordinals[i] = block.indexOf(ids[i]);
+			}
+			lastBlock = block;
+		}
+		int start = valuesStart;
+		for (int i = 0; i < ids.length && start <= lineEnd; i++) {
+			int end = start;
+			while (end < lineEnd && buffer.get(end) != ',') {
+				end++;
+			}
+			if (ordinals[i] >= 0) {
+				column[ordinals[i]] = parseValue(start, end);
+			}
+			start = end + 1;
+		}
+		return column;
+	}
+
+	/**
+	 * Parses the date of the bytes [start, end), digit by digit for the fixed format.
+	 */
+	long parseDate(int start, int end) {
+		while (start < end && buffer.get(start) == ' ') {start++;}
+		while (end > start && buffer.get(end - 1) == ' ') {end--;}
+		if (dateFormatter == null && end - start == 16 && buffer.get(start + 4) == '-' && buffer.get(start + 7) == '-'
+				&& buffer.get(start + 10) == ' ' && buffer.get(start + 13) == ':') {
+			int year = digits(start, 4);
+			int month = digits(start + 5, 2);
+			int day = digits(start + 8, 2);
+			int hour = digits(start + 11, 2);
+			int minute = digits(start + 14, 2);
+			// the dates that do not exist, as 2012-02-31, go to the formatter that rejects them
+			if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= lengthOfMonth(year, month) && hour >= 0
+					&& hour < 24 && minute >= 0 && minute < 60) {
+				return (epochDay(year, month, day) * 1440 + hour * 60 + minute) * SimulationClock.MILLIS_PER_MINUTE;
+			}
+		}
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(start + i);
+		}
+		String date = new String(bytes, StandardCharsets.US_ASCII);
+		DateTimeFormatter formatter = (dateFormatter != null) ? dateFormatter
+				: DateTimeFormat.forPattern(FAST_PATTERN).withZone(DateTimeZone.UTC);
+		return formatter.parseMillis(date);
+	}
+
+	/**
+	 * @return the number written with the given digits, -1 if they are not all digits
+	 */
+	private int digits(int start, int count) {
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the days of the month of the proleptic Gregorian calendar
+	 */
+	static int lengthOfMonth(int year, int month) {
+		boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+		return (month == 2 && leap) ? 29 : DAYS_OF_MONTH[month - 1];
+	}
+
+	/**
+	 * @return the days from 1970-01-01 of the date of the proleptic Gregorian calendar
+	 */
+	static long epochDay(int year, int month, int day) {
+		// the year starts in March, so the leap day is the last one
+		long y = (month <= 2) ? year - 1 : year;
+		long era = Math.floorDiv(y, 400);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * Parses the number of the bytes [start, end). The decimal numbers with at most 18 digits
+	 * and 22 decimals are computed exactly from the digits; the others go through Double.parseDouble.
+	 *
+	 * @return the value, the null value if the cell is empty or has the novalue of the file
+	 */
+	double parseValue(int start, int end) {
+		while (start < end && buffer.get(start) == ' ') {start++;}
+		while (end > start && buffer.get(end - 1) == ' ') {end--;}
+		if (start == end) {
+			return nullValue;
+		}
+		int i = start;
+		boolean negative = false;
+		byte sign = buffer.get(i);
+		if (sign == '-' || sign == '+') {
+			negative = sign == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digitCount = 0;
+		int decimals = 0;
+		boolean point = false;
+		boolean exact = i < end;
+		for (; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b >= '0' && b <= '9') {
+				mantissa = mantissa * 10 + (b - '0');
+				digitCount++;
+				if (point) {decimals++;}
+			} else if (b == '.' && !point) {
+				point = true;
+			} else {
+				exact = false;
+				break;
+			}
+		}
+		double value;
+		if (exact && digitCount > 0 && digitCount <= 18 && decimals <= 22 && mantissa < (1L << 53)) {
+			// both the mantissa and the power of ten are exact, so the division is correctly rounded
+			value = mantissa / POWERS_OF_TEN[decimals];
+			value = negative ? -value : value;
+		} else {
+			byte[] bytes = new byte[end - start];
+			for (int j = 0; j < bytes.length; j++) {
+				bytes[j] = buffer.get(start + j);
+			}
+			value = Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+		}
+		return (value == fileNovalue) ? nullValue : value;
+	}
+
+	static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	public void close() throws IOException {
+		channel.close();
+		input.close();
+	}
+}
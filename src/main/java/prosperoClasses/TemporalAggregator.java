@@ -0,0 +1,232 @@
+package prosperoClasses;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+import org.jgrasstools.gears.libs.modules.JGTConstants;
+
+/**
+ * Streaming aggregation of the outputs of a set of stations on daily, monthly or custom windows.
+ * The running total, minimum, maximum and number of valid values of each station are kept
+ * in columns indexed by the station ordinal; the missing values (the null value or NaN) are
+ * skipped. The window is closed at the step whose following step falls in the next window,
+ * so the totals are given without waiting for the next step and the hourly series never
+ * has to be stored. The window still open at the end of the run is closed by flush.
+ * The dates are epoch milliseconds in UTC, as given by the SimulationClock.
+ */
+public class TemporalAggregator {
+
+	public enum Window {
+		DAILY,
+		MONTHLY,
+		CUSTOM
+	}
+
+	// positions of the statistics in the values of the stations
+	public static final int TOTAL = 0;
+	public static final int MINIMUM = 1;
+	public static final int MAXIMUM = 2;
+	public static final int COUNT = 3;
+
+	public double nullValue = -9999.0;
+	// Keeps the HashMap of the statistics and updates it in place at the following windows, only
+	// for the consumers that do not hold the map of a window after the next one is closed
+	public boolean reuseHashMaps = false;
+
+	final Window window;
+	// length of the custom windows, counted from the origin
+	final int windowMinutes;
+	final long origin;
+	final long stepMillis;
+
+	int[] id = new int[0];
+	double[] total = new double[0];
+	double[] minimum = new double[0];
+	double[] maximum = new double[0];
+	int[] count = new int[0];
+	long currentWindow = Long.MIN_VALUE;
+	long windowStart;
+
+	HashMap<Integer, double[]> map;
+	double[][] mapValues;
+	int[] mapIds;
+
+	/**
+	 * @param window the kind of window
+	 * @param windowMinutes the length of the custom windows, not used by the others
+	 * @param origin the start of the first custom window, usually the first date of the simulation
+	 * @param stepMinutes the length of the time step of the values
+	 */
+	public TemporalAggregator(Window window, int windowMinutes, long origin, int stepMinutes) {
+		if (window == Window.CUSTOM && windowMinutes <= 0) {
+			throw new IllegalArgumentException("The custom window must be longer than 0 minutes.");
+		}
+		this.window = window;
+		this.windowMinutes = windowMinutes;
+		this.origin = origin;
+		this.stepMillis = stepMinutes * SimulationClock.MILLIS_PER_MINUTE;
+	}
+
+	/**
+	 * Creates the aggregator from the input of a component: "daily", "monthly" or the length
+	 * of a custom window in minutes.
+	 *
+	 * @return the aggregator, null if the window is null or "none"
+	 */
+	public static TemporalAggregator create(String window, long origin, int stepMinutes) {
+		if (window == null) {
+			return null;
+		}
+		String name = window.trim().toLowerCase(Locale.ROOT);
+		if (name.equals("none")) {
+			return null;
+		} else if (name.equals("daily")) {
+			return new TemporalAggregator(Window.DAILY, 0, origin, stepMinutes);
+		} else if (name.equals("monthly")) {
+			return new TemporalAggregator(Window.MONTHLY, 0, origin, stepMinutes);
+		}
+		try {
+			return new TemporalAggregator(Window.CUSTOM, Integer.parseInt(name), origin, stepMinutes);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("The aggregation window " + window
+					+ " is not daily, monthly or a number of minutes.");
+		}
+	}
+
+	/**
+	 * Adds the values of a step. The stations can change only at the first step of a window.
+	 *
+	 * @param date the date of the step
+	 * @param id the ids of the stations
+	 * @param values the values indexed by the station ordinal
+	 * @return true if the step closes the window, then the statistics can be read until the next step
+	 * @throws IllegalArgumentException if the stations are not the ones of the previous steps of the window
+	 */
+	public boolean add(long date, int[] id, double[] values) {
+		long key = windowOf(date);
+		if (key != currentWindow) {
+			start(date, key, id);
+		} else if (!Arrays.equals(this.id, id)) {
+			throw new IllegalArgumentException("The stations changed inside the window of the aggregation "
+					+ "starting at " + JGTConstants.utcDateFormatterYYYYMMDDHHMM.print(windowStart) + ".");
+		}
+		for (int i = 0; i < id.length; i++) {
+			double value = values[i];
+			if (value == nullValue || Double.isNaN(value)) {
+				continue;
+			}
+			total[i] += value;
+			minimum[i] = Math.min(minimum[i], value);
+			maximum[i] = Math.max(maximum[i], value);
+			count[i]++;
+		}
+		if (windowOf(date + stepMillis) != key) {
+			// the next step starts a new window
+			currentWindow = Long.MIN_VALUE;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Closes the open window at the end of the run, when the last step does not reach the end of the window.
+	 *
+	 * @return true if a window was open, then its statistics can be read; false if the last step
+	 * 		already closed it or no step was added
+	 */
+	public boolean flush() {
+		if (currentWindow == Long.MIN_VALUE) {
+			return false;
+		}
+		currentWindow = Long.MIN_VALUE;
+		return true;
+	}
+
+	private void start(long date, long key, int[] id) {
+		if (total.length != id.length) {
+			total = new double[id.length];
+			minimum = new double[id.length];
+			maximum = new double[id.length];
+			count = new int[id.length];
+		}
+		this.id = id.clone();
+		Arrays.fill(total, 0);
+		Arrays.fill(minimum, Double.POSITIVE_INFINITY);
+		Arrays.fill(maximum, Double.NEGATIVE_INFINITY);
+		Arrays.fill(count, 0);
+		currentWindow = key;
+		windowStart = date;
+	}
+
+	private long windowOf(long date) {
+		switch (window) {
+		case DAILY:
+			return Math.floorDiv(date, SimulationClock.MILLIS_PER_DAY);
+		case MONTHLY:
+			LocalDate day = LocalDate.ofEpochDay(Math.floorDiv(date, SimulationClock.MILLIS_PER_DAY));
+			return day.getYear() * 12L + day.getMonthValue() - 1;
+		default:
+			return Math.floorDiv(date - origin, windowMinutes * SimulationClock.MILLIS_PER_MINUTE);
+		}
+	}
+
+	/**
+	 * @return the date of the first step of the last window [ms]
+	 */
+	public long getWindowStart() {
+		return windowStart;
+	}
+
+	/**
+	 * @return the statistic of the station on the last window, the null value if it has no valid values
+	 */
+	public double get(int statistic, int station) {
+		if (statistic == COUNT) {
+			return count[station];
+		}
+		if (count[station] == 0) {
+			return nullValue;
+		}
+		switch (statistic) {
+		case TOTAL:
+			return total[station];
+		case MINIMUM:
+			return minimum[station];
+		default:
+			return maximum[station];
+		}
+	}
+
+	/**
+	 * Gives the statistics of the last window in the format of the OMS HashMap outputs,
+	 * {total, minimum, maximum, count} for each station. If reuseHashMaps is set the map and
+	 * its arrays are reused at the following windows, so the values must be consumed before
+	 * the next window is closed; otherwise a new map is built.
+	 */
+	public HashMap<Integer, double[]> toHashMap() {
+		if (reuseHashMaps == false) {
+			HashMap<Integer, double[]> statistics = new HashMap<Integer, double[]>(2 * id.length);
+			for (int i = 0; i < id.length; i++) {
+				statistics.put(id[i], new double[] {get(TOTAL, i), get(MINIMUM, i), get(MAXIMUM, i), get(COUNT, i)});
+			}
+			return statistics;
+		}
+		if (map == null || !Arrays.equals(mapIds, id)) {
+			map = new HashMap<Integer, double[]>(2 * id.length);
+			mapValues = new double[id.length][4];
+			for (int i = 0; i < id.length; i++) {
+				map.put(id[i], mapValues[i]);
+			}
+			mapIds = id.clone();
+		}
+		for (int i = 0; i < id.length; i++) {
+			mapValues[i][TOTAL] = get(TOTAL, i);
+			mapValues[i][MINIMUM] = get(MINIMUM, i);
+			mapValues[i][MAXIMUM] = get(MAXIMUM, i);
+			mapValues[i][COUNT] = get(COUNT, i);
+		}
+		return map;
+	}
+}
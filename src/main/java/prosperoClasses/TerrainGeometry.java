@@ -0,0 +1,300 @@
+package prosperoClasses;
+
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Geometry of the terrain computed once from a DEM: the slope and the aspect of each pixel from
+ * the unit normal vector of the surface with the Corripio's formula, stored in float arrays
+ * indexed by row * columns + column, 8 bytes for each pixel. The normal is not stored: it is
+ * derived from the slope and the aspect when it is read. The normal is computed on the square of the
+ * pixel with the next column and the next row, so the last row and the last column have a null slope
+ * and aspect, and a zero normal as the pixels next to a missing elevation. The geometry can be saved
+ * to a file and read again for the same DEM: the file keeps the origin of the grid and a checksum of
+ * the elevations, compared on reading, and it is mapped in segments, so it can be larger than 2 GB.
+ */
+public class TerrainGeometry {
+
+	static final int MAGIC = 0x54455248;
+	static final int VERSION = 1;
+	static final int HEADER_LENGTH = 48;
+	static final int SEGMENT = 1 << 28;
+	static final double nullValue = -9999.0;
+
+	public final int columns;
+	public final int rows;
+	public final double resolution;
+	public final double west;
+	public final double north;
+	// checksum of the elevations of the DEM, see checksum(Raster)
+	public final long demChecksum;
+	// [rad] from the horizontal
+	final float[] slope;
+	// [rad] clockwise from the north
+	final float[] aspect;
+
+	TerrainGeometry(int columns, int rows, double resolution, double west, double north, long demChecksum) {
+		this.columns = columns;
+		this.rows = rows;
+		this.resolution = resolution;
+		this.west = west;
+		this.north = north;
+		this.demChecksum = demChecksum;
+		int size = columns * rows;
+		slope = new float[size];
+		aspect = new float[size];
+	}
+
+	/**
+	 * Computes the geometry of the terrain from the first band of the DEM.
+	 *
+	 * @param dem the raster of the elevation
+	 * @param res the resolution of the pixels
+	 * @param west the west coordinate of the grid
+	 * @param north the north coordinate of the grid
+	 */
+	public static TerrainGeometry compute(Raster dem, double res, double west, double north) {
+		int columns = dem.getWidth();
+		int rows = dem.getHeight();
+		TerrainGeometry terrain = new TerrainGeometry(columns, rows, res, west, north, checksum(dem));
+		Arrays.fill(terrain.slope, (float) nullValue);
+		Arrays.fill(terrain.aspect, (float) nullValue);
+		RasterAccess access = new RasterAccess(dem);
+		double[] upperRow = new double[columns];
+		double[] lowerRow = new double[columns];
+		if (rows > 1) {
+			access.readRow(dem.getMinY(), dem.getMinX(), dem.getMinX() + columns, lowerRow);
+		}
+		double thirthComponent = 2 * (res * res);
+		for (int row = 0; row < rows - 1; row++) {
+			// the lower row of the previous square is the upper row of this one
+			double[] swap = upperRow;
+			upperRow = lowerRow;
+			lowerRow = swap;
+			access.readRow(dem.getMinY() + row + 1, dem.getMinX(), dem.getMinX() + columns, lowerRow);
+			for (int column = 0; column < columns - 1; column++) {
+				double zij = upperRow[column];
+				double zidxj = upperRow[column + 1];
+				double zijdy = lowerRow[column];
+				double zidxjdy = lowerRow[column + 1];
+				double firstComponent = res * (zij - zidxj + zijdy - zidxjdy);
+				double secondComponent = res * (zij + zidxj - zijdy - zidxjdy);
+				double den = Math.sqrt(firstComponent * firstComponent
+						+ secondComponent * secondComponent + thirthComponent
+						* thirthComponent);
+				int pixel = row * columns + column;
+				double nx = firstComponent / den;
+				double ny = secondComponent / den;
+				double nz = thirthComponent / den;
+				if (Double.isNaN(nz) || zij == nullValue || zidxj == nullValue || zijdy == nullValue || zidxjdy == nullValue) {
+					continue;
+				}
+				terrain.slope[pixel] = (float) Math.acos(nz);
+				// the normal points towards the east and the south where the terrain goes down
+				double direction = (nx == 0 && ny == 0) ? 0 : Math.atan2(nx, -ny);
+				terrain.aspect[pixel] = (float) ((direction < 0) ? direction + 2 * Math.PI : direction);
+			}
+		}
+		return terrain;
+	}
+
+	public int size() {
+		return columns * rows;
+	}
+
+	/**
+	 * The components of the normal are derived from the slope and the aspect, they are 0 where
+	 * the slope is not defined:
+	 * (sin(slope) sin(aspect), -sin(slope) cos(aspect), cos(slope)).
+	 */
+	public double getNormalX(int column, int row) {
+		int pixel = row * columns + column;
+		return (slope[pixel] == (float) nullValue) ? 0 : Math.sin(slope[pixel]) * Math.sin(aspect[pixel]);
+	}
+
+	public double getNormalY(int column, int row) {
+		int pixel = row * columns + column;
+		return (slope[pixel] == (float) nullValue) ? 0 : -Math.sin(slope[pixel]) * Math.cos(aspect[pixel]);
+	}
+
+	public double getNormalZ(int column, int row) {
+		int pixel = row * columns + column;
+		return (slope[pixel] == (float) nullValue) ? 0 : Math.cos(slope[pixel]);
+	}
+
+	/**
+	 * @return the slope of the pixel [rad], the null value where it is not defined
+	 */
+	public double getSlope(int column, int row) {
+		float value = slope[row * columns + column];
+		return (value == (float) nullValue) ? nullValue : value;
+	}
+
+	/**
+	 * @return the aspect of the pixel [rad] clockwise from the north, the null value where it is not defined
+	 */
+	public double getAspect(int column, int row) {
+		float value = aspect[row * columns + column];
+		return (value == (float) nullValue) ? nullValue : value;
+	}
+
+	/**
+	 * Copies the normal in the 3 bands of the given raster, with the dimension of the DEM.
+	 */
+	public void copyNormal(WritableRaster raster) {
+		double[][] values = new double[3][columns];
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				values[0][column] = getNormalX(column, row);
+				values[1][column] = getNormalY(column, row);
+				values[2][column] = getNormalZ(column, row);
+			}
+			for (int band = 0; band < 3; band++) {
+				raster.setSamples(raster.getMinX(), raster.getMinY() + row, columns, 1, band, values[band]);
+			}
+		}
+	}
+
+	/**
+	 * Gives a checksum of the elevations of the first band of the DEM, read row by row;
+	 * the missing values give the same checksum whether they are NaN or the null value.
+	 */
+	public static long checksum(Raster dem) {
+		int columns = dem.getWidth();
+		RasterAccess access = new RasterAccess(dem);
+		double[] values = new double[columns];
+		// FNV-1a on the bits of the values
+		long checksum = 0xcbf29ce484222325L;
+		for (int row = 0; row < dem.getHeight(); row++) {
+			access.readRow(dem.getMinY() + row, dem.getMinX(), dem.getMinX() + columns, values);
+			for (int column = 0; column < columns; column++) {
+				double value = (values[column] == nullValue) ? Double.NaN : values[column];
+				checksum = (checksum ^ Double.doubleToLongBits(value)) * 0x100000001b3L;
+			}
+		}
+		return checksum;
+	}
+
+	/**
+	 * Checks if the geometry was computed on the DEM of the given grid and checksum.
+	 */
+	public boolean isSameDem(int columns, int rows, double resolution, double west, double north, long demChecksum) {
+		return this.columns == columns && this.rows == rows && this.resolution == resolution
+				&& this.west == west && this.north == north && this.demChecksum == demChecksum;
+	}
+
+	/**
+	 * Checks if the file contains the geometry of the DEM of the given grid and checksum, reading only its header.
+	 *
+	 * @return false if the file does not exist, does not contain a terrain geometry
+	 * 		or was written for a different DEM
+	 */
+	public static boolean isSaved(File file, int columns, int rows, double resolution, double west, double north,
+			long demChecksum) throws IOException {
+		if (!file.isFile() || file.length() < HEADER_LENGTH) {
+			return false;
+		}
+		try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel()) {
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+			buffer.flip();
+			if (buffer.getInt() != MAGIC) {
+				return false;
+			}
+			// the header is compared without allocating the arrays of the geometry
+			boolean sameDem = buffer.getInt() == columns & buffer.getInt() == rows & buffer.getInt() == VERSION
+					& buffer.getDouble() == resolution & buffer.getDouble() == west & buffer.getDouble() == north
+					& buffer.getLong() == demChecksum;
+			return sameDem && file.length() == HEADER_LENGTH + 4L * 2 * columns * rows;
+		}
+	}
+
+	/**
+	 * Writes the geometry in a binary file that can be read with {@link #read(File)}.
+	 */
+	public void write(File file) throws IOException {
+		long length = fileLength();
+		try (RandomAccessFile output = new RandomAccessFile(file, "rw"); FileChannel channel = output.getChannel()) {
+			output.setLength(0);
+			output.setLength(length);
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(columns).putInt(rows).putInt(VERSION).putDouble(resolution)
+					.putDouble(west).putDouble(north).putLong(demChecksum);
+			mapValues(channel, FileChannel.MapMode.READ_WRITE, HEADER_LENGTH, slope, true);
+			mapValues(channel, FileChannel.MapMode.READ_WRITE, HEADER_LENGTH + 4L * slope.length, aspect, true);
+		}
+	}
+
+	/**
+	 * Reads a geometry written with {@link #write(File)}.
+	 */
+	public static TerrainGeometry read(File file) throws IOException {
+		try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel()) {
+			if (channel.size() < HEADER_LENGTH) {
+				throw new IOException("The file " + file + " does not contain a terrain geometry.");
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("The file " + file + " does not contain a terrain geometry.");
+			}
+			TerrainGeometry terrain = readHeader(buffer);
+			if (terrain == null || channel.size() != terrain.fileLength()) {
+				throw new IOException("The file " + file + " was written by another version or is truncated.");
+			}
+			mapValues(channel, FileChannel.MapMode.READ_ONLY, HEADER_LENGTH, terrain.slope, false);
+			mapValues(channel, FileChannel.MapMode.READ_ONLY, HEADER_LENGTH + 4L * terrain.slope.length, terrain.aspect, false);
+			return terrain;
+		}
+	}
+
+	/**
+	 * Writes or reads an array of the file, mapped in segments of at most {@link #SEGMENT} bytes.
+	 */
+	static void mapValues(FileChannel channel, FileChannel.MapMode mode, long offset, float[] values, boolean write)
+			throws IOException {
+		int segmentValues = SEGMENT / 4;
+		for (int first = 0; first < values.length; first += segmentValues) {
+			int count = Math.min(segmentValues, values.length - first);
+			MappedByteBuffer segment = channel.map(mode, offset + 4L * first, 4L * count);
+			segment.order(ByteOrder.LITTLE_ENDIAN);
+			if (write) {
+				segment.asFloatBuffer().put(values, first, count);
+			} else {
+				segment.asFloatBuffer().get(values, first, count);
+			}
+		}
+	}
+
+	/**
+	 * Creates the geometry described by the header, the buffer is after the magic number.
+	 *
+	 * @return null if the file was written by another version
+	 */
+	static TerrainGeometry readHeader(ByteBuffer buffer) {
+		int columns = buffer.getInt();
+		int rows = buffer.getInt();
+		if (buffer.getInt() != VERSION) {
+			return null;
+		}
+		double resolution = buffer.getDouble();
+		double west = buffer.getDouble();
+		double north = buffer.getDouble();
+		long demChecksum = buffer.getLong();
+		return new TerrainGeometry(columns, rows, resolution, west, north, demChecksum);
+	}
+
+	long fileLength() {
+		// the header takes 48 bytes; 2 floats for each pixel
+		return HEADER_LENGTH + 4L * (slope.length + aspect.length);
+	}
+}
@@ -0,0 +1,290 @@
+package etpTestPointCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.io.rasterreader.OmsRasterReader;
+import org.jgrasstools.gears.io.shapefile.OmsShapefileFeatureReader;
+import org.jgrasstools.gears.io.timedependent.OmsTimeSeriesIteratorReader;
+import org.jgrasstools.gears.io.timedependent.OmsTimeSeriesIteratorWriter;
+import org.junit.*;
+import etpPointCase.OmsEvapotranspirationEnsemble;
+import etpPointCase.OmsPenmanMonteithFAO;
+import etpPointCase.OmsPriestleyTaylor;
+import prospero.OmsProspero;
+/**
+ * Test of the Priestley-Taylor, FAO and Prospero evapotranspiration computed side by side:
+ * each column is compared with the component of the method run alone on the same steps.
+ */
+public class TestEvapotranspirationEnsemble{
+
+	static final String startDate = "2012-07-15 10:30";
+	static final String endDate = "2012-07-15 11:30";
+	static final int timeStepMinutes = 30;
+	static final String fId = "val";
+	static final String PATH = "resources/Input/dataET_point/Viote/";
+
+	@Test
+	public void Test() throws Exception {
+		String pathToEvapotranspiration		="resources/Output/evapotranspirationEnsemble.csv";
+
+		OmsTimeSeriesIteratorReader tempReader 			= getTimeseriesReader(PATH + "Viote_Temp.csv", fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader windReader 			= getTimeseriesReader(PATH + "Viote_Wind.csv", fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader humReader 			= getTimeseriesReader(PATH + "Viote_RH.csv", fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader netradReader 		= getTimeseriesReader(PATH + "Viote_Net.csv", fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader pressureReader 		= getTimeseriesReader(PATH + "Viote_Pres.csv", fId, startDate, endDate,timeStepMinutes);
+		OmsTimeSeriesIteratorReader soilMostureReader 	= getTimeseriesReader(PATH + "Viote_null.csv", fId, startDate, endDate,timeStepMinutes);
+		OmsTimeSeriesIteratorReader soilHeatFluxReader 	= getTimeseriesReader(PATH + "Viote_GHF.csv", fId, startDate, endDate,timeStepMinutes);
+
+		OmsTimeSeriesIteratorWriter writerEvapotranspiration = new OmsTimeSeriesIteratorWriter();
+		writerEvapotranspiration.file = pathToEvapotranspiration;
+		writerEvapotranspiration.tStart = startDate;
+		writerEvapotranspiration.tTimestep = timeStepMinutes;
+		writerEvapotranspiration.fileNovalue="-9999";
+
+		OmsEvapotranspirationEnsemble ensemble = getEnsemble();
+
+		OmsPriestleyTaylor PtEt = new OmsPriestleyTaylor();
+		PtEt.alpha = ensemble.alpha;
+		PtEt.soilFluxParameterDay = ensemble.soilFluxParameterDay;
+		PtEt.soilFluxParameterNight = ensemble.soilFluxParameterNight;
+		PtEt.tStartDate = startDate;
+		PtEt.temporalStep = timeStepMinutes;
+		PtEt.defaultAtmosphericPressure = ensemble.defaultAtmosphericPressure;
+		PtEt.doHourly = true;
+
+		OmsPenmanMonteithFAO PmFAO = new OmsPenmanMonteithFAO();
+		PmFAO.cropCoefficient = ensemble.cropCoefficient;
+		PmFAO.waterWiltingPoint = ensemble.waterWiltingPoint;
+		PmFAO.waterFieldCapacity = ensemble.waterFieldCapacity;
+		PmFAO.rootsDepth = ensemble.rootsDepth;
+		PmFAO.depletionFraction = ensemble.depletionFraction;
+		PmFAO.tStartDate = startDate;
+		PmFAO.temporalStep = timeStepMinutes;
+		PmFAO.defaultAtmosphericPressure = ensemble.defaultAtmosphericPressure;
+		PmFAO.doHourly = true;
+
+		int steps = 0;
+		while( tempReader.doProcess ) {
+			tempReader.nextRecord();
+			ensemble.inAirTemperature = tempReader.outData;
+			PtEt.inAirTemperature = tempReader.outData;
+			PmFAO.inAirTemperature = tempReader.outData;
+
+			windReader.nextRecord();
+			ensemble.inWindVelocity = windReader.outData;
+			PmFAO.inWindVelocity = windReader.outData;
+
+			humReader.nextRecord();
+			ensemble.inRelativeHumidity = humReader.outData;
+			PmFAO.inRelativeHumidity = humReader.outData;
+
+			netradReader.nextRecord();
+			ensemble.inNetRadiation = netradReader.outData;
+			PtEt.inNetRadiation = netradReader.outData;
+			PmFAO.inNetRadiation = netradReader.outData;
+
+			pressureReader.nextRecord();
+			ensemble.inAtmosphericPressure = pressureReader.outData;
+			PtEt.inAtmosphericPressure = pressureReader.outData;
+			PmFAO.inAtmosphericPressure = pressureReader.outData;
+
+			soilMostureReader.nextRecord();
+			ensemble.inSoilMoisture = soilMostureReader.outData;
+			PmFAO.inSoilMosture = soilMostureReader.outData;
+
+			soilHeatFluxReader.nextRecord();
+			ensemble.inSoilFlux = soilHeatFluxReader.outData;
+			PtEt.inSoilFlux = soilHeatFluxReader.outData;
+			PmFAO.inSoilFlux = soilHeatFluxReader.outData;
+
+			ensemble.process();
+			PtEt.process();
+			PmFAO.process();
+
+			HashMap<Integer, double[]> outEvapotranspiration = ensemble.outEvapotranspiration;
+			for (Entry<Integer, double[]> station : outEvapotranspiration.entrySet()) {
+				double[] values = station.getValue();
+				double pt = PtEt.outEvapotranspirationPt.get(station.getKey())[0];
+				double fao = PmFAO.outEvapotranspirationFao.get(station.getKey())[0];
+				assertEquals(pt, values[OmsEvapotranspirationEnsemble.PRIESTLEY_TAYLOR], 1E-9 * Math.max(1, Math.abs(pt)));
+				assertEquals(fao, values[OmsEvapotranspirationEnsemble.PENMAN_MONTEITH_FAO], 1E-9 * Math.max(1, Math.abs(fao)));
+				// Prospero is not run
+				assertEquals(-9999.0, values[OmsEvapotranspirationEnsemble.PROSPERO], 0);
+			}
+			writerEvapotranspiration.inData = outEvapotranspiration;
+			writerEvapotranspiration.writeNextLine();
+			steps++;
+		}
+		assertEquals(3, steps);
+
+		tempReader.close();
+		windReader.close();
+		humReader.close();
+		netradReader.close();
+		pressureReader.close();
+		soilMostureReader.close();
+		soilHeatFluxReader.close();
+		writerEvapotranspiration.close();
+	}
+
+	@Test
+	public void TestProspero() throws Exception {
+		OmsTimeSeriesIteratorReader tempReader 			= getTimeseriesReader(PATH + "Viote_Temp.csv", fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader windReader 			= getTimeseriesReader(PATH + "Viote_Wind.csv", fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader humReader 			= getTimeseriesReader(PATH + "Viote_RH.csv", fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader shortwaveReader 	= getTimeseriesReader(PATH + "Viote_SwDirect.csv", fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader netradReader 		= getTimeseriesReader(PATH + "Viote_Net.csv", fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader pressureReader 		= getTimeseriesReader(PATH + "Viote_Pres.csv", fId, startDate, endDate,timeStepMinutes);
+		OmsTimeSeriesIteratorReader soilHeatFluxReader 	= getTimeseriesReader(PATH + "Viote_GHF.csv", fId, startDate, endDate,timeStepMinutes);
+		OmsTimeSeriesIteratorReader leafAreaIndexReader	= getTimeseriesReader(PATH + "Viote_Lai.csv", fId, startDate, endDate,timeStepMinutes);
+		OmsTimeSeriesIteratorReader soilMostureReader 	= getTimeseriesReader(PATH + "Viote_SWC.csv", fId, startDate, endDate,timeStepMinutes);
+
+		OmsEvapotranspirationEnsemble ensemble = getEnsemble();
+		ensemble.prospero = getProspero();
+		OmsProspero Prospero = getProspero();
+		Prospero.doHourly = true;
+		Prospero.tStartDate = startDate;
+		Prospero.temporalStep = timeStepMinutes;
+
+		int steps = 0;
+		while( tempReader.doProcess ) {
+			tempReader.nextRecord();
+			ensemble.inAirTemperature = tempReader.outData;
+			Prospero.inAirTemperature = tempReader.outData;
+
+			windReader.nextRecord();
+			ensemble.inWindVelocity = windReader.outData;
+			Prospero.inWindVelocity = windReader.outData;
+
+			humReader.nextRecord();
+			ensemble.inRelativeHumidity = humReader.outData;
+			Prospero.inRelativeHumidity = humReader.outData;
+
+			shortwaveReader.nextRecord();
+			ensemble.inShortWaveRadiationDirect = shortwaveReader.outData;
+			Prospero.inShortWaveRadiationDirect = shortwaveReader.outData;
+
+			// the net radiation of the reference methods and the net long wave of Prospero
+			netradReader.nextRecord();
+			ensemble.inNetRadiation = netradReader.outData;
+			ensemble.inNetLongWaveRadiation = netradReader.outData;
+			Prospero.inNetLongWaveRadiation = netradReader.outData;
+
+			pressureReader.nextRecord();
+			ensemble.inAtmosphericPressure = pressureReader.outData;
+			Prospero.inAtmosphericPressure = pressureReader.outData;
+
+			soilHeatFluxReader.nextRecord();
+			ensemble.inSoilFlux = soilHeatFluxReader.outData;
+			Prospero.inSoilFlux = soilHeatFluxReader.outData;
+
+			leafAreaIndexReader.nextRecord();
+			ensemble.inLeafAreaIndex = leafAreaIndexReader.outData;
+			Prospero.inLeafAreaIndex = leafAreaIndexReader.outData;
+
+			soilMostureReader.nextRecord();
+			ensemble.inSoilMoisture = soilMostureReader.outData;
+			Prospero.inSoilMoisture = soilMostureReader.outData;
+
+			ensemble.process();
+			Prospero.process();
+
+			for (Entry<Integer, double[]> station : ensemble.outEvapotranspiration.entrySet()) {
+				double transpiration = Prospero.outTranspiration.get(station.getKey())[0];
+				assertTrue(transpiration > 0);
+				// the latent heat flux in W m-2 gives the mm of the half an hour
+				assertEquals(transpiration * timeStepMinutes * 60 / 2.45E6,
+						station.getValue()[OmsEvapotranspirationEnsemble.PROSPERO], 1E-12);
+			}
+			steps++;
+		}
+		assertEquals(3, steps);
+
+		tempReader.close();
+		windReader.close();
+		humReader.close();
+		shortwaveReader.close();
+		netradReader.close();
+		pressureReader.close();
+		soilHeatFluxReader.close();
+		leafAreaIndexReader.close();
+		soilMostureReader.close();
+	}
+
+	private OmsEvapotranspirationEnsemble getEnsemble() {
+		OmsEvapotranspirationEnsemble ensemble = new OmsEvapotranspirationEnsemble();
+
+		ensemble.alpha = 1.26;
+		ensemble.soilFluxParameterDay = 0.35;
+		ensemble.soilFluxParameterNight = 0.75;
+
+		ensemble.cropCoefficient = 1.0;
+		ensemble.waterWiltingPoint = 0.15;
+		ensemble.waterFieldCapacity = 0.27;
+		ensemble.rootsDepth = 0.75;
+		ensemble.depletionFraction = 0.55;
+
+		ensemble.tStartDate=startDate;
+		ensemble.temporalStep = timeStepMinutes;
+		ensemble.defaultAtmosphericPressure = 101.3;
+		ensemble.doHourly = true;
+		return ensemble;
+	}
+
+	private OmsProspero getProspero() throws Exception {
+		OmsRasterReader DEMreader = new OmsRasterReader();
+		DEMreader.file = "resources/Input/dataET_raster/dem.tif";
+		DEMreader.fileNovalue = -9999.0;
+		DEMreader.geodataNovalue = Double.NaN;
+		DEMreader.process();
+		GridCoverage2D digitalElevationModel = DEMreader.outRaster;
+
+		OmsShapefileFeatureReader centroidsReader = new OmsShapefileFeatureReader();
+		centroidsReader.file = "resources/Input/dataET_point/Viote/CentroidViote.shp";
+		centroidsReader.readFeatureCollection();
+
+		OmsProspero Prospero = new OmsProspero();
+		Prospero.inCentroids = centroidsReader.geodata;
+		Prospero.idCentroids = "id";
+		Prospero.centroidElevation = "Elevation";
+		Prospero.inDem = digitalElevationModel;
+		Prospero.canopyHeight = 0.2;
+		Prospero.defaultStress = 1.0;
+		Prospero.useRadiationStress = true;
+		Prospero.useTemperatureStress = false;
+		Prospero.useVDPStress = false;
+		Prospero.useWaterStress = true;
+		Prospero.alpha = 0.005;
+		Prospero.theta = 0.9;
+		Prospero.VPD0 = 5.0;
+		Prospero.Tl = -5.0;
+		Prospero.T0 = 20.0;
+		Prospero.Th = 45.0;
+		Prospero.typeOfCanopy = "multilayer";
+		Prospero.waterWiltingPoint = 0.15;
+		Prospero.waterFieldCapacity = 0.27;
+		Prospero.rootsDepth = 0.75;
+		Prospero.depletionFraction = 0.55;
+		return Prospero;
+	}
+
+	private OmsTimeSeriesIteratorReader getTimeseriesReader( String path, String id, String startDate, String endDate,
+			int timeStepMinutes ) throws URISyntaxException {
+		OmsTimeSeriesIteratorReader reader = new OmsTimeSeriesIteratorReader();
+		reader.file = path;
+		reader.idfield = id;
+		reader.tStart =startDate;
+		reader.tTimestep = timeStepMinutes;
+		reader.tEnd = endDate;
+		reader.fileNovalue = "-9999.0";
+		reader.initProcess();
+		return reader;
+	}
+
+}
@@ -0,0 +1,119 @@
+package etpTestPointCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.Map.Entry;
+
+import org.jgrasstools.gears.io.timedependent.OmsTimeSeriesIteratorReader;
+import org.junit.*;
+
+import etpPointCase.OmsPriestleyTaylor;
+import prospero.OmsForcingArchiveConverter;
+/**
+ * Test of PrestleyTaylor reading the forcing archive: the evapotranspiration is the one of the
+ * HashMap inputs, and a date that is not in the archive stops the run.
+ */
+public class TestForcingArchive{
+
+	static final String startDate = "2015-07-21 00:00";
+	static final String endDate = "2015-07-21 23:00";
+	static final int timeStepMinutes = 60;
+	static final String fId = "val";
+
+	@Test
+	public void Test() throws Exception {
+		String inPathToNetRad 		="resources/Input/dataET_point/NetRadiation.csv";
+		String inPathToTemperature 	="resources/Input/dataET_point/AirTemperature.csv";
+		String inPathToPressure		="resources/Input/dataET_point/AtmosphericPressure.csv";
+		String inPathToSoilHeatFlux ="resources/Input/dataET_point/SoilHeatFlux.csv";
+
+		File archive = File.createTempFile("forcings", ".bin");
+		archive.deleteOnExit();
+		OmsForcingArchiveConverter converter = new OmsForcingArchiveConverter();
+		converter.inAirTemperaturePath = inPathToTemperature;
+		converter.inNetRadiationPath = inPathToNetRad;
+		converter.inAtmosphericPressurePath = inPathToPressure;
+		converter.inSoilFluxPath = inPathToSoilHeatFlux;
+		converter.idField = fId;
+		converter.outForcingFile = archive.getPath();
+		converter.process();
+
+		OmsTimeSeriesIteratorReader tempReader = getTimeseriesReader(inPathToTemperature, fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader netradReader = getTimeseriesReader(inPathToNetRad, fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader pressureReader = getTimeseriesReader(inPathToPressure, fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader soilHeatFluxReader 	= getTimeseriesReader(inPathToSoilHeatFlux, fId, startDate, endDate,timeStepMinutes);
+
+		OmsPriestleyTaylor PtEt = getPriestleyTaylor(startDate);
+		OmsPriestleyTaylor PtEtArchive = getPriestleyTaylor(startDate);
+		PtEtArchive.inForcingArchive = archive.getPath();
+
+		int steps = 0;
+		while( tempReader.doProcess ) {
+			tempReader.nextRecord();
+			PtEt.inAirTemperature = tempReader.outData;
+
+			netradReader.nextRecord();
+			PtEt.inNetRadiation = netradReader.outData;
+
+			pressureReader.nextRecord();
+			PtEt.inAtmosphericPressure = pressureReader.outData;
+
+			soilHeatFluxReader.nextRecord();
+			PtEt.inSoilFlux = soilHeatFluxReader.outData;
+
+			PtEt.process();
+			PtEtArchive.process();
+			for (Entry<Integer, double[]> station : PtEt.outEvapotranspirationPt.entrySet()) {
+				assertEquals(station.getValue()[0], PtEtArchive.outEvapotranspirationPt.get(station.getKey())[0], 0);
+			}
+			steps++;
+		}
+		assertEquals(24, steps);
+		PtEtArchive.close();
+
+		// a date before the archive
+		OmsPriestleyTaylor PtEtBefore = getPriestleyTaylor("1990-01-01 00:00");
+		PtEtBefore.inForcingArchive = archive.getPath();
+		try {
+			PtEtBefore.process();
+			fail("The date outside the archive was accepted.");
+		} catch (IllegalArgumentException e) {
+			// the date is not in the archive
+		} finally {
+			PtEtBefore.close();
+		}
+
+		tempReader.close();
+		netradReader.close();
+		pressureReader.close();
+		soilHeatFluxReader.close();
+	}
+
+	private OmsPriestleyTaylor getPriestleyTaylor(String startDate) {
+		OmsPriestleyTaylor PtEt = new OmsPriestleyTaylor();
+		PtEt.alpha = 1.26;
+		PtEt.soilFluxParameterDay = 0.35;
+		PtEt.soilFluxParameterNight = 0.75;
+		PtEt.doHourly = true;
+		PtEt.temporalStep = timeStepMinutes;
+		PtEt.defaultAtmosphericPressure = 101.3;
+		PtEt.tStartDate = startDate;
+		return PtEt;
+	}
+
+	private OmsTimeSeriesIteratorReader getTimeseriesReader( String path, String id, String startDate, String endDate,
+			int timeStepMinutes ) throws URISyntaxException {
+		OmsTimeSeriesIteratorReader reader = new OmsTimeSeriesIteratorReader();
+		reader.file = path;
+		reader.idfield = id;
+		reader.tStart =startDate;
+		reader.tTimestep = timeStepMinutes;
+		reader.tEnd = endDate;
+		reader.fileNovalue = "-9999.0";
+		reader.initProcess();
+		return reader;
+	}
+}
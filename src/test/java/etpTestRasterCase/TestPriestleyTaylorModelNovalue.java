@@ -0,0 +1,97 @@
+package etpTestRasterCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.Raster;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.io.rasterreader.OmsRasterReader;
+import org.junit.*;
+
+import etpRasterCase.OmsPriestleyTaylorEtpModel;
+
+/**
+ * Test of the missing values of PrestleyTaylorModel: each pixel uses its own temperature,
+ * and the default one only where the temperature is missing.
+ */
+@SuppressWarnings("nls")
+public class TestPriestleyTaylorModelNovalue{
+
+	@Test
+	public void Test() throws Exception {
+
+		GridCoverage2D airT = read("resources/Input/dataET_raster/kriging_interpolated_temp_20080722_1500.asc");
+		GridCoverage2D netRad = read("resources/Input/dataET_raster/LwrbDownWellingRaster.asc");
+
+		OmsPriestleyTaylorEtpModel PTEtp = new OmsPriestleyTaylorEtpModel();
+		// a step of the day
+		PTEtp.tStartDate = "2007-10-17 15:00";
+		PTEtp.defaultPressure = 101.3;
+		PTEtp.defaultTemp = 15.0;
+		PTEtp.defaultHourlyNetradiation = 100.0;
+		PTEtp.pAlpha = 1.06;
+		PTEtp.pGmorn = 0.35;
+		PTEtp.pGnight = 0.75;
+		PTEtp.doHourly = true;
+		PTEtp.inNetradiationGrid = netRad;
+		PTEtp.inTemperatureGrid = airT;
+		PTEtp.process();
+
+		Raster temperature = airT.getRenderedImage().getData();
+		Raster netRadiation = netRad.getRenderedImage().getData();
+		Raster etp = PTEtp.outETpDataGrid.getRenderedImage().getData();
+		int missing = 0;
+		int valid = 0;
+		for (int r = 1; r < etp.getHeight() - 1; r++) {
+			for (int c = 1; c < etp.getWidth() - 1; c++) {
+				double airTemperature = temperature.getSampleDouble(c, r, 0);
+				if (isMissing(airTemperature)) {
+					airTemperature = PTEtp.defaultTemp;
+					missing++;
+				} else {
+					valid++;
+				}
+				double radiation = netRadiation.getSampleDouble(c, r, 0);
+				if (isMissing(radiation)) {
+					radiation = PTEtp.defaultHourlyNetradiation;
+				}
+				double expected = expected(PTEtp, airTemperature, radiation * 0.0864 / 24.0, PTEtp.pGmorn);
+				assertEquals(expected, etp.getSampleDouble(c, r, 0), 1E-12 * Math.max(1, expected));
+			}
+		}
+		assertTrue(missing > 0);
+		assertTrue(valid > 0);
+	}
+
+	/**
+	 * The evapotranspiration of the original component, in mm of the hour.
+	 */
+	private double expected(OmsPriestleyTaylorEtpModel PTEtp, double AirTem, double NetRad, double coeff_G) {
+		if (NetRad < 0) {
+			return 0;
+		}
+		double den_Delta = (AirTem + 237.3) * (AirTem + 237.3);
+		double exp_Delta = (17.27 * AirTem) / (AirTem + 237.3);
+		double num_Delta = 4098 * (0.6108 * Math.exp(exp_Delta));
+		double Delta = num_Delta / den_Delta;
+		double lambda = 2.501 - 0.002361 * AirTem;
+		double gamma = 0.001013 * PTEtp.defaultPressure / (0.622 * lambda);
+		double G = coeff_G * NetRad;
+		double result = PTEtp.pAlpha * Delta * (NetRad - G) / ((gamma + Delta) * lambda);
+		return (result < 0) ? 0 : result;
+	}
+
+	private boolean isMissing(double value) {
+		return Double.isNaN(value) || value == -9999.0;
+	}
+
+	private GridCoverage2D read(String file) throws Exception {
+		OmsRasterReader reader = new OmsRasterReader();
+		reader.file = file;
+		reader.fileNovalue = -9999.0;
+		reader.geodataNovalue = Double.NaN;
+		reader.process();
+		return reader.outRaster;
+	}
+}
@@ -0,0 +1,117 @@
+package etpTestRasterCase;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.Raster;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.io.rasterreader.OmsRasterReader;
+import org.jgrasstools.gears.io.rasterwriter.OmsRasterWriter;
+import org.junit.Test;
+import etpRasterCase.OmsPriestleyTaylorEtRaster;
+import etpRasterCase.OmsPriestleyTaylorEtRasterSeries;
+
+/**
+ * Test of the series of maps computed in a single call: each step is the map of OmsPriestleyTaylorEtRaster
+ * on the same maps and date, also across the switch from the night to the day coefficient of the soil heat flux.
+ */
+public class TestPriestleyTaylorModelRasterSeries {
+
+	// the hours from 6 on are of the night, the ones from 7 of the day
+	static final String[] DATES = {"2016-06-01 05:00", "2016-06-01 06:00", "2016-06-01 07:00", "2016-06-01 08:00"};
+
+	@Test
+	public void Test() throws Exception {
+	
+		OmsRasterReader airTemperatureReader = new OmsRasterReader();
+		airTemperatureReader.file = "resources/Input/dataET_raster/kriging_interpolated_temp_20080722_1500.asc";
+		airTemperatureReader.fileNovalue = -9999.0;
+		airTemperatureReader.geodataNovalue = Double.NaN;
+		airTemperatureReader.process();
+		GridCoverage2D airTemperature = airTemperatureReader.outRaster;
+		
+		OmsRasterReader netRadiationReader = new OmsRasterReader();
+		netRadiationReader.file = "resources/Input/dataET_raster/SWRB_raster.asc";
+		netRadiationReader.fileNovalue = -9999.0;
+		netRadiationReader.geodataNovalue = Double.NaN;
+		netRadiationReader.process();
+		GridCoverage2D netRadiation = netRadiationReader.outRaster;
+		
+		OmsPriestleyTaylorEtRasterSeries ETRaster = new OmsPriestleyTaylorEtRasterSeries();
+
+		// the same maps before and after the sunrise
+		ETRaster.inAirTemperatureGrids = Arrays.asList(airTemperature, airTemperature, airTemperature, airTemperature);
+		ETRaster.inNetRadiationGrids = Arrays.asList(netRadiation, netRadiation, netRadiation, netRadiation);
+		ETRaster.tStartDate = DATES[0];
+
+		ETRaster.pAlpha = 1.06;
+		ETRaster.pGmorn = 0.35;
+		ETRaster.pGnight = 0.75;
+		ETRaster.doHourly = true;
+		ETRaster.parallelism = 2;
+		ETRaster.chunkSteps = 2;
+
+		ETRaster.process();
+		ETRaster.close();
+		
+		List<GridCoverage2D> outETDataGrids = ETRaster.outEtPtGrids;
+		assertEquals(DATES.length, outETDataGrids.size());
+
+		// each step is the map of the single step component at its date
+		for (int t = 0; t < DATES.length; t++) {
+			OmsPriestleyTaylorEtRaster ETStep = new OmsPriestleyTaylorEtRaster();
+			ETStep.inAirTemperatureGrid = airTemperature;
+			ETStep.inNetRadiationGrid = netRadiation;
+			ETStep.tStartDate = DATES[t];
+			ETStep.pAlpha = 1.06;
+			ETStep.pGmorn = 0.35;
+			ETStep.pGnight = 0.75;
+			ETStep.doHourly = true;
+			ETStep.process();
+			ETStep.close();
+			assertSameMap(ETStep.outEtPtGrid, outETDataGrids.get(t));
+		}
+		// the two night steps are the same map, the day one has the smaller soil heat flux
+		assertSameMap(outETDataGrids.get(0), outETDataGrids.get(1));
+		assertTrue(countLarger(outETDataGrids.get(2), outETDataGrids.get(1)) > 0);
+
+		for (int t = 0; t < outETDataGrids.size(); t++) {
+			OmsRasterWriter writerETtraster = new OmsRasterWriter();
+			writerETtraster.inRaster = outETDataGrids.get(t);
+			writerETtraster.file = "resources/Output/ET_PT_series_" + t + ".asc";
+			writerETtraster.process();
+		}
+	}
+
+	private void assertSameMap(GridCoverage2D expected, GridCoverage2D actual) {
+		Raster expectedMap = expected.getRenderedImage().getData();
+		Raster actualMap = actual.getRenderedImage().getData();
+		assertEquals(expectedMap.getWidth(), actualMap.getWidth());
+		assertEquals(expectedMap.getHeight(), actualMap.getHeight());
+		for (int row = 0; row < expectedMap.getHeight(); row++) {
+			for (int column = 0; column < expectedMap.getWidth(); column++) {
+				// NaN is equal to NaN
+				assertEquals(expectedMap.getSampleDouble(expectedMap.getMinX() + column, expectedMap.getMinY() + row, 0),
+						actualMap.getSampleDouble(actualMap.getMinX() + column, actualMap.getMinY() + row, 0), 0);
+			}
+		}
+	}
+
+	private int countLarger(GridCoverage2D larger, GridCoverage2D smaller) {
+		Raster largerMap = larger.getRenderedImage().getData();
+		Raster smallerMap = smaller.getRenderedImage().getData();
+		int count = 0;
+		for (int row = 0; row < largerMap.getHeight(); row++) {
+			for (int column = 0; column < largerMap.getWidth(); column++) {
+				if (largerMap.getSampleDouble(largerMap.getMinX() + column, largerMap.getMinY() + row, 0)
+						> smallerMap.getSampleDouble(smallerMap.getMinX() + column, smallerMap.getMinY() + row, 0)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,99 @@
+package etpTestRasterCase;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.jgrasstools.gears.utils.RegionMap;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+import org.junit.*;
+
+import etpRasterCase.OmsPriestleyTaylorEtRaster;
+import prosperoClasses.FloatGridReader;
+import prosperoClasses.FloatGridWriter;
+import prosperoClasses.PriestleyTaylorKernel;
+/**
+ * Test of the streaming mode of OmsPriestleyTaylorEtRaster reading the input maps from .flt files:
+ * the map written strip by strip is the one computed pixel by pixel, with the border and the
+ * missing inputs as in the whole map.
+ */
+public class TestPriestleyTaylorModelRasterStrips{
+
+	static final int COLUMNS = 7;
+	static final int ROWS = 10;
+
+	@Test
+	public void Test() throws Exception {
+		File folder = new File(System.getProperty("java.io.tmpdir"), "etpStrips");
+		folder.mkdirs();
+		RegionMap regionMap = new RegionMap();
+		regionMap.put(CoverageUtilities.COLS, (double) COLUMNS);
+		regionMap.put(CoverageUtilities.ROWS, (double) ROWS);
+		regionMap.put(CoverageUtilities.XRES, 30.0);
+		regionMap.put(CoverageUtilities.YRES, 30.0);
+		regionMap.put(CoverageUtilities.WEST, 650000.0);
+		regionMap.put(CoverageUtilities.SOUTH, 5100000.0);
+
+		double[] temperature = new double[COLUMNS * ROWS];
+		double[] netRadiation = new double[COLUMNS * ROWS];
+		for (int pixel = 0; pixel < temperature.length; pixel++) {
+			temperature[pixel] = 10.0 + pixel * 0.25;
+			netRadiation[pixel] = -50.0 + pixel * 7.5;
+		}
+		// a missing pixel of each map
+		temperature[3 * COLUMNS + 2] = -9999.0;
+		netRadiation[5 * COLUMNS + 4] = -9999.0;
+		File temperatureFile = write(new File(folder, "temperature.flt"), regionMap, temperature);
+		File netRadiationFile = write(new File(folder, "netRadiation.flt"), regionMap, netRadiation);
+
+		PriestleyTaylorKernel kernel = new PriestleyTaylorKernel();
+		kernel.alpha = 1.26;
+		kernel.soilHeatFluxCoefficient = 0.35;
+		kernel.scale = 3600;
+		double[] expected = new double[COLUMNS * ROWS];
+		// the missing values read from the files are NaN
+		temperature[3 * COLUMNS + 2] = Double.NaN;
+		netRadiation[5 * COLUMNS + 4] = Double.NaN;
+		kernel.compute(temperature, netRadiation, null, null, 0, expected.length, expected);
+
+		for (int stripRows : new int[] {1, 3, ROWS}) {
+			OmsPriestleyTaylorEtRaster ETRaster = new OmsPriestleyTaylorEtRaster();
+			ETRaster.inAirTemperatureFile = temperatureFile.getPath();
+			ETRaster.inNetRadiationFile = netRadiationFile.getPath();
+			ETRaster.tStartDate = "2016-06-01 12:00";
+			ETRaster.pAlpha = 1.26;
+			ETRaster.pGmorn = 0.35;
+			ETRaster.pGnight = 0.75;
+			ETRaster.doHourly = true;
+			ETRaster.stripRows = stripRows;
+			ETRaster.parallelism = 2;
+			ETRaster.outEtPtFolder = new File(folder, "out" + stripRows).getPath();
+			ETRaster.process();
+			ETRaster.close();
+
+			FloatGridReader reader = new FloatGridReader(new File(ETRaster.outEtPtFile));
+			double[] etp = new double[COLUMNS * ROWS];
+			reader.readRows(0, ROWS, etp);
+			reader.close();
+			assertEquals(30.0, reader.getRegionMap().getXres(), 0);
+			assertEquals(5100300.0, reader.getRegionMap().getNorth(), 1E-6);
+			for (int row = 0; row < ROWS; row++) {
+				for (int column = 0; column < COLUMNS; column++) {
+					int pixel = row * COLUMNS + column;
+					if (row == 0 || row == ROWS - 1 || column == 0 || column == COLUMNS - 1) {
+						assertEquals(Double.NaN, etp[pixel], 0);
+					} else {
+						assertEquals((float) expected[pixel], etp[pixel], 0);
+					}
+				}
+			}
+		}
+	}
+
+	private File write(File fltFile, RegionMap regionMap, double[] values) throws Exception {
+		FloatGridWriter writer = new FloatGridWriter(fltFile, regionMap, -9999.0);
+		writer.writeRows(0, ROWS, values);
+		writer.close();
+		return fltFile;
+	}
+}
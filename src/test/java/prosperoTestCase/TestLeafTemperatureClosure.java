@@ -0,0 +1,125 @@
+package prosperoTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.jgrasstools.gears.libs.modules.JGTConstants;
+import org.junit.*;
+
+import prospero.OmsProspero;
+import prospero.OmsProsperoRaster;
+import prosperoClasses.CanopyEnergyBalance;
+import prosperoClasses.Leaf;
+import prosperoClasses.Parameters;
+import prosperoClasses.PressureMethods;
+import prosperoClasses.StationBlock;
+import prosperoClasses.StationBlock.Variable;
+import prosperoClasses.StationOutputBuffer.Output;
+import prosperoClasses.StationSeriesReader;
+/**
+ * Test of the closures of the leaf energy balance on a step of Viote: the single estimate,
+ * used by default, and the Newton iteration, which has to close the balance.
+ */
+public class TestLeafTemperatureClosure{
+
+	static final String PATH = "resources/Input/dataET_point/Viote/";
+
+	@Test
+	public void Test() throws Exception {
+		assertFalse(new OmsProspero().doIterative);
+		assertFalse(new OmsProsperoRaster().doIterative);
+		assertFalse(new CanopyEnergyBalance(new Leaf()).doIterative);
+
+		double[] forcing = readForcing(JGTConstants.utcDateFormatterYYYYMMDDHHMM.parseMillis("2012-07-15 12:00"));
+		double elevation = 1490;
+		double solarElevationAngle = 0.9;
+
+		CanopyEnergyBalance canopy = getCanopy();
+		double[] single = new double[Output.values().length];
+		canopy.compute(forcing, elevation, solarElevationAngle, Double.NaN, Double.NaN, new double[PressureMethods.TERMS_LENGTH], single);
+
+		canopy.doIterative = true;
+		double[] iterative = new double[Output.values().length];
+		canopy.compute(forcing, elevation, solarElevationAngle, Double.NaN, Double.NaN, new double[PressureMethods.TERMS_LENGTH], iterative);
+
+		// the warm start from the leaf temperatures of a previous step reaches the same solution
+		double[] warm = new double[Output.values().length];
+		canopy.compute(forcing, elevation, solarElevationAngle, iterative[Output.LEAF_TEMPERATURE_SUN.ordinal()] + 3.0,
+				iterative[Output.LEAF_TEMPERATURE_SHADE.ordinal()] - 3.0, new double[PressureMethods.TERMS_LENGTH], warm);
+
+		double airTemperature = forcing[Variable.AIR_TEMPERATURE.ordinal()] + 273.0;
+		for (Output[] layer : new Output[][] {
+				{Output.RADIATION_SUN, Output.LEAF_TEMPERATURE_SUN, Output.LATENT_HEAT_SUN, Output.SENSIBLE_HEAT_SUN},
+				{Output.RADIATION_SHADE, Output.LEAF_TEMPERATURE_SHADE, Output.LATENT_HEAT_SHADE, Output.SENSIBLE_HEAT_SHADE}}) {
+			double area = (layer[0] == Output.RADIATION_SUN) ? iterative[Output.CANOPY_SUN.ordinal()]
+					: forcing[Variable.LEAF_AREA_INDEX.ordinal()] - iterative[Output.CANOPY_SUN.ordinal()];
+			double residual = computeResidual(canopy.leaf, area, airTemperature, iterative[layer[0].ordinal()],
+					iterative[layer[1].ordinal()], iterative[layer[2].ordinal()], iterative[layer[3].ordinal()]);
+			// the Newton iteration closes the full balance, with the long wave in TL^4
+			assertEquals(0, residual, 1E-6 * iterative[layer[0].ordinal()]);
+			assertEquals(iterative[layer[1].ordinal()], warm[layer[1].ordinal()], 1E-6);
+			assertEquals(single[layer[0].ordinal()], iterative[layer[0].ordinal()], 0);
+			// the single estimate linearizes the long wave and does not scale it with the area of the layer,
+			// so its leaf temperature is a few kelvin away and it is kept as the default
+			assertEquals(single[layer[1].ordinal()], iterative[layer[1].ordinal()], 5.0);
+		}
+		// the soil does not depend on the closure
+		assertEquals(single[Output.EVAPORATION.ordinal()], iterative[Output.EVAPORATION.ordinal()], 0);
+	}
+
+	private double computeResidual(Leaf leaf, double area, double airTemperature, double shortWaveRadiation,
+			double leafTemperature, double latentHeatFlux, double sensibleHeatFlux) {
+		double netLongWaveRadiation = area * leaf.side * leaf.longWaveEmittance * Parameters.stefanBoltzmannConstant
+				* (Math.pow(leafTemperature, 4) - Math.pow(airTemperature, 4));
+		return shortWaveRadiation - netLongWaveRadiation - latentHeatFlux - sensibleHeatFlux;
+	}
+
+	private CanopyEnergyBalance getCanopy() {
+		CanopyEnergyBalance canopy = new CanopyEnergyBalance(new Leaf());
+		canopy.canopyHeight = 0.2;
+		canopy.defaultStress = 1.0;
+		canopy.typeOfCanopy = "multilayer";
+		canopy.useTemperatureStress = false;
+		canopy.useVDPStress = false;
+		canopy.alpha = 0.005;
+		canopy.theta = 0.9;
+		canopy.VPD0 = 5.0;
+		canopy.Tl = -5.0;
+		canopy.T0 = 20.0;
+		canopy.Th = 45.0;
+		canopy.waterWiltingPoint = 0.15;
+		canopy.waterFieldCapacity = 0.27;
+		canopy.rootsDepth = 0.75;
+		canopy.depletionFraction = 0.55;
+		return canopy;
+	}
+
+	private double[] readForcing(long millis) throws Exception {
+		String[][] files = {
+				{"AIR_TEMPERATURE", "Viote_Temp.csv"},
+				{"WIND_VELOCITY", "Viote_Wind.csv"},
+				{"RELATIVE_HUMIDITY", "Viote_RH.csv"},
+				{"SHORTWAVE_DIRECT", "Viote_SwDirect.csv"},
+				{"NET_LONGWAVE", "Viote_Net.csv"},
+				{"ATMOSPHERIC_PRESSURE", "Viote_Pres.csv"},
+				{"SOIL_FLUX", "Viote_GHF.csv"},
+				{"LEAF_AREA_INDEX", "Viote_Lai.csv"},
+				{"SOIL_MOISTURE", "Viote_SWC.csv"}};
+		StationBlock block = new StationBlock(new int[] {4});
+		double[] forcing = new double[Variable.values().length];
+		Arrays.fill(forcing, -9999.0);
+		for (String[] file : files) {
+			StationSeriesReader reader = new StationSeriesReader(new File(PATH + file[1]), "val");
+			try {
+				Variable variable = Variable.valueOf(file[0]);
+				forcing[variable.ordinal()] = reader.fill(block, variable, millis)[0];
+			} finally {
+				reader.close();
+			}
+		}
+		return forcing;
+	}
+}
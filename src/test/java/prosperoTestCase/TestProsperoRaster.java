@@ -0,0 +1,116 @@
+package prosperoTestCase;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.Raster;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.io.rasterreader.OmsRasterReader;
+import org.jgrasstools.gears.io.rasterwriter.OmsRasterWriter;
+import org.junit.Test;
+import prospero.OmsProsperoRaster;
+
+public class TestProsperoRaster {
+	String startDate = "2008-07-22 15:00";
+	int timeStepMinutes = 60;
+
+	@Test
+	public void Test() throws Exception {
+
+		GridCoverage2D airTemperature = readRaster("resources/Input/dataET_raster/kriging_interpolated_temp_20080722_1500.asc");
+		GridCoverage2D shortWaveRadiation = readRaster("resources/Input/dataET_raster/SWRB_raster.asc");
+		GridCoverage2D windVelocity = readRaster("resources/Input/dataET_raster/Wind.asc");
+		GridCoverage2D atmosphericPressure = readRaster("resources/Input/dataET_raster/Pressure.asc");
+
+		OmsProsperoRaster ProsperoRaster = getProsperoRaster(airTemperature, shortWaveRadiation, windVelocity, atmosphericPressure);
+		ProsperoRaster.parallelism = 4;
+		ProsperoRaster.tileSize = 64;
+		ProsperoRaster.process();
+		ProsperoRaster.close();
+
+		// the tiles computed in parallel give the same maps of the serial run on a single tile
+		OmsProsperoRaster serialRaster = getProsperoRaster(airTemperature, shortWaveRadiation, windVelocity, atmosphericPressure);
+		serialRaster.parallelism = 1;
+		serialRaster.tileSize = Integer.MAX_VALUE;
+		serialRaster.process();
+		serialRaster.close();
+
+		Raster temperature = airTemperature.getRenderedImage().getData();
+		Raster transpiration = ProsperoRaster.outTranspirationGrid.getRenderedImage().getData();
+		Raster leafTemperature = ProsperoRaster.outLeafTemperatureGrid.getRenderedImage().getData();
+		Raster serialTranspiration = serialRaster.outTranspirationGrid.getRenderedImage().getData();
+		int computed = 0;
+		for (int row = 0; row < temperature.getHeight(); row++) {
+			for (int column = 0; column < temperature.getWidth(); column++) {
+				double value = temperature.getSampleDouble(temperature.getMinX() + column, temperature.getMinY() + row, 0);
+				double et = transpiration.getSampleDouble(transpiration.getMinX() + column, transpiration.getMinY() + row, 0);
+				double leaf = leafTemperature.getSampleDouble(leafTemperature.getMinX() + column, leafTemperature.getMinY() + row, 0);
+				assertEquals(et, serialTranspiration.getSampleDouble(serialTranspiration.getMinX() + column,
+						serialTranspiration.getMinY() + row, 0), 0);
+				if (Double.isNaN(value) || value == -9999.0) {
+					// the pixels outside the map are not computed
+					assertEquals(-9999.0, et, 0);
+					assertEquals(-9999.0, leaf, 0);
+				} else {
+					assertTrue(et >= 0);
+					assertTrue(!Double.isNaN(leaf) && !Double.isInfinite(leaf));
+					computed++;
+				}
+			}
+		}
+		assertTrue(computed > 0);
+
+		OmsRasterWriter writerTranspiration = new OmsRasterWriter();
+		writerTranspiration.inRaster = ProsperoRaster.outTranspirationGrid;
+		writerTranspiration.file = "resources/Output/Prospero_Transpiration.asc";
+		writerTranspiration.process();
+
+		OmsRasterWriter writerLeafTemperature = new OmsRasterWriter();
+		writerLeafTemperature.inRaster = ProsperoRaster.outLeafTemperatureGrid;
+		writerLeafTemperature.file = "resources/Output/Prospero_LeafTemperatureSun.asc";
+		writerLeafTemperature.process();
+	}
+
+	private OmsProsperoRaster getProsperoRaster(GridCoverage2D airTemperature, GridCoverage2D shortWaveRadiation,
+			GridCoverage2D windVelocity, GridCoverage2D atmosphericPressure) {
+		OmsProsperoRaster ProsperoRaster = new OmsProsperoRaster();
+
+		ProsperoRaster.inAirTemperatureGrid = airTemperature;
+		ProsperoRaster.inShortWaveRadiationDirectGrid = shortWaveRadiation;
+		ProsperoRaster.inWindVelocityGrid = windVelocity;
+		ProsperoRaster.inAtmosphericPressureGrid = atmosphericPressure;
+		ProsperoRaster.tStartDate = startDate;
+		ProsperoRaster.temporalStep = timeStepMinutes;
+		ProsperoRaster.doHourly = true;
+
+		ProsperoRaster.canopyHeight = 0.2;
+		ProsperoRaster.defaultStress = 1.0;
+		ProsperoRaster.doIterative = true;
+		ProsperoRaster.useRadiationStress = true;
+		ProsperoRaster.useTemperatureStress = false;
+		ProsperoRaster.useVDPStress = false;
+		ProsperoRaster.useWaterStress = true;
+		ProsperoRaster.alpha = 0.005;
+		ProsperoRaster.theta = 0.9;
+		ProsperoRaster.VPD0 = 5.0;
+		ProsperoRaster.Tl = -5.0;
+		ProsperoRaster.T0 = 20.0;
+		ProsperoRaster.Th = 45.0;
+		ProsperoRaster.typeOfCanopy = "multilayer";
+		ProsperoRaster.waterWiltingPoint = 0.15;
+		ProsperoRaster.waterFieldCapacity = 0.27;
+		ProsperoRaster.rootsDepth = 0.75;
+		ProsperoRaster.depletionFraction = 0.55;
+
+		return ProsperoRaster;
+	}
+
+	private GridCoverage2D readRaster(String path) throws Exception {
+		OmsRasterReader reader = new OmsRasterReader();
+		reader.file = path;
+		reader.fileNovalue = -9999.0;
+		reader.geodataNovalue = Double.NaN;
+		reader.process();
+		return reader.outRaster;
+	}
+}
@@ -0,0 +1,166 @@
+package prosperoTestCase;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.io.rasterreader.OmsRasterReader;
+import org.jgrasstools.gears.io.shapefile.OmsShapefileFeatureReader;
+import org.jgrasstools.gears.io.timedependent.OmsTimeSeriesIteratorReader;
+import org.junit.*;
+
+import prospero.OmsProspero;
+/**
+ * Test of Prospero reading the csv files of the forcings directly: the outputs are the ones
+ * of the same component fed by the OMS readers.
+ */
+public class TestProsperoSeriesFiles{
+
+	static final String startDate = "2012-07-15 10:30";
+	static final String endDate = "2012-07-15 11:30";
+	static final int timeStepMinutes = 30;
+	static final String fId = "val";
+	static final String PATH = "resources/Input/dataET_point/Viote/";
+
+	@Test
+	public void Test() throws Exception {
+		OmsTimeSeriesIteratorReader tempReader 			= getTimeseriesReader(PATH + "Viote_Temp.csv", fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader windReader 			= getTimeseriesReader(PATH + "Viote_Wind.csv", fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader humReader 			= getTimeseriesReader(PATH + "Viote_RH.csv", fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader shortwaveReader 	= getTimeseriesReader(PATH + "Viote_SwDirect.csv", fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader netradReader 		= getTimeseriesReader(PATH + "Viote_Net.csv", fId, startDate, endDate, timeStepMinutes);
+		OmsTimeSeriesIteratorReader pressureReader 		= getTimeseriesReader(PATH + "Viote_Pres.csv", fId, startDate, endDate,timeStepMinutes);
+		OmsTimeSeriesIteratorReader soilHeatFluxReader 	= getTimeseriesReader(PATH + "Viote_GHF.csv", fId, startDate, endDate,timeStepMinutes);
+		OmsTimeSeriesIteratorReader leafAreaIndexReader	= getTimeseriesReader(PATH + "Viote_Lai.csv", fId, startDate, endDate,timeStepMinutes);
+		OmsTimeSeriesIteratorReader soilMostureReader 	= getTimeseriesReader(PATH + "Viote_SWC.csv", fId, startDate, endDate,timeStepMinutes);
+
+		OmsProspero Prospero = getProspero();
+
+		// the same forcings read by the component, without the readers
+		OmsProspero ProsperoFiles = getProspero();
+		ProsperoFiles.inAirTemperaturePath = PATH + "Viote_Temp.csv";
+		ProsperoFiles.inWindVelocityPath = PATH + "Viote_Wind.csv";
+		ProsperoFiles.inRelativeHumidityPath = PATH + "Viote_RH.csv";
+		ProsperoFiles.inShortWaveRadiationDirectPath = PATH + "Viote_SwDirect.csv";
+		ProsperoFiles.inNetLongWaveRadiationPath = PATH + "Viote_Net.csv";
+		ProsperoFiles.inAtmosphericPressurePath = PATH + "Viote_Pres.csv";
+		ProsperoFiles.inSoilFluxPath = PATH + "Viote_GHF.csv";
+		ProsperoFiles.inLeafAreaIndexPath = PATH + "Viote_Lai.csv";
+		ProsperoFiles.inSoilMosturePath = PATH + "Viote_SWC.csv";
+		ProsperoFiles.idField = fId;
+
+		int steps = 0;
+		while( tempReader.doProcess ) {
+			tempReader.nextRecord();
+			Prospero.inAirTemperature = tempReader.outData;
+
+			windReader.nextRecord();
+			Prospero.inWindVelocity = windReader.outData;
+
+			humReader.nextRecord();
+			Prospero.inRelativeHumidity = humReader.outData;
+
+			shortwaveReader.nextRecord();
+			Prospero.inShortWaveRadiationDirect = shortwaveReader.outData;
+
+			netradReader.nextRecord();
+			Prospero.inNetLongWaveRadiation = netradReader.outData;
+
+			pressureReader.nextRecord();
+			Prospero.inAtmosphericPressure = pressureReader.outData;
+
+			soilHeatFluxReader.nextRecord();
+			Prospero.inSoilFlux = soilHeatFluxReader.outData;
+
+			leafAreaIndexReader.nextRecord();
+			Prospero.inLeafAreaIndex = leafAreaIndexReader.outData;
+
+			soilMostureReader.nextRecord();
+			Prospero.inSoilMoisture = soilMostureReader.outData;
+
+			Prospero.process();
+			ProsperoFiles.process();
+
+			assertSame(Prospero.outTranspiration, ProsperoFiles.outTranspiration);
+			assertSame(Prospero.outLatentHeat, ProsperoFiles.outLatentHeat);
+			assertSame(Prospero.outLatentHeatShade, ProsperoFiles.outLatentHeatShade);
+			assertSame(Prospero.outEvaporation, ProsperoFiles.outEvaporation);
+			steps++;
+		}
+		assertEquals(3, steps);
+		ProsperoFiles.close();
+
+		tempReader.close();
+		windReader.close();
+		humReader.close();
+		shortwaveReader.close();
+		netradReader.close();
+		pressureReader.close();
+		soilHeatFluxReader.close();
+		leafAreaIndexReader.close();
+		soilMostureReader.close();
+	}
+
+	private void assertSame(HashMap<Integer, double[]> expected, HashMap<Integer, double[]> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Entry<Integer, double[]> station : expected.entrySet()) {
+			assertEquals(station.getValue()[0], actual.get(station.getKey())[0], 0);
+		}
+	}
+
+	private OmsProspero getProspero() throws Exception {
+		OmsRasterReader DEMreader = new OmsRasterReader();
+		DEMreader.file = "resources/Input/dataET_raster/dem.tif";
+		DEMreader.fileNovalue = -9999.0;
+		DEMreader.geodataNovalue = Double.NaN;
+		DEMreader.process();
+		GridCoverage2D digitalElevationModel = DEMreader.outRaster;
+
+		OmsShapefileFeatureReader centroidsReader = new OmsShapefileFeatureReader();
+		centroidsReader.file = "resources/Input/dataET_point/Viote/CentroidViote.shp";
+		centroidsReader.readFeatureCollection();
+
+		OmsProspero Prospero = new OmsProspero();
+		Prospero.inCentroids = centroidsReader.geodata;
+		Prospero.idCentroids = "id";
+		Prospero.centroidElevation = "Elevation";
+		Prospero.inDem = digitalElevationModel;
+		Prospero.doHourly = true;
+		Prospero.tStartDate = startDate;
+		Prospero.temporalStep = timeStepMinutes;
+		Prospero.canopyHeight = 0.2;
+		Prospero.defaultStress = 1.0;
+		Prospero.useRadiationStress = true;
+		Prospero.useTemperatureStress = false;
+		Prospero.useVDPStress = false;
+		Prospero.useWaterStress = true;
+		Prospero.alpha = 0.005;
+		Prospero.theta = 0.9;
+		Prospero.VPD0 = 5.0;
+		Prospero.Tl = -5.0;
+		Prospero.T0 = 20.0;
+		Prospero.Th = 45.0;
+		Prospero.typeOfCanopy = "multilayer";
+		Prospero.waterWiltingPoint = 0.15;
+		Prospero.waterFieldCapacity = 0.27;
+		Prospero.rootsDepth = 0.75;
+		Prospero.depletionFraction = 0.55;
+		return Prospero;
+	}
+
+	private OmsTimeSeriesIteratorReader getTimeseriesReader( String path, String id, String startDate, String endDate,
+			int timeStepMinutes ) throws URISyntaxException {
+		OmsTimeSeriesIteratorReader reader = new OmsTimeSeriesIteratorReader();
+		reader.file = path;
+		reader.idfield = id;
+		reader.tStart =startDate;
+		reader.tTimestep = timeStepMinutes;
+		reader.tEnd = endDate;
+		reader.fileNovalue = "-9999.0";
+		reader.initProcess();
+		return reader;
+	}
+}
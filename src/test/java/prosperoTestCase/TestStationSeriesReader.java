@@ -0,0 +1,190 @@
+package prosperoTestCase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.jgrasstools.gears.libs.modules.JGTConstants;
+import org.junit.*;
+
+import prosperoClasses.StationBlock;
+import prosperoClasses.StationBlock.Variable;
+import prosperoClasses.StationSeriesReader;
+/**
+ * Test of the reader of the OMS time series: the dates of the fixed format and of the Format row,
+ * the exact decimals, the novalue and the lines crossing the windows of the mapping.
+ */
+public class TestStationSeriesReader{
+
+	static final String HEADER = "@T,table,\n@H,timestamp,value_4,value_7\nval,  ,4,7\n";
+
+	@Test
+	public void TestDates() throws Exception {
+		String[] dates = {"2011-01-01 00:00", "2012-02-29 23:30", "2000-02-29 12:00", "1969-12-31 23:59", "2100-03-01 00:00"};
+		StringBuilder text = new StringBuilder(HEADER);
+		for (String date : dates) {
+			text.append(",").append(date).append(",1,2\n");
+		}
+		StationSeriesReader reader = open(text.toString(), 0);
+		try {
+			for (String date : dates) {
+				assertTrue(reader.next());
+				assertEquals(date, millis(date), reader.getMillis());
+			}
+			assertFalse(reader.next());
+		} finally {
+			reader.close();
+		}
+
+		// the days that are not in the month are rejected, also in the fixed format
+		for (String date : new String[] {"2012-02-31 00:00", "2011-02-29 00:00", "1900-02-29 00:00", "2012-04-31 00:00"}) {
+			reader = open(HEADER + "," + date + ",1,2\n", 0);
+			try {
+				reader.next();
+				fail(date + " was accepted.");
+			} catch (IllegalArgumentException e) {
+				// the date does not exist
+			} finally {
+				reader.close();
+			}
+		}
+
+		// the pattern of the Format row
+		reader = open(HEADER.replace("val,", "Format,dd/MM/yyyy HH:mm\nval,") + ",29/02/2012 23:30,1,2\n", 0);
+		try {
+			assertTrue(reader.next());
+			assertEquals(millis("2012-02-29 23:30"), reader.getMillis());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void TestValues() throws Exception {
+		String[] cells = {"-4.61", "0.1", "0.30000000000000004", "+123456.789", "12345678901234567", "-0",
+				"1e3", "2.5E-4", "123456789012345678901", "0.0000000000000000000001", "7."};
+		StringBuilder text = new StringBuilder(HEADER);
+		for (String cell : cells) {
+			text.append(",2011-01-01 00:00,").append(cell).append(", ").append(cell).append(" \n");
+		}
+		StationSeriesReader reader = open(text.toString(), 0);
+		try {
+			double[] values = new double[2];
+			for (String cell : cells) {
+				assertTrue(reader.next());
+				reader.readValues(values);
+				// the same double of the parser of Java, in the digits and in the exponents
+				assertEquals(cell, Double.doubleToLongBits(Double.parseDouble(cell)), Double.doubleToLongBits(values[0]));
+				assertEquals(cell, Double.doubleToLongBits(Double.parseDouble(cell)), Double.doubleToLongBits(values[1]));
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void TestNovalue() throws Exception {
+		String text = HEADER + ",2011-01-01 00:00,-9999,3.5\n,2011-01-01 00:30,-999.0,\n,2011-01-01 01:00,1.5\n";
+		StationSeriesReader reader = open(text, 0);
+		try {
+			reader.fileNovalue = -999.0;
+			reader.nullValue = Double.NaN;
+			double[] values = new double[2];
+			assertTrue(reader.next());
+			reader.readValues(values);
+			// -9999 is a value when the novalue of the file is another one
+			assertArrayEquals(new double[] {-9999.0, 3.5}, values, 0);
+			assertTrue(reader.next());
+			reader.readValues(values);
+			// the novalue and the empty cell
+			assertTrue(Double.isNaN(values[0]));
+			assertTrue(Double.isNaN(values[1]));
+			assertTrue(reader.next());
+			reader.readValues(values);
+			// the missing cell at the end of the row
+			assertEquals(1.5, values[0], 0);
+			assertTrue(Double.isNaN(values[1]));
+		} finally {
+			reader.close();
+		}
+
+		// the block: the stations that are not in the file, and the dates that are not in it
+		reader = open(text, 0);
+		try {
+			StationBlock block = new StationBlock(new int[] {7, 5, 4});
+			double[] column = reader.fill(block, Variable.AIR_TEMPERATURE, millis("2011-01-01 00:00"));
+			assertArrayEquals(new double[] {3.5, -9999.0, -9999.0}, column, 0);
+			column = reader.fill(block, Variable.AIR_TEMPERATURE, millis("2011-01-01 00:15"));
+			assertArrayEquals(new double[] {-9999.0, -9999.0, -9999.0}, column, 0);
+			column = reader.fill(block, Variable.AIR_TEMPERATURE, millis("2011-01-01 01:00"));
+			assertArrayEquals(new double[] {-9999.0, -9999.0, 1.5}, column, 0);
+			assertTrue(block.getColumn(Variable.AIR_TEMPERATURE) == column);
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void TestWindows() throws Exception {
+		StringBuilder text = new StringBuilder(HEADER);
+		long start = millis("2011-01-01 00:00");
+		int rows = 500;
+		for (int i = 0; i < rows; i++) {
+			String date = JGTConstants.utcDateFormatterYYYYMMDDHHMM.print(start + i * 1800000L);
+			// the lines have different lengths, and some of them end with \r\n
+			text.append(",").append(date).append(",").append(i * 0.01).append(",").append(-i)
+					.append((i % 3 == 0) ? "\r\n" : "\n");
+		}
+		// windows shorter than the header and not multiple of the lines
+		for (int window : new int[] {64, 77, 1000}) {
+			StationSeriesReader reader = open(text.toString(), window);
+			try {
+				assertArrayEquals(new int[] {4, 7}, reader.getIds());
+				double[] values = new double[2];
+				for (int i = 0; i < rows; i++) {
+					assertTrue(reader.next());
+					assertEquals(start + i * 1800000L, reader.getMillis());
+					reader.readValues(values);
+					assertEquals(i * 0.01, values[0], 0);
+					assertEquals(-i, values[1], 0);
+				}
+				assertFalse(reader.next());
+			} finally {
+				reader.close();
+			}
+		}
+
+		// a line longer than the window
+		StationSeriesReader reader = open(text.toString(), 32);
+		try {
+			while (reader.next()) {
+			}
+			fail("The line longer than the window was read.");
+		} catch (IOException e) {
+			// the line does not fit in the window
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Writes the text in a temporary file and opens it, with the default window if window is 0.
+	 */
+	private StationSeriesReader open(String text, int window) throws IOException {
+		File file = File.createTempFile("series", ".csv");
+		file.deleteOnExit();
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.US_ASCII));
+		return (window > 0) ? new StationSeriesReader(file, "val", window) : new StationSeriesReader(file, "val");
+	}
+
+	private long millis(String date) {
+		return JGTConstants.utcDateFormatterYYYYMMDDHHMM.parseMillis(date);
+	}
+}
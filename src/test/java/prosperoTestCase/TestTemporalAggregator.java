@@ -0,0 +1,211 @@
+package prosperoTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+
+import org.jgrasstools.gears.libs.modules.JGTConstants;
+import org.junit.*;
+
+import etpPointCase.OmsPriestleyTaylor;
+import prosperoClasses.SimulationClock;
+import prosperoClasses.TemporalAggregator;
+/**
+ * Test of the daily, monthly and custom windows of the aggregation, with the missing values,
+ * the window still open at the last step and the maps of the closed windows.
+ */
+public class TestTemporalAggregator{
+
+	static final int[] ID = {1, 2, 3};
+
+	@Test
+	public void TestDaily() {
+		long start = millis("2012-07-01 00:00");
+		TemporalAggregator aggregator = TemporalAggregator.create("daily", start, 30);
+		assertFalse(aggregator.flush());
+		// a day and 6 hours of half an hour steps
+		for (int step = 0; step < 60; step++) {
+			// the second station misses the odd steps, the third one all of them
+			double[] values = {1.0, (step % 2 == 0) ? step : ((step % 4 == 1) ? -9999.0 : Double.NaN), -9999.0};
+			boolean closed = aggregator.add(start + step * 30 * SimulationClock.MILLIS_PER_MINUTE, ID, values);
+			assertEquals(step == 47, closed);
+			if (closed) {
+				assertEquals(start, aggregator.getWindowStart());
+				assertStatistics(aggregator, 0, 48, 1, 1, 48);
+				// 0 + 2 + ... + 46
+				assertStatistics(aggregator, 1, 552, 0, 46, 24);
+				assertStatistics(aggregator, 2, -9999.0, -9999.0, -9999.0, 0);
+			}
+		}
+		// the open window of the second day
+		assertTrue(aggregator.flush());
+		assertEquals(start + SimulationClock.MILLIS_PER_DAY, aggregator.getWindowStart());
+		assertStatistics(aggregator, 0, 12, 1, 1, 12);
+		// 48 + 50 + ... + 58
+		assertStatistics(aggregator, 1, 318, 48, 58, 6);
+		double[] station = aggregator.toHashMap().get(2);
+		assertEquals(318, station[TemporalAggregator.TOTAL], 0);
+		assertEquals(6, station[TemporalAggregator.COUNT], 0);
+		assertFalse(aggregator.flush());
+	}
+
+	@Test
+	public void TestMonthly() {
+		// the daily steps are at noon
+		long start = millis("2012-01-15 12:00");
+		TemporalAggregator aggregator = TemporalAggregator.create("monthly", start, 1440);
+		int closedWindows = 0;
+		for (int day = 0; day < 56; day++) {
+			double[] values = {day, (day == 20) ? -9999.0 : 2.0, Double.NaN};
+			if (aggregator.add(start + day * SimulationClock.MILLIS_PER_DAY, ID, values)) {
+				closedWindows++;
+				if (closedWindows == 1) {
+					// from the 15th to the 31st of January
+					assertEquals(16, day);
+					assertStatistics(aggregator, 0, 136, 0, 16, 17);
+					assertStatistics(aggregator, 1, 34, 2, 2, 17);
+				} else {
+					// February of the leap year
+					assertEquals(45, day);
+					assertEquals(millis("2012-02-01 12:00"), aggregator.getWindowStart());
+					assertStatistics(aggregator, 1, 56, 2, 2, 28);
+				}
+				assertStatistics(aggregator, 2, -9999.0, -9999.0, -9999.0, 0);
+			}
+		}
+		assertEquals(2, closedWindows);
+		// the first 10 days of March
+		assertTrue(aggregator.flush());
+		assertEquals(millis("2012-03-01 12:00"), aggregator.getWindowStart());
+		assertStatistics(aggregator, 0, 505, 46, 55, 10);
+	}
+
+	@Test
+	public void TestCustom() {
+		long start = millis("2012-07-01 01:00");
+		TemporalAggregator aggregator = TemporalAggregator.create("180", start, 60);
+		for (int step = 0; step < 7; step++) {
+			double[] values = {step, (step == 6) ? -9999.0 : 1.0, -9999.0};
+			boolean closed = aggregator.add(start + step * SimulationClock.MILLIS_PER_HOUR, ID, values);
+			assertEquals(step % 3 == 2, closed);
+			if (step == 5) {
+				assertStatistics(aggregator, 0, 12, 3, 5, 3);
+			}
+		}
+		// the window of the last step has only missing values for the second station
+		assertTrue(aggregator.flush());
+		assertStatistics(aggregator, 0, 6, 6, 6, 1);
+		assertStatistics(aggregator, 1, -9999.0, -9999.0, -9999.0, 0);
+	}
+
+	@Test
+	public void TestHashMaps() {
+		long start = millis("2012-07-01 01:00");
+		int[] id = {1};
+		TemporalAggregator aggregator = TemporalAggregator.create("60", start, 60);
+		assertTrue(aggregator.add(start, id, new double[] {1.0}));
+		HashMap<Integer, double[]> first = aggregator.toHashMap();
+		assertTrue(aggregator.add(start + SimulationClock.MILLIS_PER_HOUR, id, new double[] {2.0}));
+		HashMap<Integer, double[]> second = aggregator.toHashMap();
+		// each window has its own map, so a consumer can keep it
+		assertEquals(1.0, first.get(1)[TemporalAggregator.TOTAL], 0);
+		assertEquals(2.0, second.get(1)[TemporalAggregator.TOTAL], 0);
+
+		// the map updated in place only when asked
+		aggregator.reuseHashMaps = true;
+		HashMap<Integer, double[]> reused = aggregator.toHashMap();
+		assertTrue(aggregator.add(start + 2 * SimulationClock.MILLIS_PER_HOUR, id, new double[] {3.0}));
+		assertTrue(reused == aggregator.toHashMap());
+		assertEquals(3.0, reused.get(1)[TemporalAggregator.TOTAL], 0);
+	}
+
+	@Test
+	public void TestStations() {
+		long start = millis("2012-07-01 00:00");
+		TemporalAggregator aggregator = TemporalAggregator.create("daily", start, 60);
+		aggregator.add(start, new int[] {1, 2}, new double[] {1.0, 1.0});
+		try {
+			aggregator.add(start + SimulationClock.MILLIS_PER_HOUR, new int[] {1, 3}, new double[] {1.0, 1.0});
+			fail("The stations changed inside the window.");
+		} catch (IllegalArgumentException e) {
+			// the partial window is not thrown away silently
+		}
+		// a new window can have other stations
+		for (int hour = 1; hour < 24; hour++) {
+			aggregator.add(start + hour * SimulationClock.MILLIS_PER_HOUR, new int[] {1, 2}, new double[] {1.0, 1.0});
+		}
+		assertTrue(aggregator.add(start + SimulationClock.MILLIS_PER_DAY, new int[] {3}, new double[] {5.0}) == false);
+		assertTrue(aggregator.flush());
+		assertStatistics(aggregator, 0, 5, 5, 5, 1);
+	}
+
+	@Test
+	public void TestComponent() throws Exception {
+		// the step of the end date closes the daily window
+		OmsPriestleyTaylor PtEt = getPriestleyTaylor("2012-07-15 12:00");
+		double total = 0;
+		for (int step = 0; step < 3; step++) {
+			PtEt.inAirTemperature = map(20.0 + step);
+			PtEt.inNetRadiation = map(400.0);
+			PtEt.inAtmosphericPressure = map(101300.0);
+			PtEt.process();
+			total += PtEt.outEvapotranspirationPt.get(1)[0];
+			if (step < 2) {
+				assertNull(PtEt.outEvapotranspirationPtAggregated);
+			}
+		}
+		assertNotNull(PtEt.outEvapotranspirationPtAggregated);
+		double[] station = PtEt.outEvapotranspirationPtAggregated.get(1);
+		assertEquals(total, station[TemporalAggregator.TOTAL], 1E-12);
+		assertEquals(3, station[TemporalAggregator.COUNT], 0);
+
+		// without the end date the last window would never reach the other components
+		PtEt = getPriestleyTaylor(null);
+		PtEt.inAirTemperature = map(20.0);
+		PtEt.inNetRadiation = map(400.0);
+		PtEt.inAtmosphericPressure = map(101300.0);
+		try {
+			PtEt.process();
+			fail("The aggregation ran without the end date.");
+		} catch (IllegalArgumentException e) {
+			// the end date is required
+		}
+	}
+
+	private OmsPriestleyTaylor getPriestleyTaylor(String endDate) {
+		OmsPriestleyTaylor PtEt = new OmsPriestleyTaylor();
+		PtEt.alpha = 1.26;
+		PtEt.soilFluxParameterDay = 0.35;
+		PtEt.soilFluxParameterNight = 0.75;
+		PtEt.defaultAtmosphericPressure = 101.3;
+		PtEt.doHourly = true;
+		PtEt.temporalStep = 60;
+		PtEt.tStartDate = "2012-07-15 10:00";
+		PtEt.tEndDate = endDate;
+		PtEt.aggregationWindow = "daily";
+		return PtEt;
+	}
+
+	private void assertStatistics(TemporalAggregator aggregator, int station, double total, double minimum,
+			double maximum, int count) {
+		assertEquals(total, aggregator.get(TemporalAggregator.TOTAL, station), 1E-12);
+		assertEquals(minimum, aggregator.get(TemporalAggregator.MINIMUM, station), 0);
+		assertEquals(maximum, aggregator.get(TemporalAggregator.MAXIMUM, station), 0);
+		assertEquals(count, aggregator.get(TemporalAggregator.COUNT, station), 0);
+	}
+
+	private HashMap<Integer, double[]> map(double value) {
+		HashMap<Integer, double[]> map = new HashMap<Integer, double[]>();
+		map.put(1, new double[] {value});
+		return map;
+	}
+
+	private long millis(String date) {
+		return JGTConstants.utcDateFormatterYYYYMMDDHHMM.parseMillis(date);
+	}
+}